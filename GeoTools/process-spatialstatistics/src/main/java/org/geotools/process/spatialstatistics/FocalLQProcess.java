@@ -92,6 +92,7 @@ public class FocalLQProcess extends AbstractStatisticsProcess {
             // start process
             SimpleFeatureCollection resultFc = null;
             FocalLQOperation process = new FocalLQOperation();
+            process.setProgressListener(monitor);
             process.setDistanceBand(searchDistance);
             resultFc = process.execute(inputFeatures, xField, yField);
             // end process
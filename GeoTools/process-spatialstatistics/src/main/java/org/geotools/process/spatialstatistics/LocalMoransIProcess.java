@@ -58,6 +58,14 @@ public class LocalMoransIProcess extends AbstractStatisticsProcess {
     public static SimpleFeatureCollection process(SimpleFeatureCollection inputFeatures,
             String inputField, SpatialConcept spatialConcept, DistanceMethod distanceMethod,
             StandardizationMethod standardization, Double searchDistance, ProgressListener monitor) {
+        return process(inputFeatures, inputField, spatialConcept, distanceMethod, standardization,
+                searchDistance, Integer.valueOf(0), monitor);
+    }
+
+    public static SimpleFeatureCollection process(SimpleFeatureCollection inputFeatures,
+            String inputField, SpatialConcept spatialConcept, DistanceMethod distanceMethod,
+            StandardizationMethod standardization, Double searchDistance, Integer permutations,
+            ProgressListener monitor) {
         Map<String, Object> map = new HashMap<String, Object>();
         map.put(LocalMoransIProcessFactory.inputFeatures.key, inputFeatures);
         map.put(LocalMoransIProcessFactory.inputField.key, inputField);
@@ -65,6 +73,7 @@ public class LocalMoransIProcess extends AbstractStatisticsProcess {
         map.put(LocalMoransIProcessFactory.distanceMethod.key, distanceMethod);
         map.put(LocalMoransIProcessFactory.standardization.key, standardization);
         map.put(LocalMoransIProcessFactory.searchDistance.key, searchDistance);
+        map.put(LocalMoransIProcessFactory.permutations.key, permutations);
 
         Process process = new LocalMoransIProcess(null);
         Map<String, Object> resultMap;
@@ -115,10 +124,15 @@ public class LocalMoransIProcess extends AbstractStatisticsProcess {
                     LocalMoransIProcessFactory.searchDistance,
                     LocalMoransIProcessFactory.searchDistance.sample);
 
+            Integer permutations = (Integer) Params.getValue(input,
+                    LocalMoransIProcessFactory.permutations,
+                    LocalMoransIProcessFactory.permutations.sample);
+
             // start process
             SimpleFeatureCollection resultFc = null;
             try {
                 LocalMoranIStatisticOperation process = new LocalMoranIStatisticOperation();
+                process.setProgressListener(monitor);
                 process.setSpatialConceptType(spatialConcept);
                 process.setDistanceType(distanceMethod);
                 process.setStandardizationType(standardization);
@@ -128,6 +142,11 @@ public class LocalMoransIProcess extends AbstractStatisticsProcess {
                     process.setDistanceBand(searchDistance);
                 }
 
+                // conditional permutation inference, e.g. 99, 499, 999
+                if (permutations != null && permutations > 0) {
+                    process.setPermutations(permutations);
+                }
+
                 resultFc = process.execute(inputFeatures, inputField);
             } catch (Exception ee) {
                 monitor.exceptionOccurred(ee);
@@ -49,7 +49,7 @@ public class LocalMoransIProcessFactory extends SpatialStatisticsProcessFactory
 
     /*
      * LocalMoransI(SimpleFeatureCollection inputFeatures, String inputField, SpatialConcept spatialConcept, DistanceMethod distanceMethod,
-     * StandardizationMethod standardization, Double searchDistance) : SimpleFeatureCollection
+     * StandardizationMethod standardization, Double searchDistance, Integer permutations) : SimpleFeatureCollection
      */
 
     public LocalMoransIProcessFactory() {
@@ -110,6 +110,12 @@ public class LocalMoransIProcessFactory extends SpatialStatisticsProcessFactory
             getResource("LocalMoransI.searchDistance.description"), false, 0, 1,
             Double.valueOf(0.0), null);
 
+    /** permutations */
+    public static final Parameter<Integer> permutations = new Parameter<Integer>("permutations",
+            Integer.class, getResource("LocalMoransI.permutations.title"),
+            getResource("LocalMoransI.permutations.description"), false, 0, 1,
+            Integer.valueOf(0), null);
+
     @Override
     protected Map<String, Parameter<?>> getParameterInfo() {
         HashMap<String, Parameter<?>> parameterInfo = new LinkedHashMap<String, Parameter<?>>();
@@ -119,6 +125,7 @@ public class LocalMoransIProcessFactory extends SpatialStatisticsProcessFactory
         parameterInfo.put(distanceMethod.key, distanceMethod);
         parameterInfo.put(standardization.key, standardization);
         parameterInfo.put(searchDistance.key, searchDistance);
+        parameterInfo.put(permutations.key, permutations);
         return parameterInfo;
     }
 
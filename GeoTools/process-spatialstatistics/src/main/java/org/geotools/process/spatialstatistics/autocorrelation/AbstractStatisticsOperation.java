@@ -20,11 +20,14 @@ import java.io.File;
 import java.util.logging.Logger;
 
 import org.geotools.process.spatialstatistics.core.DistanceFactory;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
 import org.geotools.process.spatialstatistics.enumeration.StandardizationMethod;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
+import org.geotools.util.NullProgressListener;
 import org.geotools.util.logging.Logging;
+import org.opengis.util.ProgressListener;
 
 /**
  * Abstract Statistics Operation
@@ -46,8 +49,46 @@ public abstract class AbstractStatisticsOperation extends GeneralOperation {
 
     private File spatialWeightsFile = null;
 
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
+
+    private boolean directEvents = false;
+
+    private ProgressListener progressListener = new NullProgressListener();
+
     protected final DistanceFactory factory = DistanceFactory.newInstance();
 
+    /**
+     * Sets the number of threads used by the local statistics, 1 disables parallel execution.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Keeps the events of the weight matrix in direct (off-heap) buffers, for very large point
+     * sets.
+     */
+    public void setDirectEvents(boolean directEvents) {
+        this.directEvents = directEvents;
+    }
+
+    public boolean isDirectEvents() {
+        return directEvents;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener == null ? new NullProgressListener()
+                : progressListener;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
     public void setDistanceType(DistanceMethod distanceType) {
         this.distanceType = distanceType;
     }
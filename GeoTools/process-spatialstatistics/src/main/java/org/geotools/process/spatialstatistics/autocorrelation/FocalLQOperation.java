@@ -23,7 +23,9 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FormatUtils;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
+import org.geotools.process.spatialstatistics.core.PointKdTree;
+import org.geotools.process.spatialstatistics.core.SpatialEventStore;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix2;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -71,9 +73,12 @@ public class FocalLQOperation extends AbstractStatisticsOperation {
             String fieldName2) throws IOException {
         swMatrix = new SpatialWeightMatrix2(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
-        swMatrix.buildWeightMatrix(inputFeatures, fieldName1, fieldName2, this.getDistanceType());
+        swMatrix.setDirectEvents(isDirectEvents());
 
-        int featureCount = swMatrix.Events.size();
+        // the local sums search the radius neighbors, no weights are needed
+        swMatrix.buildEvents(inputFeatures, fieldName1, fieldName2, this.getDistanceType());
+
+        final int featureCount = swMatrix.Events.size();
 
         // Calculate a spatial LQ for each feature in the data set.
         dcLocalLQ = new double[featureCount];
@@ -84,50 +89,77 @@ public class FocalLQOperation extends AbstractStatisticsOperation {
         // Y / X
         final double dXY = swMatrix.dZSum / swMatrix.dPopSum;
 
+        // search radius neighbors, including the feature itself
+        final PointKdTree spatialIndex = swMatrix.distanceBandWidth > 0 ? PointKdTree
+                .build(swMatrix.Events) : null;
+
         // # Calculate LQ for each feature i.
-        for (int i = 0; i < featureCount; i++) {
-            SpatialEvent curE = swMatrix.Events.get(i);
-
-            // # Initialize working variables.
-            double dLocalObsSum = 0.0; // All Count
-            double dLocalPopSum = 0.0; // Count
-
-            // # Look for local neighbors
-            for (int j = 0; j < featureCount; j++) {
-                SpatialEvent destE = swMatrix.Events.get(j);
-
-                if (swMatrix.distanceBandWidth > 0) {
-                    // apply search radius
-                    double dDist = factory.getDistance(curE, destE, getDistanceType());
-                    if (dDist <= swMatrix.distanceBandWidth) {
-                        dLocalObsSum += destE.weight;
-                        dLocalPopSum += destE.population;
+        boolean completed = ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                LocalSumVisitor visitor = new LocalSumVisitor(swMatrix.Events);
+                for (int i = start; i < end; i++) {
+                    // # Look for local neighbors
+                    visitor.dLocalObsSum = 0.0; // All Count
+                    visitor.dLocalPopSum = 0.0; // Count
+                    if (spatialIndex != null) {
+                        // apply search radius
+                        spatialIndex.query(swMatrix.Events.getX(i), swMatrix.Events.getY(i),
+                                swMatrix.distanceBandWidth, getDistanceType(), visitor);
+                    } else {
+                        // apply all features
+                        visitor.dLocalObsSum = swMatrix.dZSum;
+                        visitor.dLocalPopSum = swMatrix.dPopSum;
                     }
-                } else {
-                    // apply all features
-                    dLocalObsSum += destE.weight;
-                    dLocalPopSum += destE.population;
-                }
-            }
 
-            double dxy = dLocalPopSum == 0.0 ? 0.0 : dLocalObsSum / dLocalPopSum; // y / x
-            double tmpval2 = dLocalObsSum * dXY; // x * Y/X
-            double tmpval4 = 0.0;
-            if (curE.weight != 0.0) {
-                tmpval4 = curE.population / curE.weight; // y / x
+                    double dLocalObsSum = visitor.dLocalObsSum;
+                    double dLocalPopSum = visitor.dLocalPopSum;
+
+                    double dxy = dLocalPopSum == 0.0 ? 0.0 : dLocalObsSum / dLocalPopSum; // y / x
+                    double tmpval2 = dLocalObsSum * dXY; // x * Y/X
+                    double tmpval4 = 0.0;
+                    double dObs = swMatrix.Events.getWeight(i);
+                    if (dObs != 0.0) {
+                        tmpval4 = swMatrix.Events.getPopulation(i) / dObs; // y / x
+                    }
+
+                    localLQ[i] = validateDouble(tmpval4 / dXY);
+                    dcLocalLQ[i] = validateDouble(dxy / dXY);
+                    dcZValue[i] = validateDouble((dLocalPopSum - tmpval2) / Math.sqrt(tmpval2));
+                }
             }
+        }, getParallelism(), getProgressListener());
 
-            localLQ[i] = validateDouble(tmpval4 / dXY);
-            dcLocalLQ[i] = validateDouble(dxy / dXY);
-            dcZValue[i] = validateDouble((dLocalPopSum - tmpval2) / Math.sqrt(tmpval2));
+        if (!completed) {
+            return null;
+        }
 
-            // global LQ += ABS(local lq)
+        // global LQ += ABS(local lq), summed in feature order
+        for (int i = 0; i < featureCount; i++) {
             locationQuotient += Math.abs(dcLocalLQ[i]);
         }
 
         return buildFeatureCollection(inputFeatures);
     }
 
+    static final class LocalSumVisitor implements PointKdTree.Visitor {
+        private final SpatialEventStore events;
+
+        double dLocalObsSum = 0.0;
+
+        double dLocalPopSum = 0.0;
+
+        public LocalSumVisitor(SpatialEventStore events) {
+            this.events = events;
+        }
+
+        @Override
+        public void visit(int index, double distance) {
+            dLocalObsSum += events.getWeight(index);
+            dLocalPopSum += events.getPopulation(index);
+        }
+    }
+
     private double validateDouble(double val) {
         if (Double.isInfinite(val) || Double.isNaN(val)) {
             return 0.0;
@@ -21,7 +21,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -53,6 +53,8 @@ public class GlobalGStatisticOperation extends AbstractStatisticsOperation {
 
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
 
         // """Calculate General G and Z Score."""
@@ -76,35 +78,31 @@ public class GlobalGStatisticOperation extends AbstractStatisticsOperation {
         double dWijSum = 0.0;
         double dWijWji2Sum = 0.0;
 
-        for (SpatialEvent curE : swMatrix.Events) {
+        // # sum of zi * zj over all pairs i != j
+        dTotalProductSum = Math.pow(dZSum, 2.0) - dZ2Sum;
+
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        for (int i = 0; i < swMatrix.Events.size(); i++) {
+            double dZi = swMatrix.Events.getWeight(i);
             double dWijS2Sum = 0.0;
             double dWjiS2Sum = 0.0;
 
-            for (SpatialEvent destE : swMatrix.Events) {
-                if (curE.oid == destE.oid)
-                    continue; // # i may not equal j
+            // # i may not equal j
+            swMatrix.getRow(i, row);
+            for (int k = row.start; k < row.end; k++) {
+                int j = row.neighbors[k];
+                double dZj = swMatrix.Events.getWeight(j);
 
-                dTotalProductSum += curE.weight * destE.weight;
-                
                 // # Calculate the weight (dWij)
-                double dWij = 0.0;
-                double dWji = 0.0;
-
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWij = 0.0;
-                    // if (destE is neighbor ) dWij = 1.0;
-                    dWji = dWij;
-                } else {
-                    dWij = swMatrix.getWeight(curE, destE);
-                    dWji = dWij;
-                }
+                double dWij = row.weights[k];
+                double dWji = dWij;
 
                 if (getStandardizationType() == StandardizationMethod.ROW) {
-                    dWij = swMatrix.standardizeWeight(curE, dWij);
-                    dWji = swMatrix.standardizeWeight(destE, dWji);
+                    dWij = swMatrix.standardizeWeight(i, dWij);
+                    dWji = swMatrix.standardizeWeight(j, dWji);
                 }
 
-                dNeighborProductSum += dWij * (curE.weight * destE.weight);
+                dNeighborProductSum += dWij * (dZi * dZj);
                 dWijSum += dWij;
                 dWijWji2Sum += Math.pow(dWij + dWji, 2.0);
                 dWijS2Sum += dWij;
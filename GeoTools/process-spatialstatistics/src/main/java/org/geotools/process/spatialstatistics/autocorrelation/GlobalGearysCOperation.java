@@ -21,7 +21,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -52,6 +52,8 @@ public class GlobalGearysCOperation extends AbstractStatisticsOperation {
     public GearysC execute(SimpleFeatureCollection inputFeatures, String inputField) {
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
 
         double dSumWC = 0.0; // summation of weighted co-variance (dWij * dCij)
@@ -65,38 +67,32 @@ public class GlobalGearysCOperation extends AbstractStatisticsOperation {
         double n = swMatrix.Events.size() * 1.0;
         double dZMean = swMatrix.dZSum / n;
 
-        for (SpatialEvent curE : swMatrix.Events) {
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        for (int i = 0; i < swMatrix.Events.size(); i++) {
+            double dZi = swMatrix.Events.getWeight(i);
             double dWijS2Sum = 0.0;
             double dWjiS2Sum = 0.0;
-            double dZiDeviation = curE.weight - dZMean; // Calculate deviation from mean
+            double dZiDeviation = dZi - dZMean; // Calculate deviation from mean
             dM2 += Math.pow(dZiDeviation, 2.0);
             dM4 += Math.pow(dZiDeviation, 4.0);
 
             // # Look for i's local neighbors
-            for (SpatialEvent destE : swMatrix.Events) {
-                if (curE.oid == destE.oid)
-                    continue;
+            swMatrix.getRow(i, row);
+            for (int k = row.start; k < row.end; k++) {
+                int j = row.neighbors[k];
+                double dZj = swMatrix.Events.getWeight(j);
 
                 // For Geary, the cross-product uses the actual values themselves at each location
                 // (xi - xj)^2
-                double dCij = Math.pow(curE.weight - destE.weight, 2.0);
+                double dCij = Math.pow(dZi - dZj, 2.0);
 
                 // Calculate the weight (dWij)
-                double dWij = 0.0;
-                double dWji = 0.0;
-
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWij = 0.0;
-                    // if (destE is neighbor ) dWij = 1.0;
-                    dWji = dWij;
-                } else {
-                    dWij = swMatrix.getWeight(curE, destE);
-                    dWji = dWij;
-                }
+                double dWij = row.weights[k];
+                double dWji = dWij;
 
                 if (getStandardizationType() == StandardizationMethod.ROW) {
-                    dWij = swMatrix.standardizeWeight(curE, dWij);
-                    dWji = swMatrix.standardizeWeight(destE, dWji);
+                    dWij = swMatrix.standardizeWeight(i, dWij);
+                    dWji = swMatrix.standardizeWeight(j, dWji);
                 }
 
                 // Create sums needed to calculate
@@ -21,7 +21,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -50,6 +50,8 @@ public class GlobalLeesSOperation extends AbstractStatisticsOperation {
     public LeesS execute(SimpleFeatureCollection inputFeatures, String inputField) {
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
 
         double dSumWC = 0.0; // sum of weighted co-variance (dWij * dCij)
@@ -65,34 +67,29 @@ public class GlobalLeesSOperation extends AbstractStatisticsOperation {
         double n = swMatrix.Events.size();
         double dZMean = swMatrix.dZSum / n;
 
-        for (SpatialEvent curE : swMatrix.Events) {
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        for (int i = 0; i < swMatrix.Events.size(); i++) {
+            double dZi = swMatrix.Events.getWeight(i);
             double dWijS2Sum = 0.0;
             double dWjiS2Sum = 0.0;
             double dWCijSum = 0.0;
-            double dZiDeviation = curE.weight - dZMean;
+            double dZiDeviation = dZi - dZMean;
             dM2 += Math.pow(dZiDeviation, 2.0);
             dM4 += Math.pow(dZiDeviation, 4.0);
 
-            for (SpatialEvent destE : swMatrix.Events) {
-                if (curE.oid == destE.oid)
-                    continue;
-
-                double dCij = destE.weight - dZMean;
-
-                double dWij = 0.0;
-                double dWji = 0.0;
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWij = 0.0;
-                    // if (destE is neighbor ) dWij = 1.0;
-                    dWji = dWij;
-                } else {
-                    dWij = swMatrix.getWeight(curE, destE);
-                    dWji = dWij;
-                }
+            swMatrix.getRow(i, row);
+            for (int k = row.start; k < row.end; k++) {
+                int j = row.neighbors[k];
+                double dZj = swMatrix.Events.getWeight(j);
+
+                double dCij = dZj - dZMean;
+
+                double dWij = row.weights[k];
+                double dWji = dWij;
 
                 if (getStandardizationType() == StandardizationMethod.ROW) {
-                    dWij = swMatrix.standardizeWeight(curE, dWij);
-                    dWji = swMatrix.standardizeWeight(destE, dWji);
+                    dWij = swMatrix.standardizeWeight(i, dWij);
+                    dWji = swMatrix.standardizeWeight(j, dWji);
                 }
 
                 // Create sums needed to calculate
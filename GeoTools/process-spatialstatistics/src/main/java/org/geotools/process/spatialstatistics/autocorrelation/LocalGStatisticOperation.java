@@ -23,9 +23,10 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FormatUtils;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -67,8 +68,10 @@ public class LocalGStatisticOperation extends AbstractStatisticsOperation {
             throws IOException {
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
-        int featureCount = swMatrix.Events.size();
+        final int featureCount = swMatrix.Events.size();
         if (featureCount < 3) {
             LOGGER.warning("inputFeatures's feature count < " + featureCount);
             return null;
@@ -77,9 +80,9 @@ public class LocalGStatisticOperation extends AbstractStatisticsOperation {
         }
 
         // # Calculate the mean and standard deviation for this data set.
-        double rN = featureCount * 1.0;
-        double dZMean = swMatrix.dZSum / rN;
-        double dZVar = Math.pow((swMatrix.dZ2Sum / rN) - Math.pow(dZMean, 2.0), 0.5);
+        final double rN = featureCount * 1.0;
+        final double dZMean = swMatrix.dZSum / rN;
+        final double dZVar = Math.pow((swMatrix.dZ2Sum / rN) - Math.pow(dZMean, 2.0), 0.5);
         if (Math.abs(dZVar) <= 0.0) {
             LOGGER.warning("ERROR Zero variance:  all of the values for your input field are likely the same.");
         }
@@ -90,50 +93,61 @@ public class LocalGStatisticOperation extends AbstractStatisticsOperation {
         dcVarValue = new double[featureCount];
 
         // # Calculate Gi* for each feature i.
-        for (int i = 0; i < featureCount; i++) {
-            SpatialEvent curE = swMatrix.Events.get(i);
-
-            // # Initialize working variables.
-            double dLocalZSum = 0.0;
-            double dWijSum = 0.0;
-            double dWij2Sum = 0.0;
-
-            // # Look for i's local neighbors
-            for (int j = 0; j < featureCount; j++) {
-                SpatialEvent destE = swMatrix.Events.get(j);
-
-                // # Calculate the weight (dWij)
-                double dWeight = 0.0;
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWeight = 0.0;
-                    // if (destE is neighbor ) dWeight = 1.0;
-                } else {
-                    // # calculate distance between i and j
-                    dWeight = swMatrix.getWeight(curE, destE);
-                }
-
-                // #### Self Potential Adjustment ####
-                // if (i == j && sSelfPotential) dWeight = dcSelf[iKey]
-
-                if (dWeight != 0) {
-                    final double dWij = dWeight;
-                    dLocalZSum += dWij * destE.weight;
-                    dWijSum += dWij;
-                    dWij2Sum += Math.pow(dWij, 2.0);
+        boolean completed = ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                for (int i = start; i < end; i++) {
+                    double dZi = swMatrix.Events.getWeight(i);
+
+                    // # Initialize working variables.
+                    double dLocalZSum = 0.0;
+                    double dWijSum = 0.0;
+                    double dWij2Sum = 0.0;
+
+                    // # Gi* includes i itself
+                    // #### Self Potential Adjustment ####
+                    // if (sSelfPotential) dWeight = dcSelf[iKey]
+                    double dSelf = swMatrix.getWeight(i, i);
+                    if (dSelf != 0) {
+                        dLocalZSum += dSelf * dZi;
+                        dWijSum += dSelf;
+                        dWij2Sum += Math.pow(dSelf, 2.0);
+                    }
+
+                    // # Look for i's local neighbors
+                    swMatrix.getRow(i, row);
+                    for (int k = row.start; k < row.end; k++) {
+                        int j = row.neighbors[k];
+                        double dZj = swMatrix.Events.getWeight(j);
+
+                        // # Calculate the weight (dWij)
+                        double dWeight = row.weights[k];
+                        if (dWeight != 0) {
+                            final double dWij = dWeight;
+                            dLocalZSum += dWij * dZj;
+                            dWijSum += dWij;
+                            dWij2Sum += Math.pow(dWij, 2.0);
+                        }
+                    }
+
+                    dcMeanValue[i] = dWijSum / (rN * (rN - 1.0));
+                    dcVarValue[i] = Math.pow((dWij2Sum / rN) - Math.pow(dcMeanValue[i], 2), 0.5);
+
+                    // # Calculate Gi*
+                    dcGiValue[i] = Double.NaN;
+                    try {
+                        dcGiValue[i] = ((dLocalZSum - (dWijSum * dZMean)) / (dZVar * Math.pow(
+                                (((rN * dWij2Sum) - Math.pow(dWijSum, 2.0)) / (rN - 1.0)), 0.5)));
+                    } catch (Exception e) {
+                        dcGiValue[i] = Double.NaN;
+                    }
                 }
             }
+        }, getParallelism(), getProgressListener());
 
-            dcMeanValue[i] = dWijSum / (rN * (rN - 1.0));
-            dcVarValue[i] = Math.pow((dWij2Sum / rN) - Math.pow(dcMeanValue[i], 2), 0.5);
-
-            // # Calculate Gi*
-            dcGiValue[i] = Double.NaN;
-            try {
-                dcGiValue[i] = ((dLocalZSum - (dWijSum * dZMean)) / (dZVar * Math.pow(
-                        (((rN * dWij2Sum) - Math.pow(dWijSum, 2.0)) / (rN - 1.0)), 0.5)));
-            } catch (Exception e) {
-                dcGiValue[i] = Double.NaN;
-            }
+        if (!completed) {
+            return null;
         }
 
         return buildFeatureCollection(inputFeatures);
@@ -24,9 +24,10 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FormatUtils;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
@@ -73,80 +74,87 @@ public class LocalLeesSOperation extends AbstractStatisticsOperation {
             throws IOException {
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
 
         // calculate the mean and standard deviation for this data set.
-        int featureCount = swMatrix.Events.size();
-        double n = swMatrix.Events.size() * 1.0;
-        double dZMean = swMatrix.dZSum / n;
+        final int featureCount = swMatrix.Events.size();
+        final double n = swMatrix.Events.size() * 1.0;
+        final double dZMean = swMatrix.dZSum / n;
 
-        double dM2 = 0.0;
-        double dM4 = 0.0;
+        double dSum2 = 0.0;
+        double dSum4 = 0.0;
 
         // calculate deviation from the mean sums.
-        for (SpatialEvent curE : swMatrix.Events) {
-            dM2 += Math.pow(curE.weight - dZMean, 2.0);
-            dM4 += Math.pow(curE.weight - dZMean, 4.0);
+        for (int i = 0; i < featureCount; i++) {
+            double dZi = swMatrix.Events.getWeight(i);
+            dSum2 += Math.pow(dZi - dZMean, 2.0);
+            dSum4 += Math.pow(dZi - dZMean, 4.0);
         }
 
-        dM2 = dM2 / (n - 1.0);
-        dM4 = dM4 / (n - 1.0);
-        double dB2 = dM4 / Math.pow(dM2, 2.0);
+        final double dM2 = dSum2 / (n - 1.0);
+        final double dM4 = dSum4 / (n - 1.0);
+        final double dB2 = dM4 / Math.pow(dM2, 2.0);
 
         // calculate local index for each feature i.
         dcIndex = new double[featureCount];
         dcZScore = new double[featureCount];
-        for (int i = 0; i < featureCount; i++) {
-            SpatialEvent curE = swMatrix.Events.get(i);
-            double dLocalZDevSum = 0.0;
-            double dWijSum = 0.0;
-            double dWij2Sum = 0.0;
-            double dWijWihSum = 0.0;
-
-            // look for i's local neighbors
-            for (int j = 0; j < featureCount; j++) {
-                SpatialEvent destE = swMatrix.Events.get(j);
-                if (curE.oid == destE.oid)
-                    continue;
-
-                // calculate the weight (dWij)
-                double dWij = 0.0;
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWij = 0.0;
-                    // if (destE is neighbor ) dWeight = 1.0;
-                } else {
-                    dWij = swMatrix.getWeight(curE, destE);
+        boolean completed = ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                for (int i = start; i < end; i++) {
+                    double dZi = swMatrix.Events.getWeight(i);
+                    double dLocalZDevSum = 0.0;
+                    double dWijSum = 0.0;
+                    double dWij2Sum = 0.0;
+                    double dWijWihSum = 0.0;
+
+                    // look for i's local neighbors
+                    swMatrix.getRow(i, row);
+                    for (int k = row.start; k < row.end; k++) {
+                        int j = row.neighbors[k];
+                        double dZj = swMatrix.Events.getWeight(j);
+
+                        // calculate the weight (dWij)
+                        double dWij = row.weights[k];
+
+                        if (getStandardizationType() == StandardizationMethod.ROW) {
+                            dWij = swMatrix.standardizeWeight(i, dWij);
+                        }
+
+                        // lee's s
+                        dLocalZDevSum += dWij * (dZj - dZMean);
+                        dWijSum += dWij;
+                        dWij2Sum += Math.pow(dWij, 2.0);
+                    }
+
+                    dWijWihSum = Math.pow(dWijSum, 2.0) - dWij2Sum;
+
+                    // calculate local index
+                    dcIndex[i] = Double.NaN;
+                    dcZScore[i] = Double.NaN;
+                    try {
+                        // TODO correct 
+                        dcIndex[i] = Math.pow(dLocalZDevSum, 2.0) / dM2;
+
+                        double dExpected = -1.0 * (dWijSum / (n - 1.0));
+                        double v1 = (dWij2Sum * (n - dB2)) / (n - 1.0);
+                        double v2 = Math.pow(dWijSum, 2.0) / Math.pow((n - 1.0), 2.0);
+                        double v3 = dWijWihSum * ((2.0 * dB2) - n);
+                        double v4 = (n - 1.0) * (n - 2.0);
+                        double dVariance = v1 + v3 / v4 - v2;
+                        dcZScore[i] = (dcIndex[i] - dExpected) / Math.pow(dVariance, 0.5);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, e.getMessage(), e);
+                    }
                 }
-
-                if (getStandardizationType() == StandardizationMethod.ROW) {
-                    dWij = swMatrix.standardizeWeight(curE, dWij);
-                }
-
-                // lee's s
-                dLocalZDevSum += dWij * (destE.weight - dZMean);
-                dWijSum += dWij;
-                dWij2Sum += Math.pow(dWij, 2.0);
             }
+        }, getParallelism(), getProgressListener());
 
-            dWijWihSum = Math.pow(dWijSum, 2.0) - dWij2Sum;
-
-            // calculate local index
-            dcIndex[i] = Double.NaN;
-            dcZScore[i] = Double.NaN;
-            try {
-                // TODO correct 
-                dcIndex[i] = Math.pow(dLocalZDevSum, 2.0) / dM2;
-
-                double dExpected = -1.0 * (dWijSum / (n - 1.0));
-                double v1 = (dWij2Sum * (n - dB2)) / (n - 1.0);
-                double v2 = Math.pow(dWijSum, 2.0) / Math.pow((n - 1.0), 2.0);
-                double v3 = dWijWihSum * ((2.0 * dB2) - n);
-                double v4 = (n - 1.0) * (n - 2.0);
-                double dVariance = v1 + v3 / v4 - v2;
-                dcZScore[i] = (dcIndex[i] - dExpected) / Math.pow(dVariance, 0.5);
-            } catch (Exception e) {
-                LOGGER.log(Level.FINE, e.getMessage(), e);
-            }
+        if (!completed) {
+            return null;
         }
 
         return buildFeatureCollection(inputFeatures);
@@ -17,6 +17,7 @@
 package org.geotools.process.spatialstatistics.autocorrelation;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,10 +25,12 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FormatUtils;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
 import org.geotools.process.spatialstatistics.core.SpatialWeightMatrix;
+import org.geotools.process.spatialstatistics.core.SplitMixRandom;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
 import org.geotools.process.spatialstatistics.enumeration.StandardizationMethod;
@@ -47,6 +50,10 @@ import org.opengis.feature.simple.SimpleFeatureType;
 public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
     protected static final Logger LOGGER = Logging.getLogger(LocalMoranIStatisticOperation.class);
 
+    public static final long DEFAULT_SEED = 12345L;
+
+    static final double SIGNIFICANCE_LEVEL = 0.05;
+
     public DistanceMethod DistanceType = DistanceMethod.Euclidean;
 
     SpatialWeightMatrix swMatrix = null;
@@ -61,6 +68,13 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
 
     double[] dcwzValue;
 
+    // pseudo p-values of the permutation test, null if no permutations were run
+    double[] dcPValue;
+
+    private int permutations = 0;
+
+    private long randomSeed = DEFAULT_SEED;
+
     public LocalMoranIStatisticOperation() {
         // Default Setting
         this.setDistanceType(DistanceMethod.Euclidean);
@@ -72,6 +86,34 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
         return dcZScore;
     }
 
+    public double[] getPValue() {
+        return dcPValue;
+    }
+
+    /**
+     * Sets the number of conditional permutations used to compute pseudo p-values (e.g. 99, 499,
+     * 999). 0 (default) reports the p-values of the analytic z-scores.
+     */
+    public void setPermutations(int permutations) {
+        this.permutations = Math.max(0, permutations);
+    }
+
+    public int getPermutations() {
+        return permutations;
+    }
+
+    /**
+     * Sets the seed of the permutations. The same seed gives the same pseudo p-values, whatever
+     * the parallelism.
+     */
+    public void setRandomSeed(long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
     public SpatialWeightMatrix getSpatialWeightMatrix() {
         return swMatrix;
     }
@@ -80,25 +122,28 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
             throws IOException {
         swMatrix = new SpatialWeightMatrix(getSpatialConceptType(), getStandardizationType());
         swMatrix.distanceBandWidth = this.getDistanceBand();
+        swMatrix.setSpatialWeightsFile(getSpatialWeightsFile());
+        swMatrix.setDirectEvents(isDirectEvents());
         swMatrix.buildWeightMatrix(inputFeatures, inputField, this.getDistanceType());
 
         // # Calculate the mean and standard deviation for this data set.
-        int featureCount = swMatrix.Events.size();
-        double n = featureCount * 1.0;
-        double dZMean = swMatrix.dZSum / n;
+        final int featureCount = swMatrix.Events.size();
+        final double n = featureCount * 1.0;
+        final double dZMean = swMatrix.dZSum / n;
 
-        double dM2 = 0.0;
-        double dM4 = 0.0;
+        double dSum2 = 0.0;
+        double dSum4 = 0.0;
 
         // calculate deviation from the mean sums.
-        for (SpatialEvent curE : swMatrix.Events) {
-            dM2 += Math.pow(curE.weight - dZMean, 2.0);
-            dM4 += Math.pow(curE.weight - dZMean, 4.0);
+        for (int i = 0; i < featureCount; i++) {
+            double dZi = swMatrix.Events.getWeight(i);
+            dSum2 += Math.pow(dZi - dZMean, 2.0);
+            dSum4 += Math.pow(dZi - dZMean, 4.0);
         }
 
-        dM2 = dM2 / (n - 1.0);
-        dM4 = dM4 / (n - 1.0);
-        double dB2 = dM4 / Math.pow(dM2, 2.0);
+        final double dM2 = dSum2 / (n - 1.0);
+        final double dM4 = dSum4 / (n - 1.0);
+        final double dB2 = dM4 / Math.pow(dM2, 2.0);
 
         // calculate Local Index for each feature i.
         dcIndex = new double[featureCount];
@@ -106,76 +151,184 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
         moranBins = new String[featureCount];
         dczValue = new double[featureCount];
         dcwzValue = new double[featureCount];
-        for (int i = 0; i < featureCount; i++) {
-            SpatialEvent curE = swMatrix.Events.get(i);
-            double dLocalZDevSum = 0.0;
-            double dWijSum = 0.0;
-            double dWij2Sum = 0.0;
-            double dWijWihSum = 0.0;
-            double localBinTotal = 0.0;
-            int numNeighs = 0;
-
-            // # Look for i's local neighbors
-            for (int j = 0; j < featureCount; j++) {
-                SpatialEvent destE = swMatrix.Events.get(j);
-                if (curE.oid == destE.oid)
-                    continue;
-
-                // # Calculate the weight (dWij)
-                double dWij = 0.0;
-                if (this.getSpatialConceptType() == SpatialConcept.POLYGONCONTIGUITY) {
-                    dWij = 0.0;
-                    // if (destE is neighbor ) dWeight = 1.0;
-                } else {
-                    dWij = swMatrix.getWeight(curE, destE);
+        boolean completed = ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                for (int i = start; i < end; i++) {
+                    double dZi = swMatrix.Events.getWeight(i);
+                    double dLocalZDevSum = 0.0;
+                    double dWijSum = 0.0;
+                    double dWij2Sum = 0.0;
+                    double dWijWihSum = 0.0;
+                    double localBinTotal = 0.0;
+                    int numNeighs = 0;
+
+                    // # Look for i's local neighbors
+                    swMatrix.getRow(i, row);
+                    for (int k = row.start; k < row.end; k++) {
+                        int j = row.neighbors[k];
+                        double dZj = swMatrix.Events.getWeight(j);
+
+                        // # Calculate the weight (dWij)
+                        double dWij = row.weights[k];
+
+                        if (getStandardizationType() == StandardizationMethod.ROW) {
+                            dWij = swMatrix.standardizeWeight(i, dWij);
+                        }
+
+                        // moran's i
+                        dLocalZDevSum += dWij * (dZj - dZMean);
+                        if (dWij > 0) {
+                            localBinTotal += dWij * dZj;
+                            numNeighs++;
+                        }
+
+                        dWijSum += dWij;
+                        dWij2Sum += Math.pow(dWij, 2.0);
+                    } // next j
+
+                    dWijWihSum = Math.pow(dWijSum, 2.0) - dWij2Sum;
+
+                    // # Calculate Local I
+                    dcIndex[i] = Double.NaN;
+                    dcZScore[i] = Double.NaN;
+                    moranBins[i] = "";
+                    try {
+                        dcIndex[i] = ((dZi - dZMean) / dM2) * dLocalZDevSum;
+
+                        // gaiyong
+                        dczValue[i] = ((dZi - dZMean) / dM2);
+                        dcwzValue[i] = dLocalZDevSum;
+                        // end
+
+                        double dExpected = -1.0 * (dWijSum / (n - 1.0));
+                        double v1 = (dWij2Sum * (n - dB2)) / (n - 1.0);
+                        double v2 = Math.pow(dWijSum, 2.0) / Math.pow((n - 1.0), 2.0);
+                        double v3 = dWijWihSum * ((2.0 * dB2) - n);
+                        double v4 = (n - 1.0) * (n - 2.0);
+                        double dVariance = v1 + v3 / v4 - v2;
+                        dcZScore[i] = (dcIndex[i] - dExpected) / Math.pow(dVariance, 0.5);
+                        if (numNeighs > 0) {
+                            double localMean = localBinTotal / (dWijSum * 1.0);
+                            moranBins[i] = returnMoranBin(dcZScore[i], dZi, dZMean, localMean);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, e.getMessage(), e);
+                    }
                 }
+            }
+        }, getParallelism(), getProgressListener());
 
-                if (getStandardizationType() == StandardizationMethod.ROW) {
-                    dWij = swMatrix.standardizeWeight(curE, dWij);
-                }
+        if (!completed) {
+            return null;
+        }
+
+        dcPValue = null;
+        if (permutations > 0 && featureCount > 1 && !runPermutations(dZMean, dM2)) {
+            return null;
+        }
+
+        return buildFeatureCollection(inputFeatures);
+    }
 
-                // moran's i
-                dLocalZDevSum += dWij * (destE.weight - dZMean);
-                if (dWij > 0) {
-                    localBinTotal += dWij * destE.weight;
-                    numNeighs++;
+    /**
+     * Conditional randomization: the value of feature i is held fixed and the values of its
+     * neighbors are drawn without replacement from the other n - 1 features.
+     *
+     * @return false if the progress listener was canceled
+     */
+    private boolean runPermutations(final double dZMean, final double dM2) {
+        final int featureCount = swMatrix.Events.size();
+        final double[] zDev = new double[featureCount];
+        for (int i = 0; i < featureCount; i++) {
+            zDev[i] = swMatrix.Events.getWeight(i) - dZMean;
+        }
+
+        final SplitMixRandom random = new SplitMixRandom(randomSeed);
+        final boolean rowStandardization = getStandardizationType() == StandardizationMethod.ROW;
+        final double dPermutations = permutations;
+
+        dcPValue = new double[featureCount];
+        return ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                int[] candidates = new int[featureCount - 1];
+                for (int j = 0; j < candidates.length; j++) {
+                    candidates[j] = j;
                 }
 
-                dWijSum += dWij;
-                dWij2Sum += Math.pow(dWij, 2.0);
-            } // next j
-
-            dWijWihSum = Math.pow(dWijSum, 2.0) - dWij2Sum;
-
-            // # Calculate Local I
-            dcIndex[i] = Double.NaN;
-            dcZScore[i] = Double.NaN;
-            moranBins[i] = "";
-            try {
-                dcIndex[i] = ((curE.weight - dZMean) / dM2) * dLocalZDevSum;
-
-                // gaiyong
-                dczValue[i] = ((curE.weight - dZMean) / dM2);
-                dcwzValue[i] = dLocalZDevSum;
-                // end
-
-                double dExpected = -1.0 * (dWijSum / (n - 1.0));
-                double v1 = (dWij2Sum * (n - dB2)) / (n - 1.0);
-                double v2 = Math.pow(dWijSum, 2.0) / Math.pow((n - 1.0), 2.0);
-                double v3 = dWijWihSum * ((2.0 * dB2) - n);
-                double v4 = (n - 1.0) * (n - 2.0);
-                double dVariance = v1 + v3 / v4 - v2;
-                dcZScore[i] = (dcIndex[i] - dExpected) / Math.pow(dVariance, 0.5);
-                if (numNeighs > 0) {
-                    double localMean = localBinTotal / (dWijSum * 1.0);
-                    moranBins[i] = this.returnMoranBin(dcZScore[i], curE.weight, dZMean, localMean);
+                double[] weights = new double[16];
+                int[] swaps = new int[16];
+                for (int i = start; i < end; i++) {
+                    double observed = dcIndex[i];
+                    dcPValue[i] = 1.0;
+                    moranBins[i] = "";
+                    if (Double.isNaN(observed) || Double.isInfinite(observed)) {
+                        continue;
+                    }
+
+                    // non zero weights of i
+                    int numNeighs = 0;
+                    swMatrix.getRow(i, row);
+                    for (int k = row.start; k < row.end; k++) {
+                        double dWij = row.weights[k];
+                        if (rowStandardization) {
+                            dWij = swMatrix.standardizeWeight(i, dWij);
+                        }
+                        if (dWij != 0.0) {
+                            if (numNeighs == weights.length) {
+                                weights = Arrays.copyOf(weights, numNeighs * 2);
+                                swaps = Arrays.copyOf(swaps, numNeighs * 2);
+                            }
+                            weights[numNeighs++] = dWij;
+                        }
+                    }
+
+                    if (numNeighs == 0) {
+                        continue;
+                    }
+
+                    final double dScale = zDev[i] / dM2;
+                    SplitMixRandom stream = random.split(i);
+                    int larger = 0;
+                    for (int p = 0; p < permutations; p++) {
+                        // partial Fisher-Yates shuffle of the other features' indexes
+                        double dLag = 0.0;
+                        for (int t = 0; t < numNeighs; t++) {
+                            int r = t + stream.nextInt(candidates.length - t);
+                            swaps[t] = r;
+                            int tmp = candidates[t];
+                            candidates[t] = candidates[r];
+                            candidates[r] = tmp;
+
+                            int j = candidates[t];
+                            dLag += weights[t] * zDev[j >= i ? j + 1 : j];
+                        }
+
+                        if (dScale * dLag >= observed) {
+                            larger++;
+                        }
+
+                        // undo the swaps, the result must not depend on the previous features
+                        for (int t = numNeighs - 1; t >= 0; t--) {
+                            int r = swaps[t];
+                            int tmp = candidates[t];
+                            candidates[t] = candidates[r];
+                            candidates[r] = tmp;
+                        }
+                    }
+
+                    // folded (two sided) pseudo p-value
+                    if (permutations - larger < larger) {
+                        larger = permutations - larger;
+                    }
+                    dcPValue[i] = (larger + 1.0) / (dPermutations + 1.0);
+                    moranBins[i] = returnPermutationBin(dcPValue[i], zDev[i], dcwzValue[i]);
                 }
-            } catch (Exception e) {
-                LOGGER.log(Level.FINE, e.getMessage(), e);
             }
-        } // next i
-
-        return buildFeatureCollection(inputFeatures);
+        }, getParallelism(), getProgressListener());
     }
 
     private SimpleFeatureCollection buildFeatureCollection(SimpleFeatureCollection inputFeatures)
@@ -217,14 +370,24 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
                 double dcwv = this.dcwzValue[idx];
 
                 if (Double.isNaN(zScore) || Double.isInfinite(zScore)) {
-                    localI = 0.0;
                     zScore = 0.0;
                     pValue = 1.0;
-                    coType = "";
+                    if (dcPValue == null) {
+                        localI = 0.0;
+                        coType = "";
+                    }
                 } else {
                     pValue = SSUtils.zProb(zScore, StatEnum.BOTH);
                 }
 
+                if (dcPValue != null) {
+                    // pseudo p-value of the permutation test
+                    pValue = dcPValue[idx];
+                    if (Double.isNaN(localI) || Double.isInfinite(localI)) {
+                        localI = 0.0;
+                    }
+                }
+
                 newFeature.setAttribute(fieldList[0], FormatUtils.round(localI));
                 newFeature.setAttribute(fieldList[1], FormatUtils.round(zScore));
                 newFeature.setAttribute(fieldList[2], FormatUtils.round(pValue));
@@ -244,6 +407,19 @@ public class LocalMoranIStatisticOperation extends AbstractStatisticsOperation {
         return featureWriter.getFeatureCollection();
     }
 
+    private String returnPermutationBin(double pValue, double zDev, double lagDev) {
+        // classifies by the sign of the feature's and of its neighbors' deviations from the mean
+        if (pValue > SIGNIFICANCE_LEVEL) {
+            return "";
+        }
+
+        if (zDev >= 0) {
+            return lagDev >= 0 ? "HH" : "HL";
+        } else {
+            return lagDev <= 0 ? "LL" : "LH";
+        }
+    }
+
     private String returnMoranBin(double zScore, double featureVal, double globalMean,
             double localMean) {
         // Returns a string representation of Local Moran's I Cluster-Outlier classification bins.
@@ -0,0 +1,562 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Finds the central feature: the event with the smallest weighted sum of distances to all other
+ * events.<br>
+ * The events are bucketed into a uniform grid, and the weighted centroids of the cells give lower
+ * bounds of the sum for whole cells and for single events. The event nearest to the median center
+ * is evaluated first; cells and events whose bound exceeds the best sum found are skipped, and the
+ * exact sum of a candidate is abandoned as soon as its partial sum exceeds the best sum. The exact
+ * sums are computed tile by tile over primitive coordinate arrays on the fork/join pool.<br>
+ * In approximate mode only the candidates nearest to the median center are verified.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class CentralFeatureFinder {
+    protected static final Logger LOGGER = Logging.getLogger(CentralFeatureFinder.class);
+
+    /** Default number of candidates verified in approximate mode */
+    public static final int DEFAULT_SAMPLE_SIZE = 256;
+
+    static final int TILE_SIZE = 2048;
+
+    private static final int MAX_ITERATIONS = 30;
+
+    private static final double EPSILON = 1e-9;
+
+    private final double[] x;
+
+    private final double[] y;
+
+    private final double[] weight;
+
+    private final double[] potential;
+
+    private final int size;
+
+    private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
+
+    private boolean approximate = false;
+
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
+
+    private volatile double bestDistance = Double.MAX_VALUE;
+
+    private int bestIndex = -1;
+
+    /**
+     * @param x x coordinates
+     * @param y y coordinates
+     * @param weight weights, null for 1
+     * @param potential self potentials (added as potential * weight), null for 0
+     * @param size number of events
+     */
+    public CentralFeatureFinder(double[] x, double[] y, double[] weight, double[] potential,
+            int size) {
+        this.x = x;
+        this.y = y;
+        this.weight = weight;
+        this.potential = potential;
+        this.size = size;
+    }
+
+    public DistanceMethod getDistanceMethod() {
+        return distanceMethod;
+    }
+
+    public void setDistanceMethod(DistanceMethod distanceMethod) {
+        this.distanceMethod = distanceMethod == null ? DistanceMethod.Euclidean : distanceMethod;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * If true, only the {@link #getSampleSize()} candidates closest to the median center are
+     * verified.
+     */
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the weighted sum of distances of the central feature.
+     */
+    public double getBestDistance() {
+        return bestDistance;
+    }
+
+    /**
+     * Returns the index of the central feature, the lowest index on ties, or -1 if empty.
+     */
+    public int find() {
+        bestDistance = Double.MAX_VALUE;
+        bestIndex = -1;
+        if (size == 0) {
+            return -1;
+        }
+
+        // pruning requires non negative weights (monotone partial sums)
+        boolean prune = true;
+        for (int i = 0; i < size && prune; i++) {
+            double w = weightOf(i);
+            prune = w >= 0 && !Double.isInfinite(w) && !Double.isNaN(x[i]) && !Double.isNaN(y[i]);
+        }
+
+        if (!prune) {
+            evaluateAll();
+        } else if (approximate) {
+            findApproximate();
+        } else {
+            findExact();
+        }
+        return bestIndex;
+    }
+
+    private void evaluateAll() {
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    update(i, evaluate(i, Double.MAX_VALUE));
+                }
+            }
+        }, parallelism, null);
+    }
+
+    // exact verification of the candidates nearest to the median center
+    private void findApproximate() {
+        double[] center = getCenter();
+        double[] keys = new double[size];
+        final int[] candidates = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = distance(center[0], center[1], x[i], y[i]);
+            candidates[i] = i;
+        }
+        sortByKey(keys, candidates, 0, size - 1);
+
+        update(candidates[0], evaluate(candidates[0], Double.MAX_VALUE));
+        ParallelExecutor.execute(Math.min(size, sampleSize) - 1, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int pos = start; pos < end; pos++) {
+                    int i = candidates[pos + 1];
+                    update(i, evaluate(i, bestDistance));
+                }
+            }
+        }, parallelism, null);
+    }
+
+    private void findExact() {
+        final Grid grid = new Grid();
+
+        // the event nearest to the median center sets the first bound
+        double[] center = getCenter();
+        int seed = 0;
+        double seedDistance = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            double d = distance(center[0], center[1], x[i], y[i]);
+            if (d < seedDistance) {
+                seedDistance = d;
+                seed = i;
+            }
+        }
+        final int seedIndex = seed;
+        update(seedIndex, evaluate(seedIndex, Double.MAX_VALUE));
+
+        // cells in the order of their lower bounds
+        final int[] cellOrder = new int[grid.cellCount];
+        for (int c = 0; c < grid.cellCount; c++) {
+            cellOrder[c] = c;
+        }
+        sortByKey(grid.cellBounds.clone(), cellOrder, 0, grid.cellCount - 1);
+
+        ParallelExecutor.execute(grid.cellCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int pos = start; pos < end; pos++) {
+                    int cell = cellOrder[pos];
+                    if (grid.cellBounds[cell] > bestDistance) {
+                        continue;
+                    }
+
+                    for (int k = grid.cellStart[cell]; k < grid.cellStart[cell + 1]; k++) {
+                        int i = grid.cellPoints[k];
+                        double bound = bestDistance;
+                        if (i == seedIndex || grid.getLowerBound(i) > bound) {
+                            continue;
+                        }
+
+                        double distance = evaluate(i, bound);
+                        if (distance <= bestDistance) {
+                            update(i, distance);
+                        }
+                    }
+                }
+            }
+        }, parallelism, null);
+    }
+
+    private double weightOf(int index) {
+        return weight == null ? 1.0 : weight[index];
+    }
+
+    private synchronized void update(int index, double distance) {
+        if (distance < bestDistance || (distance == bestDistance && index < bestIndex)) {
+            bestDistance = distance;
+            bestIndex = index;
+        }
+    }
+
+    // exact weighted sum of distances, abandoned (+infinity) once it exceeds the bound
+    private double evaluate(int index, double bound) {
+        final double cx = x[index];
+        final double cy = y[index];
+        double sum = selfDistance(index);
+
+        // d(i, i) = 0, the own event needs no special case
+        for (int tile = 0; tile < size; tile += TILE_SIZE) {
+            final int end = Math.min(size, tile + TILE_SIZE);
+            double partial = 0d;
+            if (distanceMethod == DistanceMethod.Manhattan) {
+                for (int j = tile; j < end; j++) {
+                    double d = Math.abs(cx - x[j]) + Math.abs(cy - y[j]);
+                    partial += weight == null ? d : d * weight[j];
+                }
+            } else {
+                for (int j = tile; j < end; j++) {
+                    double dx = cx - x[j];
+                    double dy = cy - y[j];
+                    double d = Math.sqrt(dx * dx + dy * dy);
+                    partial += weight == null ? d : d * weight[j];
+                }
+            }
+
+            sum += partial;
+            if (sum > bound) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Uniform grid over the events. By convexity of the distance, the events of a cell with total
+     * weight W and weighted centroid m contribute at least W * d(p, m) to the sum of any location
+     * p, which gives lower bounds for single events and, with the distance from the cell box to the
+     * centroids, for whole cells.
+     */
+    private final class Grid {
+        static final int POINTS_PER_CELL = 32;
+
+        static final int MAX_CELLS_PER_AXIS = 64;
+
+        int cellCount;
+
+        int[] cellStart;
+
+        int[] cellPoints;
+
+        double[] cellBounds;
+
+        // weights and centroids of the non empty cells
+        double[] sumWeight;
+
+        double[] centerX;
+
+        double[] centerY;
+
+        Grid() {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+
+            int axis = (int) Math.ceil(Math.sqrt(size / (double) POINTS_PER_CELL));
+            axis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, axis));
+            double cellWidth = maxX > minX ? (maxX - minX) / axis : 1.0;
+            double cellHeight = maxY > minY ? (maxY - minY) / axis : 1.0;
+
+            // counting sort of the events by cell
+            int[] cells = new int[size];
+            int[] counts = new int[axis * axis + 1];
+            for (int i = 0; i < size; i++) {
+                int col = Math.min(axis - 1, (int) ((x[i] - minX) / cellWidth));
+                int row = Math.min(axis - 1, (int) ((y[i] - minY) / cellHeight));
+                cells[i] = row * axis + col;
+                counts[cells[i] + 1]++;
+            }
+
+            // keep the non empty cells only
+            int[] cellIds = new int[axis * axis];
+            cellCount = 0;
+            for (int c = 0; c < axis * axis; c++) {
+                cellIds[c] = counts[c + 1] > 0 ? cellCount++ : -1;
+            }
+
+            cellStart = new int[cellCount + 1];
+            for (int c = 0; c < axis * axis; c++) {
+                if (cellIds[c] >= 0) {
+                    cellStart[cellIds[c] + 1] = cellStart[cellIds[c]] + counts[c + 1];
+                }
+            }
+
+            cellPoints = new int[size];
+            int[] next = Arrays.copyOf(cellStart, cellCount);
+            for (int i = 0; i < size; i++) {
+                cellPoints[next[cellIds[cells[i]]]++] = i;
+            }
+
+            sumWeight = new double[cellCount];
+            centerX = new double[cellCount];
+            centerY = new double[cellCount];
+            double[] boxes = new double[cellCount * 4];
+            double[] minSelf = new double[cellCount];
+            for (int c = 0; c < cellCount; c++) {
+                double sumX = 0d, sumY = 0d, sumW = 0d;
+                double bMinX = Double.MAX_VALUE, bMinY = Double.MAX_VALUE;
+                double bMaxX = -Double.MAX_VALUE, bMaxY = -Double.MAX_VALUE;
+                minSelf[c] = Double.MAX_VALUE;
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int i = cellPoints[k];
+                    double w = weightOf(i);
+                    sumX += x[i] * w;
+                    sumY += y[i] * w;
+                    sumW += w;
+                    bMinX = Math.min(bMinX, x[i]);
+                    bMinY = Math.min(bMinY, y[i]);
+                    bMaxX = Math.max(bMaxX, x[i]);
+                    bMaxY = Math.max(bMaxY, y[i]);
+                    minSelf[c] = Math.min(minSelf[c], selfDistance(i));
+                }
+
+                sumWeight[c] = sumW;
+                centerX[c] = sumW > 0 ? sumX / sumW : x[cellPoints[cellStart[c]]];
+                centerY[c] = sumW > 0 ? sumY / sumW : y[cellPoints[cellStart[c]]];
+                boxes[c * 4] = bMinX;
+                boxes[c * 4 + 1] = bMinY;
+                boxes[c * 4 + 2] = bMaxX;
+                boxes[c * 4 + 3] = bMaxY;
+            }
+
+            cellBounds = new double[cellCount];
+            for (int a = 0; a < cellCount; a++) {
+                double bound = 0d;
+                for (int c = 0; c < cellCount; c++) {
+                    double dx = Math.max(0d,
+                            Math.max(boxes[a * 4] - centerX[c], centerX[c] - boxes[a * 4 + 2]));
+                    double dy = Math.max(0d,
+                            Math.max(boxes[a * 4 + 1] - centerY[c], centerY[c] - boxes[a * 4 + 3]));
+                    bound += sumWeight[c] * distance(0d, 0d, dx, dy);
+                }
+                cellBounds[a] = withSlack(bound + minSelf[a]);
+            }
+        }
+
+        double getLowerBound(int index) {
+            final double px = x[index];
+            final double py = y[index];
+            double bound = 0d;
+            for (int c = 0; c < cellCount; c++) {
+                bound += sumWeight[c] * distance(px, py, centerX[c], centerY[c]);
+            }
+            return withSlack(bound + selfDistance(index));
+        }
+    }
+
+    // lower bounds are lowered a little to absorb rounding errors
+    private static double withSlack(double bound) {
+        return bound - Math.abs(bound) * EPSILON;
+    }
+
+    private double selfDistance(int index) {
+        return potential == null ? 0d : potential[index] * weightOf(index);
+    }
+
+    private double[] getCenter() {
+        return distanceMethod == DistanceMethod.Manhattan ? getWeightedMedian()
+                : getMedianCenter();
+    }
+
+    private double distance(double x1, double y1, double x2, double y2) {
+        if (distanceMethod == DistanceMethod.Manhattan) {
+            return Math.abs(x1 - x2) + Math.abs(y1 - y2);
+        }
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // a few Weiszfeld iterations: the reference point only needs to be close to the optimum
+    private double[] getMedianCenter() {
+        double sumX = 0d, sumY = 0d, sumW = 0d;
+        for (int i = 0; i < size; i++) {
+            double w = weightOf(i);
+            sumX += x[i] * w;
+            sumY += y[i] * w;
+            sumW += w;
+        }
+
+        if (sumW <= 0) {
+            return new double[] { x[0], y[0] };
+        }
+
+        double cx = sumX / sumW;
+        double cy = sumY / sumW;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double nx = 0d, ny = 0d, denominator = 0d;
+            for (int i = 0; i < size; i++) {
+                double d = distance(cx, cy, x[i], y[i]);
+                if (d > 0) {
+                    double w = weightOf(i) / d;
+                    nx += x[i] * w;
+                    ny += y[i] * w;
+                    denominator += w;
+                }
+            }
+
+            if (denominator == 0) {
+                break;
+            }
+
+            nx /= denominator;
+            ny /= denominator;
+            double moved = distance(cx, cy, nx, ny);
+            cx = nx;
+            cy = ny;
+            if (moved <= EPSILON * (Math.abs(cx) + Math.abs(cy) + 1.0)) {
+                break;
+            }
+        }
+        return new double[] { cx, cy };
+    }
+
+    // the coordinate wise weighted median minimizes the sum of manhattan distances
+    private double[] getWeightedMedian() {
+        return new double[] { getWeightedMedian(x), getWeightedMedian(y) };
+    }
+
+    private double getWeightedMedian(double[] values) {
+        double[] keys = new double[size];
+        int[] order = new int[size];
+        double total = 0d;
+        for (int i = 0; i < size; i++) {
+            keys[i] = values[i];
+            order[i] = i;
+            total += weightOf(i);
+        }
+        sortByKey(keys, order, 0, size - 1);
+
+        double half = total / 2.0;
+        double cumulative = 0d;
+        for (int k = 0; k < size; k++) {
+            cumulative += weightOf(order[k]);
+            if (cumulative >= half) {
+                return keys[k];
+            }
+        }
+        return keys[size - 1];
+    }
+
+    /**
+     * Sorts keys[left..right] ascending and applies the same permutation to index; three-way
+     * quicksort, robust to many equal keys.
+     */
+    static void sortByKey(double[] keys, int[] index, int left, int right) {
+        while (right - left > 16) {
+            int mid = (left + right) >>> 1;
+            double a = keys[left], b = keys[mid], c = keys[right];
+            double pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+
+            int lt = left, gt = right, i = left;
+            while (i <= gt) {
+                if (keys[i] < pivot) {
+                    swap(keys, index, lt++, i++);
+                } else if (keys[i] > pivot) {
+                    swap(keys, index, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+
+            // recurse into the smaller part, loop over the larger one
+            if (lt - left < right - gt) {
+                sortByKey(keys, index, left, lt - 1);
+                left = gt + 1;
+            } else {
+                sortByKey(keys, index, gt + 1, right);
+                right = lt - 1;
+            }
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            double key = keys[i];
+            int value = index[i];
+            int j = i - 1;
+            while (j >= left && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                index[j + 1] = index[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            index[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, int[] index, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+
+        int value = index[i];
+        index[i] = index[j];
+        index[j] = value;
+    }
+}
@@ -66,22 +66,18 @@ public class DistanceFactory {
     }
 
     public double getThresholDistance(List<SpatialEvent> spatialEventSet) {
-        double threshold = Double.MIN_VALUE;
-        for (SpatialEvent curEvent : spatialEventSet) {
-            double nnDist = getMinimumDistance(spatialEventSet, curEvent);
-            threshold = Math.max(nnDist, threshold);
-        }
-        return threshold * 1.0001;
+        // maximum nearest neighbor distance using spatial index
+        NearestNeighborFinder finder = new NearestNeighborFinder(spatialEventSet, DistanceType);
+        return finder.getThresholdDistance();
     }
 
     public double getThresholDistance(SimpleFeatureCollection features) {
-        List<SpatialEvent> spatialEventSet = DistanceFactory.loadEvents(features, null);
-        double threshold = Double.MIN_VALUE;
-        for (SpatialEvent curEvent : spatialEventSet) {
-            double nnDist = getMinimumDistance(spatialEventSet, curEvent);
-            threshold = Math.max(nnDist, threshold);
-        }
-        return threshold * 1.0001;
+        return getThresholDistance(SpatialEventStore.load(features, null));
+    }
+
+    public double getThresholDistance(SpatialEventStore events) {
+        NearestNeighborFinder finder = new NearestNeighborFinder(events, DistanceType);
+        return finder.getThresholdDistance();
     }
 
     public double getMinimumDistance(List<SpatialEvent> srcEvents, SpatialEvent curEvent) {
@@ -131,29 +127,22 @@ public class DistanceFactory {
         if (spatialEventSet.size() <= 2) {
             return spatialEventSet;
         } else {
-            double minDistance = Double.MAX_VALUE;
-            SpatialEvent centralEvent = new SpatialEvent(0);
-
-            for (SpatialEvent curEvent : spatialEventSet) {
-                double curDistance = 0;
-
-                for (SpatialEvent destEvent : spatialEventSet) {
-                    if (curEvent.oid != destEvent.oid) {
-                        if (useWeight) {
-                            curDistance += getDistance(curEvent, destEvent, DistanceType)
-                                    * destEvent.weight;
-                        } else {
-                            curDistance += getDistance(curEvent, destEvent, DistanceType);
-                        }
-                    }
-                }
-
-                if (minDistance > curDistance) {
-                    minDistance = curDistance;
-                    centralEvent = curEvent;
+            final int size = spatialEventSet.size();
+            double[] x = new double[size];
+            double[] y = new double[size];
+            double[] weight = useWeight ? new double[size] : null;
+            for (int i = 0; i < size; i++) {
+                SpatialEvent curEvent = spatialEventSet.get(i);
+                x[i] = curEvent.x;
+                y[i] = curEvent.y;
+                if (useWeight) {
+                    weight[i] = curEvent.weight;
                 }
             }
-            centralEvents.add(centralEvent);
+
+            CentralFeatureFinder finder = new CentralFeatureFinder(x, y, weight, null, size);
+            finder.setDistanceMethod(DistanceType);
+            centralEvents.add(spatialEventSet.get(Math.max(0, finder.find())));
         }
 
         return centralEvents;
@@ -0,0 +1,220 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.Boundable;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Nearest feature search over an STRtree of geometries.<br>
+ * The tree is traversed best first by envelope distance, so only nodes closer than the current
+ * nearest geometry and the maximum distance are visited. On ties the geometry with the lowest index
+ * wins, as in a sequential scan. All geometries within a distance can be searched as well. The
+ * index is read only after construction and can be queried from several threads.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class NearestFeatureFinder {
+    protected static final Logger LOGGER = Logging.getLogger(NearestFeatureFinder.class);
+
+    private final STRtree spatialIndex = new STRtree();
+
+    private final Geometry[] geometries;
+
+    private PreparedGeometry[] preparedGeometries;
+
+    public NearestFeatureFinder(List<Geometry> geometries) {
+        this(geometries, false);
+    }
+
+    /**
+     * @param prepare if true, intersection tests use prepared geometries, which pays off for
+     *        polygons queried many times
+     */
+    public NearestFeatureFinder(List<Geometry> geometries, boolean prepare) {
+        this.geometries = geometries.toArray(new Geometry[geometries.size()]);
+        if (prepare) {
+            this.preparedGeometries = new PreparedGeometry[this.geometries.length];
+        }
+
+        for (int i = 0; i < this.geometries.length; i++) {
+            Geometry geometry = this.geometries[i];
+            if (geometry == null || geometry.isEmpty()) {
+                continue;
+            }
+            spatialIndex.insert(geometry.getEnvelopeInternal(), Integer.valueOf(i));
+            if (prepare) {
+                preparedGeometries[i] = PreparedGeometryFactory.prepare(geometry);
+            }
+        }
+        spatialIndex.build();
+    }
+
+    public int size() {
+        return geometries.length;
+    }
+
+    public Geometry getGeometry(int index) {
+        return geometries[index];
+    }
+
+    /**
+     * Finds the nearest geometry within the maximum distance.
+     *
+     * @param distance receives the distance to the nearest geometry in its first element
+     * @return the index of the nearest geometry, or -1 if none is within the maximum distance
+     */
+    public int nearest(Geometry geometry, double maximumDistance, double[] distance) {
+        distance[0] = Double.MAX_VALUE;
+        if (geometry == null || geometry.isEmpty() || spatialIndex.size() == 0) {
+            return -1;
+        }
+
+        final Envelope queryEnv = geometry.getEnvelopeInternal();
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        queue.add(new Candidate(spatialIndex.getRoot(), 0d));
+
+        int nearest = -1;
+        double minDistance = maximumDistance;
+        while (!queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            if (candidate.distance > minDistance) {
+                break;
+            }
+
+            if (candidate.boundable instanceof AbstractNode) {
+                AbstractNode node = (AbstractNode) candidate.boundable;
+                for (Object child : node.getChildBoundables()) {
+                    Boundable boundable = (Boundable) child;
+                    double lowerBound = queryEnv.distance((Envelope) boundable.getBounds());
+                    if (lowerBound <= minDistance) {
+                        queue.add(new Candidate(boundable, lowerBound));
+                    }
+                }
+            } else {
+                int index = ((Integer) ((ItemBoundable) candidate.boundable).getItem()).intValue();
+                double currentDist = distance(geometry, queryEnv, index, minDistance);
+                if (currentDist < minDistance
+                        || (currentDist == minDistance && (nearest == -1 || index < nearest))) {
+                    minDistance = currentDist;
+                    nearest = index;
+                }
+            }
+        }
+
+        if (nearest != -1) {
+            distance[0] = minDistance;
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds all geometries within the maximum distance.
+     *
+     * @return the indexes of the geometries in ascending order
+     */
+    public int[] findAll(Geometry geometry, double maximumDistance) {
+        if (geometry == null || geometry.isEmpty() || spatialIndex.size() == 0) {
+            return new int[0];
+        }
+
+        final Envelope queryEnv = geometry.getEnvelopeInternal();
+        Envelope searchEnv = new Envelope(queryEnv);
+        searchEnv.expandBy(maximumDistance);
+
+        List<?> items = spatialIndex.query(searchEnv);
+        int[] indexes = new int[items.size()];
+        int count = 0;
+        for (Object item : items) {
+            int index = ((Integer) item).intValue();
+            if (distance(geometry, queryEnv, index, maximumDistance) <= maximumDistance) {
+                indexes[count++] = index;
+            }
+        }
+
+        indexes = Arrays.copyOf(indexes, count);
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    // exact distance, or a value greater than the limit when it cannot be within the limit
+    private double distance(Geometry geometry, Envelope queryEnv, int index, double limit) {
+        Geometry target = geometries[index];
+        if (preparedGeometries != null && queryEnv.intersects(target.getEnvelopeInternal())) {
+            if (preparedGeometries[index].intersects(geometry)) {
+                return 0d;
+            } else if (limit == 0) {
+                return Double.MAX_VALUE;
+            }
+        }
+        return geometry.distance(target);
+    }
+
+    /**
+     * Finds the nearest geometries of the queries in parallel.
+     *
+     * @param distances receives the distance of each query, Double.MAX_VALUE if none was found
+     * @return the index of the nearest geometry of each query, -1 if none was found
+     */
+    public int[] nearest(final Geometry[] queries, final int count, final double maximumDistance,
+            final double[] distances) {
+        final int[] nearests = new int[count];
+        ParallelExecutor.execute(count, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double[] distance = new double[1];
+                for (int i = start; i < end; i++) {
+                    nearests[i] = nearest(queries[i], maximumDistance, distance);
+                    distances[i] = distance[0];
+                }
+            }
+        });
+        return nearests;
+    }
+
+    static final class Candidate implements Comparable<Candidate> {
+
+        final Boundable boundable;
+
+        final double distance;
+
+        Candidate(Boundable boundable, double distance) {
+            this.boundable = boundable;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Nearest neighbor service backed by a KD-tree over event coordinates.<br>
+ * All nearest neighbor distances are computed in O(n log n) instead of the O(n<sup>2</sup>) scan
+ * of {@link DistanceFactory#getMinimumDistance(List, SpatialEvent)}.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class NearestNeighborFinder {
+    protected static final Logger LOGGER = Logging.getLogger(NearestNeighborFinder.class);
+
+    private final double[] x;
+
+    private final double[] y;
+
+    private final PointKdTree spatialIndex;
+
+    private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
+
+    public NearestNeighborFinder(List<SpatialEvent> events, DistanceMethod distanceMethod) {
+        final int size = events.size();
+        this.x = new double[size];
+        this.y = new double[size];
+        for (int i = 0; i < size; i++) {
+            SpatialEvent event = events.get(i);
+            x[i] = event.x;
+            y[i] = event.y;
+        }
+
+        this.spatialIndex = new PointKdTree(x, y, size);
+        this.distanceMethod = distanceMethod;
+    }
+
+    public NearestNeighborFinder(SpatialEventStore events, DistanceMethod distanceMethod) {
+        this(events.xColumn(), events.yColumn(), events.size(), distanceMethod);
+    }
+
+    public NearestNeighborFinder(double[] x, double[] y, int size, DistanceMethod distanceMethod) {
+        this.x = x;
+        this.y = y;
+        this.spatialIndex = new PointKdTree(x, y, size);
+        this.distanceMethod = distanceMethod;
+    }
+
+    public int size() {
+        return spatialIndex.size();
+    }
+
+    public PointKdTree getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public DistanceMethod getDistanceMethod() {
+        return distanceMethod;
+    }
+
+    /**
+     * Returns the index of the nearest other event, or -1 if there is only one event.
+     */
+    public int getNearest(int index) {
+        return spatialIndex.nearest(x[index], y[index], index, distanceMethod);
+    }
+
+    /**
+     * Returns the distance to the nearest other event, or Double.MAX_VALUE if there is only one
+     * event.
+     */
+    public double getNearestDistance(int index) {
+        int nearest = getNearest(index);
+        if (nearest == -1) {
+            return Double.MAX_VALUE;
+        }
+        return PointKdTree.distance(x[index], y[index], x[nearest], y[nearest],
+                distanceMethod == DistanceMethod.Manhattan);
+    }
+
+    /**
+     * Returns the nearest neighbor distance of every event, in event order.
+     */
+    public double[] getNearestDistances() {
+        final double[] distances = new double[size()];
+        ParallelExecutor.execute(distances.length, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    distances[i] = getNearestDistance(i);
+                }
+            }
+        });
+        return distances;
+    }
+
+    /**
+     * Finds the k nearest other events of the event at the index.
+     *
+     * @see PointKdTree#nearest(double, double, int, int, DistanceMethod, boolean,
+     *      PointKdTree.NeighborHeap)
+     */
+    public PointKdTree.NeighborHeap getKNearestNeighbors(int index, int k, boolean includeTies,
+            PointKdTree.NeighborHeap heap) {
+        return spatialIndex.nearest(x[index], y[index], k, index, distanceMethod, includeTies,
+                heap);
+    }
+
+    /**
+     * Computes the k nearest neighbors of all events in parallel. Row i of the result holds the
+     * neighbors of event i sorted by distance, and the weights hold the distances.
+     */
+    public SparseWeightMatrix getKNearestNeighbors(final int k, final boolean includeTies) {
+        final int size = size();
+        final int[][] neighbors = new int[size][];
+        final double[][] distances = new double[size][];
+
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                PointKdTree.NeighborHeap heap = new PointKdTree.NeighborHeap();
+                for (int i = start; i < end; i++) {
+                    getKNearestNeighbors(i, k, includeTies, heap);
+
+                    final int count = heap.size();
+                    neighbors[i] = new int[count];
+                    distances[i] = new double[count];
+                    for (int pos = 0; pos < count; pos++) {
+                        neighbors[i][pos] = heap.getIndex(pos);
+                        distances[i][pos] = heap.getDistance(pos);
+                    }
+                }
+            }
+        });
+
+        long capacity = (long) size * Math.max(0, Math.min(k, size - 1));
+        SparseWeightMatrix.Builder builder = new SparseWeightMatrix.Builder(size,
+                (int) Math.max(16, Math.min(Integer.MAX_VALUE - 8, capacity)));
+        for (int i = 0; i < size; i++) {
+            for (int pos = 0; pos < neighbors[i].length; pos++) {
+                builder.add(neighbors[i][pos], distances[i][pos]);
+            }
+            neighbors[i] = null;
+            distances[i] = null;
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the maximum nearest neighbor distance, increased for rounding error.
+     */
+    public double getThresholdDistance() {
+        double threshold = Double.MIN_VALUE;
+        for (double nnDist : getNearestDistances()) {
+            threshold = Math.max(nnDist, threshold);
+        }
+        return threshold * 1.0001;
+    }
+}
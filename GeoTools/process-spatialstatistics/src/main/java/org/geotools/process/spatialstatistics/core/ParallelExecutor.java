@@ -0,0 +1,199 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Runs index range tasks on a fork/join pool.<br>
+ * The range [0, size) is split into small chunks which idle workers steal from each other. Each
+ * chunk must only write its own slots of the result arrays, so the output does not depend on the
+ * scheduling.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public final class ParallelExecutor {
+    protected static final Logger LOGGER = Logging.getLogger(ParallelExecutor.class);
+
+    /** Ranges smaller than this are executed on the calling thread */
+    public static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    /** Default parallelism: the number of available processors */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static ForkJoinPool pool;
+
+    /**
+     * A task processing the indexes in [start, end).
+     */
+    public interface RangeTask {
+        void execute(int start, int end);
+    }
+
+    private ParallelExecutor() {
+    }
+
+    static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(DEFAULT_PARALLELISM);
+        }
+        return pool;
+    }
+
+    public static void execute(int size, RangeTask task) {
+        execute(size, task, DEFAULT_PARALLELISM, null);
+    }
+
+    /**
+     * Executes the task over [0, size) using up to parallelism threads.
+     *
+     * @param parallelism number of threads, 1 runs on the calling thread
+     * @param monitor optional listener, receives progress and is checked for cancellation
+     * @return false if the monitor was canceled, the remaining chunks are then skipped
+     */
+    public static boolean execute(int size, RangeTask task, int parallelism,
+            ProgressListener monitor) {
+        if (size <= 0) {
+            return isCompleted(monitor);
+        }
+
+        if (parallelism <= 1 || size <= SEQUENTIAL_THRESHOLD) {
+            int grain = monitor == null ? size : Math.max(1, size / 100);
+            new RangeAction(task, 0, size, grain, size, monitor).executeChunks();
+            return isCompleted(monitor);
+        }
+
+        int grain = Math.max(SEQUENTIAL_THRESHOLD / 4, size / (parallelism * 16));
+        return execute(size, task, parallelism, grain, monitor);
+    }
+
+    /**
+     * Executes the task over [0, size) in chunks of at most grain indexes, using up to parallelism
+     * threads. Suited to coarse tasks such as raster tiles, where each index is expensive; the
+     * monitor is checked for cancellation before each chunk.
+     *
+     * @param parallelism number of threads, 1 runs on the calling thread
+     * @param grain maximum number of indexes per chunk
+     * @param monitor optional listener, receives progress and is checked for cancellation
+     * @return false if the monitor was canceled, the remaining chunks are then skipped
+     */
+    public static boolean execute(int size, RangeTask task, int parallelism, int grain,
+            ProgressListener monitor) {
+        if (size <= 0) {
+            return isCompleted(monitor);
+        }
+
+        grain = Math.max(1, grain);
+        if (parallelism <= 1 || size <= grain) {
+            new RangeAction(task, 0, size, grain, size, monitor).executeChunks();
+            return isCompleted(monitor);
+        }
+
+        boolean shared = parallelism == DEFAULT_PARALLELISM;
+        ForkJoinPool forkJoinPool = shared ? getPool() : new ForkJoinPool(parallelism);
+        try {
+            forkJoinPool.invoke(new RangeAction(task, 0, size, grain, size, monitor));
+        } finally {
+            if (!shared) {
+                forkJoinPool.shutdown();
+            }
+        }
+        return isCompleted(monitor);
+    }
+
+    private static boolean isCompleted(ProgressListener monitor) {
+        return monitor == null || !monitor.isCanceled();
+    }
+
+    static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+
+        private final int start;
+
+        private final int end;
+
+        private final int grain;
+
+        private final int size;
+
+        private final ProgressListener monitor;
+
+        private final AtomicInteger processed;
+
+        RangeAction(RangeTask task, int start, int end, int grain, int size,
+                ProgressListener monitor) {
+            this(task, start, end, grain, size, monitor, new AtomicInteger());
+        }
+
+        private RangeAction(RangeTask task, int start, int end, int grain, int size,
+                ProgressListener monitor, AtomicInteger processed) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.size = size;
+            this.monitor = monitor;
+            this.processed = processed;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                executeChunk(start, end);
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new RangeAction(task, start, mid, grain, size, monitor, processed),
+                        new RangeAction(task, mid, end, grain, size, monitor, processed));
+            }
+        }
+
+        // sequential execution, chunked for progress reporting
+        void executeChunks() {
+            for (int chunk = start; chunk < end; chunk += grain) {
+                executeChunk(chunk, Math.min(end, chunk + grain));
+            }
+        }
+
+        private void executeChunk(int chunkStart, int chunkEnd) {
+            if (monitor == null) {
+                task.execute(chunkStart, chunkEnd);
+                return;
+            }
+
+            if (monitor.isCanceled()) {
+                return;
+            }
+
+            task.execute(chunkStart, chunkEnd);
+
+            int count = processed.addAndGet(chunkEnd - chunkStart);
+            synchronized (monitor) {
+                monitor.progress(count * 100f / size);
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+
+/**
+ * Static, balanced 2D KD-tree over primitive coordinate arrays.<br>
+ * The tree is built once by median partitioning and stored implicitly in index order, so queries
+ * do not allocate node objects. Indices passed to the visitors are the positions of the points in
+ * the source arrays (or list).
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class PointKdTree {
+
+    /**
+     * Receives the points found by a query.
+     */
+    public interface Visitor {
+        void visit(int index, double distance);
+    }
+
+    private final int size;
+
+    // coordinates in tree order
+    private final double[] xs;
+
+    private final double[] ys;
+
+    // source index of each tree position
+    private final int[] ids;
+
+    public PointKdTree(double[] x, double[] y) {
+        this(x, y, x.length);
+    }
+
+    public PointKdTree(double[] x, double[] y, int size) {
+        this.size = size;
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.ids = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            xs[i] = x[i];
+            ys[i] = y[i];
+            ids[i] = i;
+        }
+
+        build(0, size, 0);
+    }
+
+    public static PointKdTree build(List<SpatialEvent> events) {
+        final int count = events.size();
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            SpatialEvent event = events.get(i);
+            x[i] = event.x;
+            y[i] = event.y;
+        }
+        return new PointKdTree(x, y, count);
+    }
+
+    public static PointKdTree build(SpatialEventStore events) {
+        return new PointKdTree(events.xColumn(), events.yColumn(), events.size());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits all points whose distance from (x, y) is less than or equal to the radius.
+     */
+    public void query(double x, double y, double radius, DistanceMethod distanceMethod,
+            Visitor visitor) {
+        if (size > 0) {
+            query(0, size, 0, x, y, radius, distanceMethod == DistanceMethod.Manhattan, visitor);
+        }
+    }
+
+    private void query(int lo, int hi, int depth, double x, double y, double radius,
+            boolean manhattan, Visitor visitor) {
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+
+            double distance = distance(x, y, xs[mid], ys[mid], manhattan);
+            if (distance <= radius) {
+                visitor.visit(ids[mid], distance);
+            }
+
+            double diff = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+            depth++;
+
+            if (diff <= radius && diff >= -radius) {
+                // search both sides, recurse on the smaller one
+                query(lo, mid, depth, x, y, radius, manhattan, visitor);
+                lo = mid + 1;
+            } else if (diff < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the point nearest to (x, y), ignoring the excluded index (use -1 to
+     * ignore none), or -1 if there is no such point.
+     */
+    public int nearest(double x, double y, int exclude, DistanceMethod distanceMethod) {
+        NearestState state = new NearestState();
+        if (size > 0) {
+            nearest(0, size, 0, x, y, exclude, distanceMethod == DistanceMethod.Manhattan, state);
+        }
+        return state.index;
+    }
+
+    private void nearest(int lo, int hi, int depth, double x, double y, int exclude,
+            boolean manhattan, NearestState state) {
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+
+            if (ids[mid] != exclude) {
+                double distance = distance(x, y, xs[mid], ys[mid], manhattan);
+                if (distance < state.distance) {
+                    state.distance = distance;
+                    state.index = ids[mid];
+                }
+            }
+
+            double diff = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+            depth++;
+
+            // visit the near side first, then the far side only if it can hold a closer point
+            if (diff < 0) {
+                nearest(lo, mid, depth, x, y, exclude, manhattan, state);
+                if (-diff >= state.distance) {
+                    return;
+                }
+                lo = mid + 1;
+            } else {
+                nearest(mid + 1, hi, depth, x, y, exclude, manhattan, state);
+                if (diff >= state.distance) {
+                    return;
+                }
+                hi = mid;
+            }
+        }
+    }
+
+    /**
+     * Finds the k points nearest to (x, y), ignoring the excluded index (use -1 to ignore none).
+     * The result is sorted by distance; equally distant points are ordered by index, so exactly k
+     * points are returned if there are enough. If includeTies is true, all the points as distant
+     * as the k-th point are added.
+     *
+     * @param heap reusable buffer receiving the result
+     */
+    public NeighborHeap nearest(double x, double y, int k, int exclude,
+            DistanceMethod distanceMethod, boolean includeTies, NeighborHeap heap) {
+        final boolean manhattan = distanceMethod == DistanceMethod.Manhattan;
+        heap.reset(k);
+        if (size > 0 && k > 0) {
+            nearest(0, size, 0, x, y, exclude, manhattan, heap);
+        }
+
+        if (includeTies && heap.size() == k) {
+            // the points at exactly the k-th distance that lost the tie break
+            final double kth = heap.getMaxDistance();
+            final NeighborHeap result = heap;
+            query(x, y, kth, distanceMethod, new Visitor() {
+                @Override
+                public void visit(int index, double distance) {
+                    if (distance == kth && index != exclude && !result.contains(index)) {
+                        result.append(index, distance);
+                    }
+                }
+            });
+        }
+
+        heap.sort();
+        return heap;
+    }
+
+    private void nearest(int lo, int hi, int depth, double x, double y, int exclude,
+            boolean manhattan, NeighborHeap heap) {
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+
+            if (ids[mid] != exclude) {
+                heap.offer(ids[mid], distance(x, y, xs[mid], ys[mid], manhattan));
+            }
+
+            double diff = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+            depth++;
+
+            // near side first; the far side may still hold an equally distant lower index
+            if (diff < 0) {
+                nearest(lo, mid, depth, x, y, exclude, manhattan, heap);
+                if (-diff > heap.getBound()) {
+                    return;
+                }
+                lo = mid + 1;
+            } else {
+                nearest(mid + 1, hi, depth, x, y, exclude, manhattan, heap);
+                if (diff > heap.getBound()) {
+                    return;
+                }
+                hi = mid;
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of (distance, index) pairs keeping the k smallest, ordered by distance
+     * then index. Not thread safe: use one per thread.
+     */
+    public static final class NeighborHeap {
+        private int[] indexes = new int[16];
+
+        private double[] distances = new double[16];
+
+        private int k = 0;
+
+        private int size = 0;
+
+        // entries [0, heapSize) form the heap, appended ties follow
+        private int heapSize = 0;
+
+        private boolean sorted = false;
+
+        void reset(int capacity) {
+            this.k = capacity;
+            this.size = 0;
+            this.heapSize = 0;
+            this.sorted = false;
+            if (indexes.length < capacity) {
+                indexes = new int[capacity];
+                distances = new double[capacity];
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getIndex(int pos) {
+            return indexes[pos];
+        }
+
+        public double getDistance(int pos) {
+            return distances[pos];
+        }
+
+        // largest distance accepted, infinite until k points are found
+        double getBound() {
+            return size < k ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        double getMaxDistance() {
+            return distances[0];
+        }
+
+        boolean contains(int index) {
+            for (int i = 0; i < size; i++) {
+                if (indexes[i] == index) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void offer(int index, double distance) {
+            if (size < k) {
+                int pos = size++;
+                indexes[pos] = index;
+                distances[pos] = distance;
+                siftUp(pos);
+                heapSize = size;
+            } else if (less(distance, index, distances[0], indexes[0])) {
+                indexes[0] = index;
+                distances[0] = distance;
+                siftDown(0, size);
+            }
+        }
+
+        // appends a tie after the heap is complete
+        void append(int index, double distance) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            indexes[size] = index;
+            distances[size] = distance;
+            size++;
+        }
+
+        // ascending by distance, then index
+        void sort() {
+            if (sorted) {
+                return;
+            }
+
+            // heap sort; the ties lost the tie break so they all follow the heap entries
+            for (int end = heapSize - 1; end > 0; end--) {
+                swapEntries(0, end);
+                siftDown(0, end);
+            }
+            Arrays.sort(indexes, heapSize, size);
+            sorted = true;
+        }
+
+        private static boolean less(double d1, int i1, double d2, int i2) {
+            return d1 < d2 || (d1 == d2 && i1 < i2);
+        }
+
+        private void siftUp(int pos) {
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (!less(distances[parent], indexes[parent], distances[pos], indexes[pos])) {
+                    break;
+                }
+                swapEntries(parent, pos);
+                pos = parent;
+            }
+        }
+
+        private void siftDown(int pos, int limit) {
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= limit) {
+                    break;
+                }
+                if (child + 1 < limit
+                        && less(distances[child], indexes[child], distances[child + 1],
+                                indexes[child + 1])) {
+                    child++;
+                }
+                if (!less(distances[pos], indexes[pos], distances[child], indexes[child])) {
+                    break;
+                }
+                swapEntries(pos, child);
+                pos = child;
+            }
+        }
+
+        private void swapEntries(int i, int j) {
+            int ti = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = ti;
+
+            double td = distances[i];
+            distances[i] = distances[j];
+            distances[j] = td;
+        }
+    }
+
+    static final class NearestState {
+        int index = -1;
+
+        double distance = Double.MAX_VALUE;
+    }
+
+    public static double distance(double x1, double y1, double x2, double y2, boolean manhattan) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        if (manhattan) {
+            return Math.abs(dx) + Math.abs(dy);
+        }
+        return Math.sqrt((dx * dx) + (dy * dy));
+    }
+
+    private void build(int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+            depth++;
+            build(lo, mid, depth);
+            lo = mid + 1;
+        }
+    }
+
+    // quickselect: places the k-th smallest key of [left, right] at k, robust to duplicates
+    private void select(int left, int right, int k, double[] keys) {
+        while (right > left + 1) {
+            int mid = (left + right) >>> 1;
+            swap(mid, left + 1);
+            if (keys[left] > keys[right]) {
+                swap(left, right);
+            }
+            if (keys[left + 1] > keys[right]) {
+                swap(left + 1, right);
+            }
+            if (keys[left] > keys[left + 1]) {
+                swap(left, left + 1);
+            }
+
+            int i = left + 1;
+            int j = right;
+            final double pivot = keys[left + 1];
+            while (true) {
+                do {
+                    i++;
+                } while (keys[i] < pivot);
+                do {
+                    j--;
+                } while (keys[j] > pivot);
+                if (j < i) {
+                    break;
+                }
+                swap(i, j);
+            }
+            swap(left + 1, j);
+
+            if (j >= k) {
+                right = j - 1;
+            }
+            if (j <= k) {
+                left = i;
+            }
+        }
+
+        if (right == left + 1 && keys[right] < keys[left]) {
+            swap(left, right);
+        }
+    }
+
+    private void swap(int i, int j) {
+        double tx = xs[i];
+        xs[i] = xs[j];
+        xs[j] = tx;
+
+        double ty = ys[i];
+        ys[i] = ys[j];
+        ys[j] = ty;
+
+        int tid = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tid;
+    }
+}
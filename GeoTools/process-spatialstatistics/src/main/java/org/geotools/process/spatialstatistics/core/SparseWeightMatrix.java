@@ -0,0 +1,151 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.Arrays;
+
+/**
+ * Sparse spatial weights stored in compressed sparse row (CSR) layout.<br>
+ * The neighbors of event i are neighbors[k] with weights[k], for k in [rowIndex[i],
+ * rowIndex[i + 1]). The event itself is never stored as its own neighbor.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class SparseWeightMatrix {
+
+    private final int size;
+
+    private final int[] rowIndex;
+
+    private final int[] neighbors;
+
+    private final double[] weights;
+
+    public SparseWeightMatrix(int[] rowIndex, int[] neighbors, double[] weights) {
+        this.size = rowIndex.length - 1;
+        this.rowIndex = rowIndex;
+        this.neighbors = neighbors;
+        this.weights = weights;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getEdgeCount() {
+        return rowIndex[size];
+    }
+
+    public int getRowStart(int index) {
+        return rowIndex[index];
+    }
+
+    public int getRowEnd(int index) {
+        return rowIndex[index + 1];
+    }
+
+    public int getNeighborCount(int index) {
+        return rowIndex[index + 1] - rowIndex[index];
+    }
+
+    public int getNeighbor(int pos) {
+        return neighbors[pos];
+    }
+
+    public double getWeight(int pos) {
+        return weights[pos];
+    }
+
+    public Row getRow(int index, Row row) {
+        row.neighbors = neighbors;
+        row.weights = weights;
+        row.start = rowIndex[index];
+        row.end = rowIndex[index + 1];
+        row.view = true;
+        return row;
+    }
+
+    /**
+     * Neighbors and weights of one event: neighbors[k] and weights[k] for k in [start, end).
+     */
+    public static final class Row {
+        public int[] neighbors = new int[0];
+
+        public double[] weights = new double[0];
+
+        public int start = 0;
+
+        public int end = 0;
+
+        // true if the arrays are shared with a matrix and must not be written
+        boolean view = false;
+
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Builds a SparseWeightMatrix row by row, in event order.
+     */
+    public static final class Builder {
+        private final int[] rowIndex;
+
+        private int[] neighbors;
+
+        private double[] weights;
+
+        private int row = 0;
+
+        private int count = 0;
+
+        public Builder(int size) {
+            this(size, Math.max(16, size * 8));
+        }
+
+        public Builder(int size, int capacity) {
+            this.rowIndex = new int[size + 1];
+            this.neighbors = new int[capacity];
+            this.weights = new double[capacity];
+        }
+
+        public void add(int neighbor, double weight) {
+            if (count == neighbors.length) {
+                int capacity = neighbors.length + (neighbors.length >> 1) + 1;
+                neighbors = Arrays.copyOf(neighbors, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+            neighbors[count] = neighbor;
+            weights[count] = weight;
+            count++;
+        }
+
+        public void endRow() {
+            rowIndex[++row] = count;
+        }
+
+        public SparseWeightMatrix build() {
+            while (row < rowIndex.length - 1) {
+                endRow();
+            }
+            return new SparseWeightMatrix(rowIndex, Arrays.copyOf(neighbors, count),
+                    Arrays.copyOf(weights, count));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Columnar (structure of arrays) store of spatial events.<br>
+ * Holds x, y, weight, population and oid of each event in primitive columns instead of one
+ * {@link SpatialEvent} object per event. The columns are kept on the heap or, for very large
+ * point sets, in direct (off-heap) buffers.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class SpatialEventStore {
+    protected static final Logger LOGGER = Logging.getLogger(SpatialEventStore.class);
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final boolean direct;
+
+    private int size = 0;
+
+    private DoubleBuffer x;
+
+    private DoubleBuffer y;
+
+    private DoubleBuffer weight;
+
+    private DoubleBuffer population;
+
+    private IntBuffer oid;
+
+    public SpatialEventStore() {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    public SpatialEventStore(int capacity) {
+        this(capacity, false);
+    }
+
+    public SpatialEventStore(int capacity, boolean direct) {
+        this.direct = direct;
+        capacity = Math.max(capacity, 16);
+
+        this.x = allocateDouble(capacity);
+        this.y = allocateDouble(capacity);
+        this.weight = allocateDouble(capacity);
+        this.population = allocateDouble(capacity);
+        this.oid = allocateInt(capacity);
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getX(int index) {
+        return x.get(index);
+    }
+
+    public double getY(int index) {
+        return y.get(index);
+    }
+
+    public double getWeight(int index) {
+        return weight.get(index);
+    }
+
+    public double getPopulation(int index) {
+        return population.get(index);
+    }
+
+    public int getOid(int index) {
+        return oid.get(index);
+    }
+
+    public void setWeight(int index, double value) {
+        weight.put(index, value);
+    }
+
+    public void setPopulation(int index, double value) {
+        population.put(index, value);
+    }
+
+    public int add(int objectID, double px, double py, double obsValue, double popValue) {
+        if (size == x.capacity()) {
+            grow();
+        }
+
+        x.put(size, px);
+        y.put(size, py);
+        weight.put(size, obsValue);
+        population.put(size, popValue);
+        oid.put(size, objectID);
+
+        return size++;
+    }
+
+    public int add(SpatialEvent event) {
+        return add(event.oid, event.x, event.y, event.weight, event.population);
+    }
+
+    /**
+     * The x column, shared and not copied for heap columns; only the first size() values are
+     * valid. Direct columns are copied.
+     */
+    double[] xColumn() {
+        return direct ? toArray(x) : x.array();
+    }
+
+    /**
+     * The y column, shared and not copied for heap columns; only the first size() values are
+     * valid. Direct columns are copied.
+     */
+    double[] yColumn() {
+        return direct ? toArray(y) : y.array();
+    }
+
+    public SpatialEvent getEvent(int index) {
+        SpatialEvent event = new SpatialEvent(getOid(index));
+        event.x = getX(index);
+        event.y = getY(index);
+        event.weight = getWeight(index);
+        event.population = getPopulation(index);
+        return event;
+    }
+
+    public List<SpatialEvent> toEvents() {
+        List<SpatialEvent> events = new ArrayList<SpatialEvent>(size);
+        for (int i = 0; i < size; i++) {
+            events.add(getEvent(i));
+        }
+        return events;
+    }
+
+    public static SpatialEventStore fromEvents(List<SpatialEvent> events) {
+        SpatialEventStore store = new SpatialEventStore(events.size());
+        for (SpatialEvent event : events) {
+            store.add(event);
+        }
+        return store;
+    }
+
+    public static SpatialEventStore load(SimpleFeatureCollection features, String weightField,
+            String populationField) {
+        return load(features, weightField, populationField, false);
+    }
+
+    /**
+     * Streams the features once, storing the centroid of each geometry and the weight and
+     * population values. Missing or non numeric values default to 1.
+     *
+     * @param direct true to keep the columns in direct (off-heap) buffers
+     */
+    public static SpatialEventStore load(SimpleFeatureCollection features, String weightField,
+            String populationField, boolean direct) {
+        int idxWeight = getFieldIndex(features, weightField);
+        int idxPopulation = getFieldIndex(features, populationField);
+
+        SpatialEventStore store = new SpatialEventStore(DEFAULT_CAPACITY, direct);
+        SimpleFeatureIterator featureIter = features.features();
+        try {
+            while (featureIter.hasNext()) {
+                SimpleFeature feature = featureIter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
+
+                Coordinate coordinate = geometry.getCentroid().getCoordinate();
+                double obsValue = getValue(feature, idxWeight);
+                double popValue = getValue(feature, idxPopulation);
+                store.add(FeatureTypes.getFID(feature), coordinate.x, coordinate.y, obsValue,
+                        popValue);
+            }
+        } finally {
+            featureIter.close();
+        }
+
+        return store;
+    }
+
+    public static SpatialEventStore load(SimpleFeatureCollection features, String weightField) {
+        return load(features, weightField, null);
+    }
+
+    private static int getFieldIndex(SimpleFeatureCollection features, String field) {
+        if (StringHelper.isNullOrEmpty(field)) {
+            return -1;
+        }
+        String propertyName = FeatureTypes.validateProperty(features.getSchema(), field);
+        return features.getSchema().indexOf(propertyName);
+    }
+
+    private static double getValue(SimpleFeature feature, int index) {
+        if (index == -1) {
+            return 1.0;
+        }
+
+        Object value = feature.getAttribute(index);
+        if (value == null) {
+            return 1.0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return 1.0;
+        }
+    }
+
+    private double[] toArray(DoubleBuffer buffer) {
+        double[] values = new double[size];
+        DoubleBuffer view = buffer.duplicate();
+        view.position(0);
+        view.get(values, 0, size);
+        return values;
+    }
+
+    private void grow() {
+        int capacity = x.capacity() + (x.capacity() >> 1);
+        x = copyOf(x, capacity);
+        y = copyOf(y, capacity);
+        weight = copyOf(weight, capacity);
+        population = copyOf(population, capacity);
+
+        IntBuffer newOid = allocateInt(capacity);
+        IntBuffer view = oid.duplicate();
+        view.position(0).limit(size);
+        newOid.put(view);
+        newOid.clear();
+        oid = newOid;
+    }
+
+    private DoubleBuffer copyOf(DoubleBuffer buffer, int capacity) {
+        DoubleBuffer newBuffer = allocateDouble(capacity);
+        DoubleBuffer view = buffer.duplicate();
+        view.position(0).limit(size);
+        newBuffer.put(view);
+        newBuffer.clear();
+        return newBuffer;
+    }
+
+    private DoubleBuffer allocateDouble(int capacity) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder())
+                    .asDoubleBuffer();
+        }
+        return DoubleBuffer.allocate(capacity);
+    }
+
+    private IntBuffer allocateInt(int capacity) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        }
+        return IntBuffer.allocate(capacity);
+    }
+}
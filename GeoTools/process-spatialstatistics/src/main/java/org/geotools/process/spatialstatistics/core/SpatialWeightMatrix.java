@@ -16,7 +16,11 @@
  */
 package org.geotools.process.spatialstatistics.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -25,6 +29,7 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
+import org.geotools.process.spatialstatistics.core.AbstractSpatialWeightMatrix.SpatialWeightMatrixType;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
 import org.geotools.process.spatialstatistics.enumeration.StandardizationMethod;
@@ -46,12 +51,20 @@ import com.vividsolutions.jts.geom.Geometry;
 public class SpatialWeightMatrix {
     protected static final Logger LOGGER = Logging.getLogger(SpatialWeightMatrix.class);
 
-    public List<SpatialEvent> Events;
+    public SpatialEventStore Events;
+
+    protected boolean directEvents = false;
 
     protected double beta = 1.0;
 
     protected double[] rowSum;
 
+    protected double weightSum = 0;
+
+    protected SparseWeightMatrix weightMatrix;
+
+    protected File spatialWeightsFile;
+
     public double distanceBandWidth = 0;
 
     public double dZSum = 0;
@@ -91,33 +104,270 @@ public class SpatialWeightMatrix {
 
         Events = loadEvents(inputFeatures, obsField);
 
-        // Find Maximum Nearest Neighbor Distance
+        buildWeights(inputFeatures);
+    }
+
+    public boolean isDirectEvents() {
+        return directEvents;
+    }
+
+    /**
+     * Keeps the events in direct (off-heap) buffers, for very large point sets.
+     */
+    public void setDirectEvents(boolean directEvents) {
+        this.directEvents = directEvents;
+    }
+
+    public File getSpatialWeightsFile() {
+        return spatialWeightsFile;
+    }
 
+    /**
+     * Sets the binary (*.swm) or text (*.gal, *.gwt) weights file used by
+     * SpatialConcept.SPATIALWEIGHTSFROMFILE.
+     */
+    public void setSpatialWeightsFile(File spatialWeightsFile) {
+        this.spatialWeightsFile = spatialWeightsFile;
+    }
+
+    protected void buildWeights(SimpleFeatureCollection features) {
+        if (spatialConcept == SpatialConcept.SPATIALWEIGHTSFROMFILE) {
+            weightMatrix = loadSpatialWeights(features);
+        } else {
+            buildDistanceBand();
+            weightMatrix = buildSparseWeights();
+        }
+
+        rowSum = null;
+        if (standardizationMethod == StandardizationMethod.ROW) {
+            buildRowSums();
+        }
+    }
+
+    protected void buildDistanceBand() {
+        // Find Maximum Nearest Neighbor Distance
         if (distanceBandWidth == 0) {
             factory.DistanceType = distanceMethod;
-            double threshold = Double.MIN_VALUE;
-            for (SpatialEvent curEvent : Events) {
-                double nnDist = factory.getMinimumDistance(Events, curEvent);
-                threshold = Math.max(nnDist, threshold);
-            }
 
             // #### Increase For Rounding Error #### 2369.39576291193
-            distanceBandWidth = threshold * 1.0001;
+            distanceBandWidth = factory.getThresholDistance(Events);
             LOGGER.log(Level.WARNING, "The default neighborhood search threshold was "
                     + distanceBandWidth);
         }
+    }
 
-        if (standardizationMethod == StandardizationMethod.ROW) {
-            this.rowSum = new double[Events.size()];
-            for (SpatialEvent curE : Events) {
-                this.rowSum[curE.oid] = getRowSum(curE);
+    /**
+     * Returns the sums of the raw weights of each row, indexed by event oid.
+     */
+    public double[] getRowSums() {
+        if (rowSum == null) {
+            buildRowSums();
+        }
+        return rowSum;
+    }
+
+    /**
+     * Returns the sum of all raw weights (S0).
+     */
+    public double getWeightSum() {
+        if (rowSum == null) {
+            buildRowSums();
+        }
+        return weightSum;
+    }
+
+    private void buildRowSums() {
+        final double[] sums = new double[Events.size()];
+
+        ParallelExecutor.execute(sums.length, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                for (int i = start; i < end; i++) {
+                    getRow(i, row);
+                    double sum = 0.0;
+                    for (int k = row.start; k < row.end; k++) {
+                        sum += row.weights[k];
+                    }
+                    sums[Events.getOid(i)] = sum;
+                }
+            }
+        });
+
+        double total = 0.0;
+        for (int i = 0; i < sums.length; i++) {
+            total += sums[i];
+        }
+
+        this.weightSum = total;
+        this.rowSum = sums;
+    }
+
+    /**
+     * Returns the sparse weights, or null if the spatial concept is not bounded by the distance
+     * band (zone of indifference) and the weights are evaluated on the fly.
+     */
+    public SparseWeightMatrix getWeightMatrix() {
+        return weightMatrix;
+    }
+
+    public boolean isSparse() {
+        return weightMatrix != null;
+    }
+
+    /**
+     * Returns the neighbors and raw (not standardized) weights of the event at the index.
+     */
+    public SparseWeightMatrix.Row getRow(int index, SparseWeightMatrix.Row row) {
+        if (weightMatrix != null) {
+            return weightMatrix.getRow(index, row);
+        }
+
+        final int size = Events.size();
+        if (row.view || row.neighbors.length < size) {
+            row.neighbors = new int[size];
+            row.weights = new double[size];
+            row.view = false;
+        }
+
+        final int curOid = Events.getOid(index);
+        int count = 0;
+        for (int j = 0; j < size; j++) {
+            if (curOid == Events.getOid(j)) {
+                continue;
+            }
+            row.neighbors[count] = j;
+            row.weights[count] = getWeight(index, j);
+            count++;
+        }
+        row.start = 0;
+        row.end = count;
+        return row;
+    }
+
+    private SparseWeightMatrix buildSparseWeights() {
+        final int size = Events.size();
+        if (spatialConcept == SpatialConcept.ZONEOFINDIFFERENCE || distanceBandWidth <= 0) {
+            // every pair has a weight
+            return null;
+        }
+
+        SparseWeightMatrix.Builder builder = new SparseWeightMatrix.Builder(size);
+        if (spatialConcept == SpatialConcept.POLYGONCONTIGUITY) {
+            // neighbors are not derived from distances
+            return builder.build();
+        }
+
+        // weights are zero beyond the distance band: query the neighbors within the band only
+        PointKdTree spatialIndex = PointKdTree.build(Events);
+        NeighborCollector collector = new NeighborCollector();
+        for (int i = 0; i < size; i++) {
+            final int curOid = Events.getOid(i);
+
+            collector.count = 0;
+            spatialIndex.query(Events.getX(i), Events.getY(i), distanceBandWidth, distanceMethod,
+                    collector);
+            Arrays.sort(collector.neighbors, 0, collector.count);
+
+            for (int k = 0; k < collector.count; k++) {
+                final int j = collector.neighbors[k];
+                if (curOid == Events.getOid(j)) {
+                    continue;
+                }
+
+                double dWeight = getWeight(i, j);
+                if (dWeight != 0) {
+                    builder.add(j, dWeight);
+                }
+            }
+            builder.endRow();
+        }
+
+        return builder.build();
+    }
+
+    // neighbors listed in the spatial weights file, matched to the events by the unique field
+    private SparseWeightMatrix loadSpatialWeights(SimpleFeatureCollection features) {
+        if (spatialWeightsFile == null || !spatialWeightsFile.isFile()) {
+            throw new IllegalArgumentException("Spatial weights file does not exist: "
+                    + spatialWeightsFile);
+        }
+
+        try {
+            if (SpatialWeightMatrixFile.isBinary(spatialWeightsFile)) {
+                SpatialWeightMatrixFile swmFile = SpatialWeightMatrixFile.open(spatialWeightsFile);
+                try {
+                    List<String> featureIds = loadFeatureIds(features, swmFile.getUniqueField());
+                    return swmFile.toSparseWeightMatrix(featureIds);
+                } finally {
+                    swmFile.close();
+                }
+            }
+
+            SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(
+                    SpatialWeightMatrixType.Contiguity);
+            if (!swm.load(spatialWeightsFile, Charset.defaultCharset())) {
+                throw new IllegalArgumentException("Cannot read spatial weights file: "
+                        + spatialWeightsFile);
             }
+            return swm.toSparseWeightMatrix(loadFeatureIds(features, swm.getUniqueField()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private List<String> loadFeatureIds(SimpleFeatureCollection features, String uniqueField) {
+        if (StringHelper.isNullOrEmpty(uniqueField)) {
+            // the header has no id field: match the features by record number
+            return SpatialWeightMatrixResult.getRecordIds(features.size());
+        }
+
+        String propertyName = FeatureTypes.validateProperty(features.getSchema(), uniqueField);
+        if (propertyName == null || features.getSchema().indexOf(propertyName) == -1) {
+            throw new IllegalArgumentException(uniqueField + " field does not exist!");
+        }
+
+        List<String> featureIds = new ArrayList<String>();
+        SimpleFeatureIterator featureIter = features.features();
+        try {
+            while (featureIter.hasNext()) {
+                SimpleFeature feature = featureIter.next();
+                featureIds.add(String.valueOf(feature.getAttribute(propertyName)));
+            }
+        } finally {
+            featureIter.close();
+        }
+        return featureIds;
+    }
+
+    static final class NeighborCollector implements PointKdTree.Visitor {
+        int[] neighbors = new int[64];
+
+        int count = 0;
+
+        @Override
+        public void visit(int index, double distance) {
+            if (count == neighbors.length) {
+                neighbors = Arrays.copyOf(neighbors, count * 2);
+            }
+            neighbors[count++] = index;
         }
     }
 
     public double getWeight(SpatialEvent origEvent, SpatialEvent destEvent) {
-        double dDist = factory.getDistance(origEvent, destEvent, distanceMethod);
+        return toWeight(factory.getDistance(origEvent, destEvent, distanceMethod));
+    }
+
+    /**
+     * Returns the raw weight between the events at the indexes.
+     */
+    public double getWeight(int origIndex, int destIndex) {
+        return toWeight(PointKdTree.distance(Events.getX(origIndex), Events.getY(origIndex),
+                Events.getX(destIndex), Events.getY(destIndex),
+                distanceMethod == DistanceMethod.Manhattan));
+    }
 
+    private double toWeight(double dDist) {
         double dWeight = dDist; // default
 
         // Converts a distance to a weight based on user specified concept of
@@ -150,11 +400,22 @@ public class SpatialWeightMatrix {
     }
 
     public double standardizeWeight(SpatialEvent origEvent, double dWeight) {
+        return standardize(origEvent.oid, dWeight);
+    }
+
+    /**
+     * Standardizes the weight of a row of the event at the index.
+     */
+    public double standardizeWeight(int index, double dWeight) {
+        return standardize(Events.getOid(index), dWeight);
+    }
+
+    private double standardize(int oid, double dWeight) {
         switch (standardizationMethod) {
         case NONE:
             return dWeight;
         case ROW:
-            return dWeight / getRowSum(origEvent);
+            return dWeight / getRowSums()[oid];
         case GLOBAL:
             return dWeight / this.dZSum;
         }
@@ -162,13 +423,11 @@ public class SpatialWeightMatrix {
     }
 
     protected double getRowSum(SpatialEvent origEvent) {
-        double returnSum = 0.0;
-        for (SpatialEvent curE : Events) {
-            if (origEvent.oid != curE.oid) {
-                returnSum += getWeight(origEvent, curE);
-            }
-        }
-        return returnSum;
+        return getRowSums()[origEvent.oid];
+    }
+
+    protected double getRowSum(int index) {
+        return getRowSums()[Events.getOid(index)];
     }
 
     protected double getValue(SimpleFeature feature, Expression attrExpr) {
@@ -179,8 +438,8 @@ public class SpatialWeightMatrix {
         return Double.valueOf(1.0);
     }
 
-    private List<SpatialEvent> loadEvents(SimpleFeatureCollection features, String obsField) {
-        List<SpatialEvent> srcEvents = new ArrayList<SpatialEvent>();
+    private SpatialEventStore loadEvents(SimpleFeatureCollection features, String obsField) {
+        SpatialEventStore srcEvents = new SpatialEventStore(1024, directEvents);
 
         this.dZSum = this.dZ2Sum = this.dZ3Sum = this.dZ4Sum = 0.0;
 
@@ -196,14 +455,13 @@ public class SpatialWeightMatrix {
                 Geometry geometry = (Geometry) feature.getDefaultGeometry();
                 Coordinate coordinate = geometry.getCentroid().getCoordinate();
 
-                SpatialEvent sEvent = new SpatialEvent(oid++, coordinate);
-                sEvent.weight = getValue(feature, obsExpression);
+                double weight = getValue(feature, obsExpression);
 
-                dZSum += sEvent.weight;
-                dZ2Sum += Math.pow(sEvent.weight, 2.0);
-                dZ3Sum += Math.pow(sEvent.weight, 3.0);
-                dZ4Sum += Math.pow(sEvent.weight, 4.0);
-                srcEvents.add(sEvent);
+                dZSum += weight;
+                dZ2Sum += Math.pow(weight, 2.0);
+                dZ3Sum += Math.pow(weight, 3.0);
+                dZ4Sum += Math.pow(weight, 4.0);
+                srcEvents.add(oid++, coordinate.x, coordinate.y, weight, 1.0);
             }
         } finally {
             featureIter.close();
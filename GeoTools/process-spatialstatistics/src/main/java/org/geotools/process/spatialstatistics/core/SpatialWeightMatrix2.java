@@ -16,9 +16,6 @@
  */
 package org.geotools.process.spatialstatistics.core;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -75,32 +72,27 @@ public class SpatialWeightMatrix2 extends SpatialWeightMatrix {
 
         Events = loadEvents(inputFeatures, obsField, popField);
 
-        // Find Maximum Nearest Neighbor Distance
-        if (distanceBandWidth == 0) {
-            factory.DistanceType = distanceMethod;
-            double threshold = Double.MIN_VALUE;
-            for (SpatialEvent curEvent : Events) {
-                double nnDist = factory.getMinimumDistance(Events, curEvent);
-                threshold = Math.max(nnDist, threshold);
-            }
+        buildWeights(inputFeatures);
+    }
 
-            // #### Increase For Rounding Error #### 2369.39576291193
-            distanceBandWidth = threshold * 1.0001;
-            LOGGER.log(Level.WARNING, "The default neighborhood search threshold was "
-                    + distanceBandWidth);
-        }
+    /**
+     * Loads the events and the default distance band without building the weights, for the
+     * operations that search the neighbors themselves.
+     */
+    public void buildEvents(SimpleFeatureCollection inputFeatures, String obsField,
+            String popField, DistanceMethod distanceMethod) {
+        this.distanceMethod = distanceMethod;
 
-        if (standardizationMethod == StandardizationMethod.ROW) {
-            this.rowSum = new double[Events.size()];
-            for (SpatialEvent curE : Events) {
-                this.rowSum[curE.oid] = getRowSum(curE);
-            }
+        Events = loadEvents(inputFeatures, obsField, popField);
+
+        if (spatialConcept != SpatialConcept.SPATIALWEIGHTSFROMFILE) {
+            buildDistanceBand();
         }
     }
 
-    private List<SpatialEvent> loadEvents(SimpleFeatureCollection features, String obsField,
+    private SpatialEventStore loadEvents(SimpleFeatureCollection features, String obsField,
             String popField) {
-        List<SpatialEvent> eventList = new ArrayList<SpatialEvent>();
+        SpatialEventStore eventList = new SpatialEventStore(1024, directEvents);
 
         this.dZSum = this.dZ2Sum = this.dZ3Sum = this.dZ4Sum = 0.0;
         this.dPopSum = this.dPop2Sum = this.dPop3Sum = this.dPop4Sum = 0.0;
@@ -121,22 +113,21 @@ public class SpatialWeightMatrix2 extends SpatialWeightMatrix {
                 Geometry geometry = (Geometry) feature.getDefaultGeometry();
                 Coordinate coordinate = geometry.getCentroid().getCoordinate();
 
-                SpatialEvent sEvent = new SpatialEvent(oid++, coordinate);
-                sEvent.weight = getValue(feature, obsExpression);
+                double weight = getValue(feature, obsExpression);
 
-                dZSum += sEvent.weight;
-                dZ2Sum += Math.pow(sEvent.weight, 2.0);
-                dZ3Sum += Math.pow(sEvent.weight, 3.0);
-                dZ4Sum += Math.pow(sEvent.weight, 4.0);
+                dZSum += weight;
+                dZ2Sum += Math.pow(weight, 2.0);
+                dZ3Sum += Math.pow(weight, 3.0);
+                dZ4Sum += Math.pow(weight, 4.0);
 
-                sEvent.population = getValue(feature, popExpression);
+                double population = getValue(feature, popExpression);
 
-                dPopSum += sEvent.population;
-                dPop2Sum += Math.pow(sEvent.population, 2.0);
-                dPop3Sum += Math.pow(sEvent.population, 3.0);
-                dPop4Sum += Math.pow(sEvent.population, 4.0);
+                dPopSum += population;
+                dPop2Sum += Math.pow(population, 2.0);
+                dPop3Sum += Math.pow(population, 3.0);
+                dPop4Sum += Math.pow(population, 4.0);
 
-                eventList.add(sEvent);
+                eventList.add(oid++, coordinate.x, coordinate.y, weight, population);
             }
         } finally {
             featureIter.close();
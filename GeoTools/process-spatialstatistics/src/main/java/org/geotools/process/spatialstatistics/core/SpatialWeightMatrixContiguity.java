@@ -16,6 +16,9 @@
  */
 package org.geotools.process.spatialstatistics.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -23,22 +26,30 @@ import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.enumeration.ContiguityType;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.filter.Filter;
 
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.MultiPoint;
-import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 /**
- * SpatialWeightMatrix - Contiguity based weights
- * 
+ * SpatialWeightMatrix - Contiguity based weights<br>
+ * The geometries are loaded once into an STRtree and each pair of features is tested once.
+ * Candidates are filtered with prepared geometries, and shared borders are found by hashing the
+ * boundary segments; only pairs without a common segment fall back to a segment by segment test.
+ * Higher orders of contiguity are found by expanding the first order neighbor graph.
+ *
  * @author Minpa Lee, MangoSystem
- * 
+ *
  * @source $URL$
  */
 public class SpatialWeightMatrixContiguity extends AbstractSpatialWeightMatrix {
-    protected static final Logger LOGGER = Logging
-            .getLogger(SpatialWeightMatrixKNearestNeighbors.class);
+    protected static final Logger LOGGER = Logging.getLogger(SpatialWeightMatrixContiguity.class);
 
     private int orderOfContiguity = 1; // Queen's default order
 
@@ -48,6 +59,10 @@ public class SpatialWeightMatrixContiguity extends AbstractSpatialWeightMatrix {
         return orderOfContiguity;
     }
 
+    /**
+     * Sets the order of contiguity: features reachable within this number of contiguity steps
+     * are neighbors.
+     */
     public void setOrderOfContiguity(int orderOfContiguity) {
         this.orderOfContiguity = orderOfContiguity;
     }
@@ -66,146 +81,332 @@ public class SpatialWeightMatrixContiguity extends AbstractSpatialWeightMatrix {
 
     @Override
     public SpatialWeightMatrixResult execute(SimpleFeatureCollection features, String uniqueField) {
-        switch (contiguityType) {
-        case Queen:
-            return queen(features, uniqueField);
-        case Rook:
-            return rook(features, uniqueField);
-        case Bishops:
-            return bishops(features, uniqueField);
-        default:
-            return queen(features, uniqueField);
-        }
-    }
-
-    // Polygon Contiguity (Edges and Corners)—A queen weights matrix defines a location's
-    // neighbors as those with either a shared border or vertex
-    private SpatialWeightMatrixResult queen(SimpleFeatureCollection features, String uniqueField) {
         SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(
                 SpatialWeightMatrixType.Contiguity);
         swm.setupVariables(features.getSchema().getTypeName(), uniqueField);
 
         uniqueField = FeatureTypes.validateProperty(features.getSchema(), uniqueField);
-        final String the_geom = features.getSchema().getGeometryDescriptor().getLocalName();
 
+        // 1. load geometries once and build spatial index
+        final List<Geometry> geometries = new ArrayList<Geometry>();
+        List<Object> uniqueIds = new ArrayList<Object>();
+        final STRtree spatialIndex = new STRtree();
         SimpleFeatureIterator featureIter = features.features();
         try {
             while (featureIter.hasNext()) {
-                SimpleFeature primaryFeature = featureIter.next();
-                Geometry primaryGeometry = (Geometry) primaryFeature.getDefaultGeometry();
-                Object primaryID = primaryFeature.getAttribute(uniqueField);
-
-                // spatial query
-                // TODO orderOfContiguity
-                Filter filter = ff.intersects(ff.property(the_geom), ff.literal(primaryGeometry));
-                SimpleFeatureIterator subIter = features.subCollection(filter).features();
-                try {
-                    while (subIter.hasNext()) {
-                        SimpleFeature secondaryFeature = subIter.next();
-                        Object secondaryID = secondaryFeature.getAttribute(uniqueField);
-                        if (primaryID.equals(secondaryID)) {
-                            continue;
-                        }
-
-                        swm.visit(primaryID, secondaryID);
-                    }
-                } finally {
-                    subIter.close();
+                SimpleFeature feature = featureIter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                Integer index = Integer.valueOf(geometries.size());
+                if (geometry != null && !geometry.isEmpty()) {
+                    spatialIndex.insert(geometry.getEnvelopeInternal(), index);
                 }
+                geometries.add(geometry);
+                uniqueIds.add(feature.getAttribute(uniqueField));
             }
         } finally {
             featureIter.close();
         }
-        return swm;
-    }
+        spatialIndex.build();
 
-    // Polygon Contiguity (Edges Only)—A rook weights matrix defines a location's neighbors as
-    // those areas with shared borders
-    private SpatialWeightMatrixResult rook(SimpleFeatureCollection features, String uniqueField) {
-        SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(
-                SpatialWeightMatrixType.Contiguity);
-        swm.setupVariables(features.getSchema().getTypeName(), uniqueField);
+        final int featureCount = geometries.size();
+        final ContiguityType type = contiguityType == null ? ContiguityType.Queen
+                : contiguityType;
 
-        uniqueField = FeatureTypes.validateProperty(features.getSchema(), uniqueField);
-        final String the_geom = features.getSchema().getGeometryDescriptor().getLocalName();
+        // 2. boundary segment hashes
+        final long[][] segmentKeys = new long[featureCount][];
+        ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    segmentKeys[i] = buildSegmentKeys(geometries.get(i));
+                }
+            }
+        });
 
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature primaryFeature = featureIter.next();
-                Geometry primaryGeometry = (Geometry) primaryFeature.getDefaultGeometry();
-                Object primaryID = primaryFeature.getAttribute(uniqueField);
-
-                // spatial query
-                Filter filter = ff.intersects(ff.property(the_geom), ff.literal(primaryGeometry));
-                SimpleFeatureIterator subIter = features.subCollection(filter).features();
-                try {
-                    while (subIter.hasNext()) {
-                        SimpleFeature secondaryFeature = subIter.next();
-                        Object secondaryID = secondaryFeature.getAttribute(uniqueField);
-                        if (primaryID.equals(secondaryID)) {
+        // 3. first order neighbors, each pair (i < j) tested once
+        final int[][] pairs = new int[featureCount][];
+        ParallelExecutor.execute(featureCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                RobustLineIntersector lineIntersector = new RobustLineIntersector();
+                int[] buffer = new int[16];
+                for (int i = start; i < end; i++) {
+                    Geometry primaryGeometry = geometries.get(i);
+                    if (primaryGeometry == null || primaryGeometry.isEmpty()) {
+                        continue;
+                    }
+
+                    PreparedGeometry prepared = null;
+                    int count = 0;
+                    for (Object item : spatialIndex.query(primaryGeometry.getEnvelopeInternal())) {
+                        int j = ((Integer) item).intValue();
+                        if (j <= i) {
                             continue;
                         }
 
-                        Geometry secondaryGeom = (Geometry) secondaryFeature.getDefaultGeometry();
-                        Geometry intersects = primaryGeometry.intersection(secondaryGeom);
-                        if (intersects instanceof Point || intersects instanceof MultiPoint) {
+                        if (prepared == null) {
+                            prepared = PreparedGeometryFactory.prepare(primaryGeometry);
+                        }
+
+                        Geometry secondaryGeometry = geometries.get(j);
+                        if (!prepared.intersects(secondaryGeometry)) {
                             continue;
                         }
 
-                        swm.visit(primaryID, secondaryID);
+                        boolean neighbor = true;
+                        if (type != ContiguityType.Queen) {
+                            boolean borders = sharesSegment(segmentKeys[i], segmentKeys[j])
+                                    || hasLineContact(primaryGeometry, secondaryGeometry,
+                                            lineIntersector);
+                            neighbor = type == ContiguityType.Rook ? borders : !borders;
+                        }
+
+                        if (neighbor) {
+                            if (count == buffer.length) {
+                                buffer = Arrays.copyOf(buffer, count * 2);
+                            }
+                            buffer[count++] = j;
+                        }
                     }
-                } finally {
-                    subIter.close();
+                    pairs[i] = Arrays.copyOf(buffer, count);
+                }
+            }
+        });
+
+        SparseWeightMatrix contiguity = buildSymmetricMatrix(pairs);
+
+        // 4. higher order contiguity
+        if (orderOfContiguity > 1) {
+            contiguity = expand(contiguity, orderOfContiguity);
+        }
+
+        // 5. create spatial weight matrix
+        int[] ids = new int[featureCount];
+        for (int i = 0; i < featureCount; i++) {
+            ids[i] = swm.addId(uniqueIds.get(i));
+        }
+
+        for (int i = 0; i < featureCount; i++) {
+            for (int pos = contiguity.getRowStart(i); pos < contiguity.getRowEnd(i); pos++) {
+                int secondaryID = ids[contiguity.getNeighbor(pos)];
+                if (ids[i] != secondaryID) {
+                    swm.addEdge(ids[i], secondaryID, 0d);
                 }
             }
-        } finally {
-            featureIter.close();
         }
+
         return swm;
     }
 
-    // Polygon Contiguity (Corners Only)—A rook weights matrix defines a location's neighbors as
-    // those areas with shared vertex
-    private SpatialWeightMatrixResult bishops(SimpleFeatureCollection features, String uniqueField) {
-        SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(
-                SpatialWeightMatrixType.Contiguity);
-        swm.setupVariables(features.getSchema().getTypeName(), uniqueField);
+    // both directions of each pair, rows sorted
+    private SparseWeightMatrix buildSymmetricMatrix(int[][] pairs) {
+        final int size = pairs.length;
+        int[] degree = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (pairs[i] != null) {
+                degree[i] += pairs[i].length;
+                for (int j : pairs[i]) {
+                    degree[j]++;
+                }
+            }
+        }
 
-        uniqueField = FeatureTypes.validateProperty(features.getSchema(), uniqueField);
-        final String the_geom = features.getSchema().getGeometryDescriptor().getLocalName();
+        int[] rowIndex = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            rowIndex[i + 1] = rowIndex[i] + degree[i];
+        }
 
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature primaryFeature = featureIter.next();
-                Geometry primaryGeometry = (Geometry) primaryFeature.getDefaultGeometry();
-                Object primaryID = primaryFeature.getAttribute(uniqueField);
-
-                // spatial query
-                Filter filter = ff.intersects(ff.property(the_geom), ff.literal(primaryGeometry));
-                SimpleFeatureIterator subIter = features.subCollection(filter).features();
-                try {
-                    while (subIter.hasNext()) {
-                        SimpleFeature secondaryFeature = subIter.next();
-                        Object secondaryID = secondaryFeature.getAttribute(uniqueField);
-                        if (primaryID.equals(secondaryID)) {
-                            continue;
-                        }
+        int[] neighbors = new int[rowIndex[size]];
+        int[] next = Arrays.copyOf(rowIndex, size);
+        for (int i = 0; i < size; i++) {
+            if (pairs[i] != null) {
+                for (int j : pairs[i]) {
+                    neighbors[next[i]++] = j;
+                    neighbors[next[j]++] = i;
+                }
+            }
+        }
 
-                        Geometry secondaryGeom = (Geometry) secondaryFeature.getDefaultGeometry();
-                        Geometry intersects = primaryGeometry.intersection(secondaryGeom);
-                        if (intersects instanceof Point || intersects instanceof MultiPoint) {
-                            swm.visit(primaryID, secondaryID);
+        double[] weights = new double[neighbors.length];
+        for (int i = 0; i < size; i++) {
+            Arrays.sort(neighbors, rowIndex[i], rowIndex[i + 1]);
+        }
+        Arrays.fill(weights, 1.0);
+
+        return new SparseWeightMatrix(rowIndex, neighbors, weights);
+    }
+
+    // neighbors within order steps (breadth first search on the first order graph)
+    private SparseWeightMatrix expand(final SparseWeightMatrix firstOrder, final int order) {
+        final int size = firstOrder.size();
+        final int[][] rows = new int[size][];
+
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                int[] visited = new int[size];
+                int[] queue = new int[16];
+                for (int i = start; i < end; i++) {
+                    final int stamp = i + 1;
+                    visited[i] = stamp;
+
+                    int head = 0;
+                    int tail = 0;
+                    queue[tail++] = i;
+                    for (int level = 0; level < order && head < tail; level++) {
+                        final int levelEnd = tail;
+                        while (head < levelEnd) {
+                            int current = queue[head++];
+                            for (int pos = firstOrder.getRowStart(current); pos < firstOrder
+                                    .getRowEnd(current); pos++) {
+                                int neighbor = firstOrder.getNeighbor(pos);
+                                if (visited[neighbor] != stamp) {
+                                    visited[neighbor] = stamp;
+                                    if (tail == queue.length) {
+                                        queue = Arrays.copyOf(queue, tail * 2);
+                                    }
+                                    queue[tail++] = neighbor;
+                                }
+                            }
                         }
                     }
-                } finally {
-                    subIter.close();
+
+                    // queue[0] is the feature itself
+                    rows[i] = Arrays.copyOfRange(queue, 1, tail);
+                    Arrays.sort(rows[i]);
                 }
             }
-        } finally {
-            featureIter.close();
+        });
+
+        SparseWeightMatrix.Builder builder = new SparseWeightMatrix.Builder(size);
+        for (int i = 0; i < size; i++) {
+            for (int neighbor : rows[i]) {
+                builder.add(neighbor, 1.0);
+            }
+            rows[i] = null;
+            builder.endRow();
         }
-        return swm;
+        return builder.build();
+    }
+
+    // sorted 64 bit hashes of the boundary segments, direction independent
+    static long[] buildSegmentKeys(Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            return new long[0];
+        }
+
+        @SuppressWarnings("unchecked")
+        List<LineString> lines = LinearComponentExtracter.getLines(geometry);
+        int count = 0;
+        for (LineString line : lines) {
+            count += Math.max(0, line.getNumPoints() - 1);
+        }
+
+        long[] keys = new long[count];
+        count = 0;
+        for (LineString line : lines) {
+            Coordinate[] coordinates = line.getCoordinates();
+            for (int k = 1; k < coordinates.length; k++) {
+                if (!coordinates[k - 1].equals2D(coordinates[k])) {
+                    keys[count++] = segmentKey(coordinates[k - 1], coordinates[k]);
+                }
+            }
+        }
+
+        keys = Arrays.copyOf(keys, count);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static long segmentKey(Coordinate p0, Coordinate p1) {
+        if (p0.compareTo(p1) > 0) {
+            Coordinate temp = p0;
+            p0 = p1;
+            p1 = temp;
+        }
+
+        long hash = mix(Double.doubleToLongBits(p0.x + 0.0));
+        hash = mix(hash ^ Double.doubleToLongBits(p0.y + 0.0));
+        hash = mix(hash ^ Double.doubleToLongBits(p1.x + 0.0));
+        return mix(hash ^ Double.doubleToLongBits(p1.y + 0.0));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    static boolean sharesSegment(long[] keys1, long[] keys2) {
+        int i = 0;
+        int j = 0;
+        while (i < keys1.length && j < keys2.length) {
+            if (keys1[i] == keys2[j]) {
+                return true;
+            } else if (keys1[i] < keys2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if two intersecting geometries share more than points: a partly collinear
+     * boundary (e.g. noded differently), crossing boundaries or containment.
+     */
+    static boolean hasLineContact(Geometry g1, Geometry g2, RobustLineIntersector lineIntersector) {
+        Envelope common = g1.getEnvelopeInternal().intersection(g2.getEnvelopeInternal());
+
+        List<Coordinate[]> segments1 = extractSegments(g1, common);
+        List<Coordinate[]> segments2 = extractSegments(g2, common);
+
+        boolean touches = false;
+        for (Coordinate[] s1 : segments1) {
+            for (Coordinate[] s2 : segments2) {
+                if (!Envelope.intersects(s1[0], s1[1], s2[0], s2[1])) {
+                    continue;
+                }
+
+                lineIntersector.computeIntersection(s1[0], s1[1], s2[0], s2[1]);
+                if (!lineIntersector.hasIntersection()) {
+                    continue;
+                }
+
+                if (lineIntersector.getIntersectionNum() == 2
+                        && !lineIntersector.getIntersection(0).equals2D(
+                                lineIntersector.getIntersection(1))) {
+                    return true; // collinear overlap
+                }
+
+                if (lineIntersector.isProper()) {
+                    return true; // crossing boundaries, the areas overlap
+                }
+                touches = true;
+            }
+        }
+
+        if (touches || g1.getDimension() < 2 && g2.getDimension() < 2) {
+            return false;
+        }
+
+        // intersecting without touching boundaries: one contains the other
+        return true;
+    }
+
+    private static List<Coordinate[]> extractSegments(Geometry geometry, Envelope filter) {
+        List<Coordinate[]> segments = new ArrayList<Coordinate[]>();
+        @SuppressWarnings("unchecked")
+        List<LineString> lines = LinearComponentExtracter.getLines(geometry);
+        for (LineString line : lines) {
+            Coordinate[] coordinates = line.getCoordinates();
+            for (int k = 1; k < coordinates.length; k++) {
+                if (filter.intersects(new Envelope(coordinates[k - 1], coordinates[k]))) {
+                    segments.add(new Coordinate[] { coordinates[k - 1], coordinates[k] });
+                }
+            }
+        }
+        return segments;
     }
 }
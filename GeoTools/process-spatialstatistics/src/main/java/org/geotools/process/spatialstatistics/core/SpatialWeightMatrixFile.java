@@ -0,0 +1,439 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.process.spatialstatistics.core.AbstractSpatialWeightMatrix.SpatialWeightMatrixType;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Binary spatial weights matrix file (*.swm).<br>
+ * The neighbors are stored in compressed sparse row (CSR) layout and the file is memory mapped on
+ * read, so weights built once can be reused by many statistic runs without recomputation.
+ *
+ * <pre>
+ * header   : magic, version, type, featureCount, edgeCount, section offsets (64 bytes)
+ *            typeName, uniqueField (length prefixed UTF-8)
+ * edges    : edgeCount x (int neighbor, double weight)
+ * rowIndex : (featureCount + 1) x long
+ * ids      : featureCount x (length prefixed UTF-8)
+ * </pre>
+ *
+ * Edges are written row by row while the weights are built; the row index and ids are appended
+ * when the writer is closed.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class SpatialWeightMatrixFile implements Closeable {
+    protected static final Logger LOGGER = Logging.getLogger(SpatialWeightMatrixFile.class);
+
+    public static final String FILE_EXTENSION = ".swm";
+
+    static final int MAGIC = 0x53574D42; // SWMB
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int EDGE_SIZE = 12;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile raf;
+
+    private final SpatialWeightMatrixType spatialWeightMatrixType;
+
+    private final int featureCount;
+
+    private final long edgeCount;
+
+    private final String typeName;
+
+    private final String uniqueField;
+
+    private final long[] rowIndex;
+
+    private final String[] ids;
+
+    private final MappedByteBuffer edges;
+
+    private Map<String, Integer> idIndex;
+
+    private SpatialWeightMatrixFile(RandomAccessFile raf) throws IOException {
+        this.raf = raf;
+        FileChannel channel = raf.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a binary spatial weights matrix file");
+        }
+
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported spatial weights matrix file version: " + version);
+        }
+
+        this.spatialWeightMatrixType = header.getInt() == 0 ? SpatialWeightMatrixType.Distance
+                : SpatialWeightMatrixType.Contiguity;
+        this.featureCount = header.getInt();
+        this.edgeCount = header.getLong();
+        long edgesOffset = header.getLong();
+        long rowIndexOffset = header.getLong();
+        long idsOffset = header.getLong();
+
+        // names
+        ByteBuffer names = channel.map(MapMode.READ_ONLY, HEADER_SIZE, edgesOffset - HEADER_SIZE);
+        this.typeName = readString(names);
+        this.uniqueField = readString(names);
+
+        // row index
+        ByteBuffer rows = channel.map(MapMode.READ_ONLY, rowIndexOffset, (featureCount + 1) * 8L);
+        this.rowIndex = new long[featureCount + 1];
+        rows.asLongBuffer().get(rowIndex);
+
+        // ids
+        this.ids = new String[featureCount];
+        ByteBuffer idBuffer = channel.map(MapMode.READ_ONLY, idsOffset, channel.size() - idsOffset);
+        for (int i = 0; i < featureCount; i++) {
+            ids[i] = readString(idBuffer);
+        }
+
+        long edgesLength = edgeCount * EDGE_SIZE;
+        if (edgesLength > Integer.MAX_VALUE) {
+            throw new IOException("Too many neighbors to map: " + edgeCount);
+        }
+        this.edges = channel.map(MapMode.READ_ONLY, edgesOffset, edgesLength);
+    }
+
+    /**
+     * Opens and memory maps a binary spatial weights matrix file.
+     */
+    public static SpatialWeightMatrixFile open(File swmFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(swmFile, "r");
+        try {
+            return new SpatialWeightMatrixFile(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the file starts with the binary spatial weights matrix signature.
+     */
+    public static boolean isBinary(File file) {
+        if (file == null || !file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new FileInputStream(file));
+            return dis.readInt() == MAGIC;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return false;
+        } finally {
+            closeQuietly(dis);
+        }
+    }
+
+    public SpatialWeightMatrixType getSpatialWeightMatrixType() {
+        return spatialWeightMatrixType;
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public String getUniqueField() {
+        return uniqueField;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns the row of the id, or -1 if the id is not in the file.
+     */
+    public int indexOf(String id) {
+        if (idIndex == null) {
+            idIndex = new HashMap<String, Integer>(featureCount * 2);
+            for (int i = 0; i < featureCount; i++) {
+                idIndex.put(ids[i], Integer.valueOf(i));
+            }
+        }
+
+        Integer index = idIndex.get(id);
+        return index == null ? -1 : index.intValue();
+    }
+
+    public int getNeighborCount(int index) {
+        return (int) (rowIndex[index + 1] - rowIndex[index]);
+    }
+
+    /**
+     * Copies the neighbors (row numbers of this file) and stored values of the row.
+     */
+    public SparseWeightMatrix.Row getRow(int index, SparseWeightMatrix.Row row) {
+        final int count = getNeighborCount(index);
+        if (row.view || row.neighbors.length < count) {
+            row.neighbors = new int[Math.max(count, 16)];
+            row.weights = new double[row.neighbors.length];
+            row.view = false;
+        }
+
+        int pos = (int) (rowIndex[index] * EDGE_SIZE);
+        for (int k = 0; k < count; k++, pos += EDGE_SIZE) {
+            row.neighbors[k] = edges.getInt(pos);
+            row.weights[k] = edges.getDouble(pos + 4);
+        }
+        row.start = 0;
+        row.end = count;
+        return row;
+    }
+
+    /**
+     * Builds the weights of the features, given the unique field value of each feature in feature
+     * order. Listed neighbors get a weight of 1, features missing from the file have no
+     * neighbors.
+     */
+    public SparseWeightMatrix toSparseWeightMatrix(List<String> featureIds) {
+        final int size = featureIds.size();
+
+        // file row -> feature index
+        int[] fileToFeature = new int[featureCount];
+        Arrays.fill(fileToFeature, -1);
+        for (int i = 0; i < size; i++) {
+            int fileRow = indexOf(featureIds.get(i));
+            if (fileRow != -1) {
+                fileToFeature[fileRow] = i;
+            }
+        }
+
+        int[] featureToFile = new int[size];
+        Arrays.fill(featureToFile, -1);
+        for (int fileRow = 0; fileRow < featureCount; fileRow++) {
+            if (fileToFeature[fileRow] != -1) {
+                featureToFile[fileToFeature[fileRow]] = fileRow;
+            }
+        }
+
+        SparseWeightMatrix.Builder builder = new SparseWeightMatrix.Builder(size,
+                (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, edgeCount)));
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        int[] neighbors = new int[16];
+        for (int i = 0; i < size; i++) {
+            int fileRow = featureToFile[i];
+            if (fileRow != -1) {
+                getRow(fileRow, row);
+
+                int count = 0;
+                if (neighbors.length < row.end) {
+                    neighbors = new int[row.end];
+                }
+                for (int k = row.start; k < row.end; k++) {
+                    int neighbor = row.neighbors[k] < featureCount ? fileToFeature[row.neighbors[k]]
+                            : -1;
+                    if (neighbor != -1 && neighbor != i) {
+                        neighbors[count++] = neighbor;
+                    }
+                }
+
+                Arrays.sort(neighbors, 0, count);
+                for (int k = 0; k < count; k++) {
+                    if (k == 0 || neighbors[k] != neighbors[k - 1]) {
+                        builder.add(neighbors[k], 1.0);
+                    }
+                }
+            }
+            builder.endRow();
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Writes a binary spatial weights matrix file row by row. Rows are numbered in the order they
+     * are written; neighbors refer to row numbers and may refer to rows written later.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+
+        private final SpatialWeightMatrixType spatialWeightMatrixType;
+
+        private final DataOutputStream out;
+
+        private final List<String> ids = new ArrayList<String>();
+
+        private long[] rowIndex = new long[1024];
+
+        private long edgeCount = 0;
+
+        private long position = 0;
+
+        private int maxNeighbor = -1;
+
+        public Writer(File file, SpatialWeightMatrixType spatialWeightMatrixType,
+                String typeName, String uniqueField) throws IOException {
+            this.file = file;
+            this.spatialWeightMatrixType = spatialWeightMatrixType;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    1 << 16));
+
+            // header is patched on close
+            out.write(new byte[HEADER_SIZE]);
+            position = HEADER_SIZE;
+            position += writeString(out, typeName);
+            position += writeString(out, uniqueField);
+        }
+
+        public int getRowCount() {
+            return ids.size();
+        }
+
+        public void writeRow(Object id, int[] neighbors, double[] weights, int count)
+                throws IOException {
+            for (int k = 0; k < count; k++) {
+                out.writeInt(neighbors[k]);
+                out.writeDouble(weights == null ? 0d : weights[k]);
+                maxNeighbor = Math.max(maxNeighbor, neighbors[k]);
+            }
+
+            ids.add(String.valueOf(id));
+            edgeCount += count;
+
+            int rows = ids.size();
+            if (rows == rowIndex.length) {
+                rowIndex = Arrays.copyOf(rowIndex, rows * 2);
+            }
+            rowIndex[rows] = edgeCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            final int featureCount = ids.size();
+            if (maxNeighbor >= featureCount) {
+                out.close();
+                throw new IOException("Neighbor " + maxNeighbor + " refers to a missing row");
+            }
+
+            long edgesOffset = position;
+            long rowIndexOffset = edgesOffset + edgeCount * EDGE_SIZE;
+            try {
+                for (int i = 0; i <= featureCount; i++) {
+                    out.writeLong(rowIndex[i]);
+                }
+                for (String id : ids) {
+                    writeString(out, id);
+                }
+            } finally {
+                out.close();
+            }
+            long idsOffset = rowIndexOffset + (featureCount + 1) * 8L;
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(spatialWeightMatrixType == SpatialWeightMatrixType.Distance ? 0 : 1);
+                raf.writeInt(featureCount);
+                raf.writeLong(edgeCount);
+                raf.writeLong(edgesOffset);
+                raf.writeLong(rowIndexOffset);
+                raf.writeLong(idsOffset);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupted spatial weights matrix file");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable io) {
+        try {
+            if (io != null) {
+                io.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+    }
+}
@@ -16,22 +16,17 @@
  */
 package org.geotools.process.spatialstatistics.core;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.kdtree.KdNode;
-import com.vividsolutions.jts.index.kdtree.KdTree;
 
 /**
  * SpatialWeightMatrix - Distance based weights - k-Nearest Neighbors. <br>
@@ -49,6 +44,8 @@ public class SpatialWeightMatrixKNearestNeighbors extends AbstractSpatialWeightM
 
     private int numberOfNeighbors = 4; // default value
 
+    private boolean includeTies = false;
+
     public int getNumberOfNeighbors() {
         return numberOfNeighbors;
     }
@@ -57,6 +54,18 @@ public class SpatialWeightMatrixKNearestNeighbors extends AbstractSpatialWeightM
         this.numberOfNeighbors = numberOfNeighbors;
     }
 
+    public boolean isIncludeTies() {
+        return includeTies;
+    }
+
+    /**
+     * If true, the neighbors as distant as the k-th neighbor are added, otherwise exactly k
+     * neighbors are kept and ties are broken by feature order.
+     */
+    public void setIncludeTies(boolean includeTies) {
+        this.includeTies = includeTies;
+    }
+
     public SpatialWeightMatrixKNearestNeighbors() {
 
     }
@@ -69,114 +78,44 @@ public class SpatialWeightMatrixKNearestNeighbors extends AbstractSpatialWeightM
 
         uniqueField = FeatureTypes.validateProperty(features.getSchema(), uniqueField);
 
+        // 1. extract centroid and unique id
         int featureCount = 0;
-        Envelope env = new Envelope();
-
-        // 1. extract centroid and build spatial index
-        KdTree spatialIndex = new KdTree(0.0d);
+        double[] x = new double[1024];
+        double[] y = new double[1024];
+        int[] ids = new int[1024];
         SimpleFeatureIterator featureIter = features.features();
         try {
             while (featureIter.hasNext()) {
                 SimpleFeature feature = featureIter.next();
                 Geometry geometry = (Geometry) feature.getDefaultGeometry();
                 Coordinate coordinate = geometry.getCentroid().getCoordinate();
-                Object primaryID = feature.getAttribute(uniqueField);
 
-                spatialIndex.insert(coordinate, primaryID);
+                if (featureCount == x.length) {
+                    x = Arrays.copyOf(x, featureCount * 2);
+                    y = Arrays.copyOf(y, featureCount * 2);
+                    ids = Arrays.copyOf(ids, featureCount * 2);
+                }
+                x[featureCount] = coordinate.x;
+                y[featureCount] = coordinate.y;
+                ids[featureCount] = swm.addId(feature.getAttribute(uniqueField));
                 featureCount++;
-                env.expandToInclude(coordinate);
             }
         } finally {
             featureIter.close();
         }
 
-        if (numberOfNeighbors >= featureCount) {
-            featureIter = features.features();
-            try {
-                while (featureIter.hasNext()) {
-                    SimpleFeature feature = featureIter.next();
-                    Object primaryID = feature.getAttribute(uniqueField);
-                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                    Coordinate coordinate = geometry.getCentroid().getCoordinate();
-
-                    SimpleFeatureIterator subIter = features.features();
-                    try {
-                        while (subIter.hasNext()) {
-                            SimpleFeature secondaryFeature = subIter.next();
-                            Object secondaryID = secondaryFeature.getAttribute(uniqueField);
-                            if (primaryID.equals(secondaryID)) {
-                                continue;
-                            }
-
-                            Geometry secGeom = (Geometry) secondaryFeature.getDefaultGeometry();
-                            Coordinate secCoord = secGeom.getCentroid().getCoordinate();
-                            swm.visit(primaryID, secondaryID, coordinate.distance(secCoord));
-                        }
-                    } finally {
-                        subIter.close();
-                    }
-                }
-            } finally {
-                featureIter.close();
-            }
-        } else {
-            // 2. evaluate envelope
-            double maxWidth = env.getWidth() > env.getHeight() ? env.getWidth() : env.getHeight();
-            final double initDistance = maxWidth / Math.sqrt(featureCount);
-
-            // 3.create spatial weight matrix
-            List<KdNode> result = new ArrayList<KdNode>();
-            TreeMap<Double, Object> sortedMap = new TreeMap<Double, Object>();
-            int count = 0;
-
-            featureIter = features.features();
-            try {
-                while (featureIter.hasNext()) {
-                    SimpleFeature feature = featureIter.next();
-                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                    Coordinate coordinate = geometry.getCentroid().getCoordinate();
-                    Object primaryID = feature.getAttribute(uniqueField);
-
-                    // init
-                    env.init(coordinate);
-                    sortedMap.clear();
-
-                    // query
-                    count = 0;
-                    while (numberOfNeighbors > sortedMap.size()) {
-                        double expandDistance = initDistance * ++count;
-                        env.expandBy(expandDistance);
-
-                        result.clear();
-                        spatialIndex.query(env, result);
-                        for (KdNode node : result) {
-                            double distance = coordinate.distance(node.getCoordinate());
-                            if (distance > expandDistance) {
-                                continue;
-                            }
-
-                            Object secondaryID = node.getData();
-                            if (primaryID.equals(secondaryID)
-                                    || sortedMap.containsValue(secondaryID)) {
-                                continue;
-                            }
-
-                            sortedMap.put(Double.valueOf(distance), secondaryID);
-                        }
-                    }
-
-                    // build weight matrix
-                    count = 0;
-                    for (Entry<Double, Object> entry : sortedMap.entrySet()) {
-                        swm.visit(primaryID, entry.getValue(), entry.getKey());
-                        count++;
-                        if (count == numberOfNeighbors) {
-                            break;
-                        }
-                    }
+        // 2. all points k nearest neighbors, in parallel
+        NearestNeighborFinder finder = new NearestNeighborFinder(x, y, featureCount,
+                DistanceMethod.Euclidean);
+        SparseWeightMatrix knn = finder.getKNearestNeighbors(numberOfNeighbors, includeTies);
+
+        // 3. create spatial weight matrix
+        for (int i = 0; i < featureCount; i++) {
+            for (int pos = knn.getRowStart(i); pos < knn.getRowEnd(i); pos++) {
+                int secondaryID = ids[knn.getNeighbor(pos)];
+                if (ids[i] != secondaryID) {
+                    swm.addEdge(ids[i], secondaryID, knn.getWeight(pos));
                 }
-            } finally {
-                featureIter.close();
             }
         }
 
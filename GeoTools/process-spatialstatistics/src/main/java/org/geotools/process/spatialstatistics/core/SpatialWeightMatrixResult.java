@@ -16,15 +16,23 @@
  */
 package org.geotools.process.spatialstatistics.core;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,10 +41,13 @@ import org.geotools.process.spatialstatistics.core.AbstractSpatialWeightMatrix.S
 import org.geotools.util.logging.Logging;
 
 /**
- * SpatialWeightMatrixResult
- * 
+ * SpatialWeightMatrixResult<br>
+ * Unique field values are mapped once to dense int ids and the neighbors are kept in growable
+ * primitive arrays. {@link #visit(Object, Object, Double)} and {@link #getItems()} remain as a
+ * compatibility view.
+ *
  * @author Minpa Lee, MangoSystem
- * 
+ *
  * @source $URL$
  */
 public class SpatialWeightMatrixResult {
@@ -52,11 +63,32 @@ public class SpatialWeightMatrixResult {
 
     private SpatialWeightMatrixType spatialWeightMatrixType = SpatialWeightMatrixType.Distance;
 
-    // primaryID, <secondaryID, distance>
-    private Hashtable<Object, Hashtable<Object, Double>> items;
+    // unique field value <-> dense id
+    private final List<Object> ids = new ArrayList<Object>();
+
+    private final Map<Object, Integer> idIndex = new HashMap<Object, Integer>();
+
+    // edges: primary id, secondary id, distance
+    private int[] primary = new int[64];
+
+    private int[] secondary = new int[64];
+
+    private double[] values = new double[64];
+
+    private int edgeCount = 0;
+
+    // row index of the sorted edges, null if edges were added since the last sort
+    private int[] rowIndex;
 
     public int getFeatureCount() {
-        return this.items.size();
+        sort();
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (rowIndex[i + 1] > rowIndex[i]) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public String getUniqueField() {
@@ -83,17 +115,38 @@ public class SpatialWeightMatrixResult {
         this.spatialWeightMatrixType = spatialWeightMatrixType;
     }
 
+    /**
+     * Returns a copy of the matrix as primaryID, &lt;secondaryID, distance&gt; tables. Builds one
+     * object per edge: use {@link #getRow(int, SparseWeightMatrix.Row)} for large matrices.
+     */
     public Hashtable<Object, Hashtable<Object, Double>> getItems() {
+        sort();
+        Hashtable<Object, Hashtable<Object, Double>> items = new Hashtable<Object, Hashtable<Object, Double>>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (rowIndex[i + 1] == rowIndex[i]) {
+                continue;
+            }
+
+            Hashtable<Object, Double> row = new Hashtable<Object, Double>();
+            for (int k = rowIndex[i]; k < rowIndex[i + 1]; k++) {
+                row.put(ids.get(secondary[k]), Double.valueOf(values[k]));
+            }
+            items.put(ids.get(i), row);
+        }
         return items;
     }
 
     public void setItems(Hashtable<Object, Hashtable<Object, Double>> items) {
-        this.items = items;
+        clear();
+        for (Entry<Object, Hashtable<Object, Double>> entry : items.entrySet()) {
+            for (Entry<Object, Double> second : entry.getValue().entrySet()) {
+                visit(entry.getKey(), second.getKey(), second.getValue());
+            }
+        }
     }
 
     public SpatialWeightMatrixResult(SpatialWeightMatrixType spatialWeightMatrixType) {
         this.setSpatialWeightMatrixType(spatialWeightMatrixType);
-        this.setItems(new Hashtable<Object, Hashtable<Object, Double>>());
     }
 
     public void setupVariables(String typeName, String uniqueField) {
@@ -101,63 +154,425 @@ public class SpatialWeightMatrixResult {
         this.typeName = typeName;
     }
 
+    public void clear() {
+        ids.clear();
+        idIndex.clear();
+        edgeCount = 0;
+        rowIndex = null;
+    }
+
+    /**
+     * Returns the dense id of the unique field value, adding it if needed.
+     */
+    public int addId(Object id) {
+        Integer index = idIndex.get(id);
+        if (index == null) {
+            index = Integer.valueOf(ids.size());
+            idIndex.put(id, index);
+            ids.add(id);
+            rowIndex = null;
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Returns the dense id of the unique field value, or -1.
+     */
+    public int indexOf(Object id) {
+        Integer index = idIndex.get(id);
+        return index == null ? -1 : index.intValue();
+    }
+
+    public Object getId(int index) {
+        return ids.get(index);
+    }
+
+    public int getIdCount() {
+        return ids.size();
+    }
+
+    public int getEdgeCount() {
+        sort();
+        return edgeCount;
+    }
+
     public void visit(Object primaryID, Object secondaryID) {
-        this.visit(primaryID, secondaryID, Double.valueOf(0d));
+        this.addEdge(addId(primaryID), addId(secondaryID), 0d);
     }
 
     public void visit(Object primaryID, Object secondaryID, Double distance) {
-        if (!items.containsKey(primaryID)) {
-            items.put(primaryID, new Hashtable<Object, Double>());
+        this.addEdge(addId(primaryID), addId(secondaryID), distance == null ? 0d : distance);
+    }
+
+    /**
+     * Adds an edge between dense ids. A repeated edge replaces the previous distance.
+     */
+    public void addEdge(int primaryID, int secondaryID, double distance) {
+        if (edgeCount == primary.length) {
+            int capacity = primary.length + (primary.length >> 1);
+            primary = Arrays.copyOf(primary, capacity);
+            secondary = Arrays.copyOf(secondary, capacity);
+            values = Arrays.copyOf(values, capacity);
         }
-        items.get(primaryID).put(secondaryID, distance);
+
+        primary[edgeCount] = primaryID;
+        secondary[edgeCount] = secondaryID;
+        values[edgeCount] = distance;
+        edgeCount++;
+        rowIndex = null;
     }
 
+    /**
+     * Returns the neighbors (dense ids, ascending) and distances of the dense id.
+     */
+    public SparseWeightMatrix.Row getRow(int index, SparseWeightMatrix.Row row) {
+        sort();
+        row.neighbors = secondary;
+        row.weights = values;
+        row.start = rowIndex[index];
+        row.end = rowIndex[index + 1];
+        row.view = true;
+        return row;
+    }
+
+    /**
+     * Sorts the edges by primary and secondary id and removes repeated edges, keeping the last
+     * distance visited.
+     */
+    public void sort() {
+        if (rowIndex != null) {
+            return;
+        }
+
+        final int size = ids.size();
+
+        // counting sort by primary id, stable
+        int[] index = new int[size + 1];
+        for (int k = 0; k < edgeCount; k++) {
+            index[primary[k] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            index[i + 1] += index[i];
+        }
+
+        int[] sortedSecondary = new int[primary.length];
+        double[] sortedValues = new double[sortedSecondary.length];
+        int[] next = Arrays.copyOf(index, size);
+        for (int k = 0; k < edgeCount; k++) {
+            int pos = next[primary[k]]++;
+            sortedSecondary[pos] = secondary[k];
+            sortedValues[pos] = values[k];
+        }
+
+        // sort each row by secondary id, keeping the visit order of repeated edges
+        int count = 0;
+        long[] keys = new long[16];
+        int[] rowSecondary = new int[16];
+        double[] rowValues = new double[16];
+        int[] newIndex = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            final int start = index[i];
+            final int length = index[i + 1] - start;
+            if (keys.length < length) {
+                keys = new long[length];
+                rowSecondary = new int[length];
+                rowValues = new double[length];
+            }
+
+            for (int k = 0; k < length; k++) {
+                keys[k] = ((long) sortedSecondary[start + k] << 32) | k;
+                rowSecondary[k] = sortedSecondary[start + k];
+                rowValues[k] = sortedValues[start + k];
+            }
+            Arrays.sort(keys, 0, length);
+
+            for (int k = 0; k < length; k++) {
+                int local = (int) keys[k];
+                boolean repeated = k + 1 < length && (keys[k + 1] >>> 32) == (keys[k] >>> 32);
+                if (!repeated) {
+                    primary[count] = i;
+                    sortedSecondary[count] = rowSecondary[local];
+                    sortedValues[count] = rowValues[local];
+                    count++;
+                }
+            }
+            newIndex[i + 1] = count;
+        }
+
+        this.secondary = sortedSecondary;
+        this.values = sortedValues;
+        this.edgeCount = count;
+        this.rowIndex = newIndex;
+    }
+
+    /**
+     * Adds the missing reverse edges, so that j is a neighbor of i whenever i is a neighbor of j.
+     */
+    public void symmetrize() {
+        sort();
+
+        // addEdge() may grow the arrays, the sorted edges stay in the first sortedCount slots
+        final int sortedCount = edgeCount;
+        final int[] index = rowIndex;
+        final int[] sortedPrimary = primary;
+        final int[] sortedSecondary = secondary;
+        final double[] sortedValues = values;
+        for (int k = 0; k < sortedCount; k++) {
+            int i = sortedPrimary[k];
+            int j = sortedSecondary[k];
+            if (Arrays.binarySearch(sortedSecondary, index[j], index[j + 1], i) < 0) {
+                addEdge(j, i, sortedValues[k]);
+            }
+        }
+
+        // addEdge() reset the row index only if edges were added
+        sort();
+    }
+
+    /**
+     * Saves the matrix as binary (*.swm) or as text (*.gwt for distance, *.gal for contiguity).
+     */
     public void save(File outputFile, Charset charset) throws IOException {
-        if (spatialWeightMatrixType == SpatialWeightMatrixType.Distance) {
+        sort();
+        if (outputFile.getName().toLowerCase().endsWith(SpatialWeightMatrixFile.FILE_EXTENSION)) {
+            writeBinary(outputFile);
+        } else if (spatialWeightMatrixType == SpatialWeightMatrixType.Distance) {
             writeDistance(outputFile, charset);
         } else {
             writeContiguity(outputFile, charset);
         }
     }
 
+    /**
+     * Loads a binary or text spatial weights matrix file. Loaded ids are strings.
+     */
     public boolean load(File swmFile, Charset charset) {
-        // TODO code here
-
+        clear();
+        try {
+            if (SpatialWeightMatrixFile.isBinary(swmFile)) {
+                readBinary(swmFile);
+            } else {
+                readText(swmFile, charset);
+            }
+            sort();
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Invalid spatial weights matrix file: " + e.getMessage(), e);
+        }
         return false;
     }
 
+    /**
+     * Returns the ids of the features of a matrix without unique field: the 1 based record
+     * numbers, in feature order.
+     */
+    public static List<String> getRecordIds(int featureCount) {
+        List<String> featureIds = new ArrayList<String>(featureCount);
+        for (int i = 1; i <= featureCount; i++) {
+            featureIds.add(String.valueOf(i));
+        }
+        return featureIds;
+    }
+
+    /**
+     * Builds the weights of the features, given the unique field value of each feature in feature
+     * order. Listed neighbors get a weight of 1, features missing from the matrix have no
+     * neighbors.
+     */
+    public SparseWeightMatrix toSparseWeightMatrix(List<String> featureIds) {
+        sort();
+
+        // dense id -> feature index, matched by the string value
+        final int size = featureIds.size();
+        Map<String, Integer> featureIndex = new HashMap<String, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            featureIndex.put(featureIds.get(i), Integer.valueOf(i));
+        }
+
+        int[] idToFeature = new int[ids.size()];
+        int[] featureToId = new int[size];
+        Arrays.fill(featureToId, -1);
+        for (int id = 0; id < idToFeature.length; id++) {
+            Integer feature = featureIndex.get(ids.get(id).toString());
+            idToFeature[id] = feature == null ? -1 : feature.intValue();
+            if (feature != null) {
+                featureToId[feature.intValue()] = id;
+            }
+        }
+
+        SparseWeightMatrix.Builder builder = new SparseWeightMatrix.Builder(size, Math.max(16,
+                edgeCount));
+        int[] neighbors = new int[16];
+        for (int i = 0; i < size; i++) {
+            int id = featureToId[i];
+            if (id != -1) {
+                int count = 0;
+                if (neighbors.length < rowIndex[id + 1] - rowIndex[id]) {
+                    neighbors = new int[rowIndex[id + 1] - rowIndex[id]];
+                }
+                for (int k = rowIndex[id]; k < rowIndex[id + 1]; k++) {
+                    int neighbor = idToFeature[secondary[k]];
+                    if (neighbor != -1 && neighbor != i) {
+                        neighbors[count++] = neighbor;
+                    }
+                }
+
+                Arrays.sort(neighbors, 0, count);
+                for (int k = 0; k < count; k++) {
+                    if (k == 0 || neighbors[k] != neighbors[k - 1]) {
+                        builder.add(neighbors[k], 1.0);
+                    }
+                }
+            }
+            builder.endRow();
+        }
+
+        return builder.build();
+    }
+
+    private void writeBinary(File outputFile) throws IOException {
+        SpatialWeightMatrixFile.Writer writer = new SpatialWeightMatrixFile.Writer(outputFile,
+                spatialWeightMatrixType, getTypeName(), getUniqueField());
+        try {
+            int[] neighbors = new int[16];
+            double[] distances = new double[16];
+            for (int i = 0; i < ids.size(); i++) {
+                int count = rowIndex[i + 1] - rowIndex[i];
+                if (neighbors.length < count) {
+                    neighbors = new int[count];
+                    distances = new double[count];
+                }
+                System.arraycopy(secondary, rowIndex[i], neighbors, 0, count);
+                System.arraycopy(values, rowIndex[i], distances, 0, count);
+                writer.writeRow(ids.get(i), neighbors, distances, count);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void readBinary(File swmFile) throws IOException {
+        SpatialWeightMatrixFile swmReader = SpatialWeightMatrixFile.open(swmFile);
+        try {
+            this.spatialWeightMatrixType = swmReader.getSpatialWeightMatrixType();
+            this.setupVariables(swmReader.getTypeName(), swmReader.getUniqueField());
+
+            // file rows become dense ids in the same order
+            for (int i = 0; i < swmReader.getFeatureCount(); i++) {
+                addId(swmReader.getId(i));
+            }
+
+            SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+            for (int i = 0; i < swmReader.getFeatureCount(); i++) {
+                swmReader.getRow(i, row);
+                for (int k = row.start; k < row.end; k++) {
+                    addEdge(i, row.neighbors[k], row.weights[k]);
+                }
+            }
+        } finally {
+            swmReader.close();
+        }
+    }
+
+    private void readText(File swmFile, Charset charset) throws IOException {
+        BufferedReader reader = null;
+        try {
+            FileInputStream fis = new FileInputStream(swmFile);
+            reader = new BufferedReader(new InputStreamReader(fis, charset));
+
+            // header : 0 25 seoul_series sgg_cd, or the feature count only
+            String line = nextLine(reader);
+            if (line == null) {
+                throw new IOException("Empty spatial weights matrix file");
+            }
+
+            // without an id field, the ids are the record numbers of the features
+            String[] header = line.split("\\s+");
+            if (header.length >= 4) {
+                this.setupVariables(header[2], header[3]);
+            } else {
+                this.setupVariables(header.length == 3 ? header[2] : null, null);
+            }
+
+            line = nextLine(reader);
+            if (line == null) {
+                return;
+            }
+
+            if (line.split("\\s+").length == 2) {
+                // 11170 7
+                // 11440 11590 11140 11200 11650 11560 11680
+                this.spatialWeightMatrixType = SpatialWeightMatrixType.Contiguity;
+                while (line != null) {
+                    String[] tokens = line.split("\\s+");
+                    int primaryID = addId(tokens[0]);
+                    int count = Integer.parseInt(tokens[1]);
+                    if (count > 0) {
+                        String[] secondaryIDs = nextLine(reader).split("\\s+");
+                        for (String secondaryID : secondaryIDs) {
+                            addEdge(primaryID, addId(secondaryID), 0d);
+                        }
+                    } // an empty neighbor line is skipped by nextLine
+                    line = nextLine(reader);
+                }
+            } else {
+                // 11545 11620 4029.25183
+                this.spatialWeightMatrixType = SpatialWeightMatrixType.Distance;
+                while (line != null) {
+                    String[] tokens = line.split("\\s+");
+                    addEdge(addId(tokens[0]), addId(tokens[1]), Double.parseDouble(tokens[2]));
+                    line = nextLine(reader);
+                }
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    // next non empty line, trimmed
+    private String nextLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (line.length() > 0) {
+                return line;
+            }
+            line = reader.readLine();
+        }
+        return null;
+    }
+
     private void writeContiguity(File outputFile, Charset charset) throws IOException {
         BufferedWriter writer = null;
         try {
             FileOutputStream fos = new FileOutputStream(outputFile);
             writer = new BufferedWriter(new OutputStreamWriter(fos, charset));
 
-            StringBuffer sb = new StringBuffer();
-
-            // header : 0 25 seoul_series sgg_cd
-            sb.append("0").append(space).append(this.getFeatureCount()).append(space);
-            sb.append(this.getTypeName()).append(space).append(this.getUniqueField());
-            writer.write(sb.append(newLine).toString());
+            writeHeader(writer);
 
             // matrix
-            for (Entry<Object, Hashtable<Object, Double>> entry : items.entrySet()) {
-                Object primaryID = entry.getKey();
-                int count = entry.getValue().size();
+            for (int i = 0; i < ids.size(); i++) {
+                int count = rowIndex[i + 1] - rowIndex[i];
+                if (count == 0) {
+                    continue;
+                }
 
                 // 11170 7
-                sb.setLength(0);
-                sb.append(primaryID.toString()).append(space).append(count);
-                writer.write(sb.append(newLine).toString());
+                writer.write(ids.get(i).toString());
+                writer.write(space);
+                writer.write(String.valueOf(count));
+                writer.write(newLine);
 
                 // 11440 11590 11140 11200 11650 11560 11680
-                sb.setLength(0);
-                for (Entry<Object, Double> second : entry.getValue().entrySet()) {
-                    if (sb.length() > 0) {
-                        sb.append(space);
+                for (int k = rowIndex[i]; k < rowIndex[i + 1]; k++) {
+                    if (k > rowIndex[i]) {
+                        writer.write(space);
                     }
-                    sb.append(second.getKey().toString());
+                    writer.write(ids.get(secondary[k]).toString());
                 }
-                writer.write(sb.append(newLine).toString());
+                writer.write(newLine);
             }
             writer.flush();
         } catch (FileNotFoundException e) {
@@ -167,29 +582,39 @@ public class SpatialWeightMatrixResult {
         }
     }
 
+    // header : 0 25 seoul_series sgg_cd, or 0 25 if there is no unique field
+    private void writeHeader(BufferedWriter writer) throws IOException {
+        writer.write("0");
+        writer.write(space);
+        writer.write(String.valueOf(this.getFeatureCount()));
+        if (!StringHelper.isNullOrEmpty(this.getUniqueField())) {
+            writer.write(space);
+            writer.write(String.valueOf(this.getTypeName()));
+            writer.write(space);
+            writer.write(this.getUniqueField());
+        }
+        writer.write(newLine);
+    }
+
     private void writeDistance(File outputFile, Charset charset) throws IOException {
         BufferedWriter writer = null;
         try {
             FileOutputStream fos = new FileOutputStream(outputFile);
             writer = new BufferedWriter(new OutputStreamWriter(fos, charset));
 
-            StringBuffer sb = new StringBuffer();
-
-            // header : 0 25 seoul_series sgg_cd
-            sb.append("0").append(space).append(this.getFeatureCount()).append(space);
-            sb.append(this.getTypeName()).append(space).append(this.getUniqueField());
-            writer.write(sb.append(newLine).toString());
+            writeHeader(writer);
 
             // matrix
-            for (Entry<Object, Hashtable<Object, Double>> entry : items.entrySet()) {
-                Object primaryID = entry.getKey();
-                for (Entry<Object, Double> second : entry.getValue().entrySet()) {
+            for (int i = 0; i < ids.size(); i++) {
+                String primaryID = ids.get(i).toString();
+                for (int k = rowIndex[i]; k < rowIndex[i + 1]; k++) {
                     // 11545 11620 4029.25183
-                    sb.setLength(0);
-                    sb.append(primaryID.toString()).append(space);
-                    sb.append(second.getKey().toString()).append("         ");
-                    sb.append(second.getValue());
-                    writer.write(sb.append(newLine).toString());
+                    writer.write(primaryID);
+                    writer.write(space);
+                    writer.write(ids.get(secondary[k]).toString());
+                    writer.write("         ");
+                    writer.write(String.valueOf(values[k]));
+                    writer.write(newLine);
                 }
             }
             writer.flush();
@@ -0,0 +1,87 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.core;
+
+/**
+ * Small, fast and splittable pseudo random generator (SplitMix64).<br>
+ * Not thread safe: every worker uses its own instance, usually created with
+ * {@link #split(long)} from a common seed so the random streams do not depend on the scheduling.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public final class SplitMixRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private long state;
+
+    public SplitMixRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Returns a generator for the given stream (e.g. feature index) derived from this seed.
+     */
+    public SplitMixRandom split(long stream) {
+        return new SplitMixRandom(mix64(state + (stream + 1) * GOLDEN_GAMMA));
+    }
+
+    public void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns a uniform value in [0, bound).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        // rejection sampling on the upper 31 bits avoids modulo bias
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+
+        for (int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33)) {
+        }
+        return r;
+    }
+
+    /**
+     * Returns a uniform value in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
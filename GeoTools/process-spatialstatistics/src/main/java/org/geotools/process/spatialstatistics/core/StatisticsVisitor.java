@@ -76,7 +76,10 @@ public class StatisticsVisitor {
         strategy = createStrategy(attributeType.getType().getBinding());
     }
 
-    private static StatisticsStrategy createStrategy(Class<?> type) {
+    /**
+     * Creates an empty strategy for values of the type, or null if the type is not supported.
+     */
+    public static StatisticsStrategy createStrategy(Class<?> type) {
         if (type == Integer.class) {
             return new IntegerStrategy();
         } else if (type == Long.class) {
@@ -158,9 +161,11 @@ public class StatisticsVisitor {
         public void reset();
     }
 
-    public static class DoubleStrategy implements StatisticsStrategy {
-
-        Double noData = null;
+    /**
+     * Summary of numeric values. Squares are summed in double precision and the extrema start from
+     * the first valid value.
+     */
+    public static abstract class NumberStrategy implements StatisticsStrategy {
 
         int count = 0;
 
@@ -170,14 +175,21 @@ public class StatisticsVisitor {
 
         Object lastValue = null;
 
-        double minVal = Double.MAX_VALUE;
+        double minVal = 0.0d;
 
-        double maxVal = Double.MIN_VALUE;
+        double maxVal = 0.0d;
 
         double sumOfVals = 0.0d;
 
         double sumOfSqrs = 0.0d;
 
+        /**
+         * Returns the value as a double, or NaN if the value is not valid.
+         */
+        protected abstract double toDouble(Object value);
+
+        protected abstract Number getNoData();
+
         @Override
         public void add(Object value) {
             if (value == null) {
@@ -185,26 +197,23 @@ public class StatisticsVisitor {
                 return;
             }
 
-            // for BigDecimal, Double...
-            double curVal = Double.valueOf(value.toString());
-            if (Double.isNaN(curVal) || Double.isInfinite(curVal)) {
-                invalidCount++;
-                return;
-            } else if (noData != null && SSUtils.compareDouble(curVal, noData)) {
+            double curVal = toDouble(value);
+            if (Double.isNaN(curVal)) {
                 invalidCount++;
                 return;
             }
 
-            if (firstValue == null) {
+            if (count == 0) {
                 firstValue = value;
+                minVal = maxVal = curVal;
+            } else {
+                maxVal = Math.max(maxVal, curVal);
+                minVal = Math.min(minVal, curVal);
             }
 
             sumOfVals += curVal;
             sumOfSqrs += curVal * curVal;
 
-            maxVal = Math.max(maxVal, curVal);
-            minVal = Math.min(minVal, curVal);
-
             lastValue = value;
 
             count++;
@@ -216,13 +225,13 @@ public class StatisticsVisitor {
             sr.setFirstValue(firstValue);
             sr.setLastValue(lastValue);
             sr.setCount(count);
-
-            sr.setMinimum(minVal);
-            sr.setMaximum(maxVal);
             sr.setSum(sumOfVals);
-            sr.setNoData(noData);
+            sr.setNoData(getNoData());
 
             if (count > 0) {
+                sr.setMinimum(minVal);
+                sr.setMaximum(maxVal);
+
                 // Population Standard Deviation
                 double variance = (sumOfSqrs - Math.pow(sumOfVals, 2.0) / count) / count;
                 sr.setVariance(variance);
@@ -234,10 +243,31 @@ public class StatisticsVisitor {
         public void reset() {
             count = invalidCount = 0;
             firstValue = lastValue = null;
-            minVal = Double.MAX_VALUE;
-            maxVal = Double.MIN_VALUE;
+            minVal = maxVal = 0.0d;
             sumOfVals = sumOfSqrs = 0.0d;
         }
+    }
+
+    public static class DoubleStrategy extends NumberStrategy {
+
+        Double noData = null;
+
+        @Override
+        protected double toDouble(Object value) {
+            // for BigDecimal, Double...
+            double curVal = Double.valueOf(value.toString());
+            if (Double.isInfinite(curVal)) {
+                return Double.NaN;
+            } else if (noData != null && SSUtils.compareDouble(curVal, noData)) {
+                return Double.NaN;
+            }
+            return curVal;
+        }
+
+        @Override
+        protected Number getNoData() {
+            return noData;
+        }
 
         @Override
         public void setNoData(Number noData) {
@@ -245,84 +275,24 @@ public class StatisticsVisitor {
         }
     }
 
-    public static class FloatStrategy implements StatisticsStrategy {
+    public static class FloatStrategy extends NumberStrategy {
 
         Float noData = null;
 
-        int count = 0;
-
-        int invalidCount = 0;
-
-        Object firstValue = null;
-
-        Object lastValue = null;
-
-        float minVal = Float.MAX_VALUE;
-
-        float maxVal = Float.MIN_VALUE;
-
-        double sumOfVals = 0.0d;
-
-        double sumOfSqrs = 0.0d;
-
         @Override
-        public void add(Object value) {
-            if (value == null) {
-                invalidCount++;
-                return;
-            }
-
+        protected double toDouble(Object value) {
             float curVal = ((Float) value).floatValue();
             if (Float.isNaN(curVal) || Float.isInfinite(curVal)) {
-                invalidCount++;
-                return;
+                return Double.NaN;
             } else if (noData != null && SSUtils.compareFloat(curVal, noData)) {
-                invalidCount++;
-                return;
+                return Double.NaN;
             }
-
-            if (firstValue == null) {
-                firstValue = value;
-            }
-
-            sumOfVals += curVal;
-            sumOfSqrs += curVal * curVal;
-
-            maxVal = Math.max(maxVal, curVal);
-            minVal = Math.min(minVal, curVal);
-
-            lastValue = value;
-
-            count++;
+            return curVal;
         }
 
         @Override
-        public StatisticsVisitorResult getResult() {
-            StatisticsVisitorResult sr = new StatisticsVisitorResult();
-            sr.setFirstValue(firstValue);
-            sr.setLastValue(lastValue);
-            sr.setCount(count);
-
-            sr.setMinimum(minVal);
-            sr.setMaximum(maxVal);
-            sr.setSum(sumOfVals);
-            sr.setNoData(noData);
-
-            if (count > 0) {
-                // Population Standard Deviation
-                double variance = (sumOfSqrs - Math.pow(sumOfVals, 2.0) / count) / count;
-                sr.setVariance(variance);
-            }
-            return sr;
-        }
-
-        @Override
-        public void reset() {
-            count = invalidCount = 0;
-            firstValue = lastValue = null;
-            minVal = Float.MAX_VALUE;
-            maxVal = Float.MIN_VALUE;
-            sumOfVals = sumOfSqrs = 0.0d;
+        protected Number getNoData() {
+            return noData;
         }
 
         @Override
@@ -331,81 +301,22 @@ public class StatisticsVisitor {
         }
     }
 
-    public static class LongStrategy implements StatisticsStrategy {
+    public static class LongStrategy extends NumberStrategy {
 
         Long noData = null;
 
-        int count = 0;
-
-        int invalidCount = 0;
-
-        Object firstValue = null;
-
-        Object lastValue = null;
-
-        long minVal = Long.MAX_VALUE;
-
-        long maxVal = Long.MIN_VALUE;
-
-        double sumOfVals = 0.0d;
-
-        double sumOfSqrs = 0.0d;
-
         @Override
-        public void add(Object value) {
-            if (value == null) {
-                invalidCount++;
-                return;
-            }
-
+        protected double toDouble(Object value) {
             long curVal = ((Long) value).longValue();
             if (noData != null && curVal == noData) {
-                invalidCount++;
-                return;
-            }
-
-            if (firstValue == null) {
-                firstValue = value;
-            }
-
-            sumOfVals += curVal;
-            sumOfSqrs += curVal * curVal;
-
-            maxVal = Math.max(maxVal, curVal);
-            minVal = Math.min(minVal, curVal);
-
-            lastValue = value;
-
-            count++;
-        }
-
-        @Override
-        public StatisticsVisitorResult getResult() {
-            StatisticsVisitorResult sr = new StatisticsVisitorResult();
-            sr.setFirstValue(firstValue);
-            sr.setLastValue(lastValue);
-            sr.setCount(count);
-
-            sr.setMinimum(minVal);
-            sr.setMaximum(maxVal);
-            sr.setSum(sumOfVals);
-            sr.setNoData(noData);
-
-            if (count > 0) {
-                // Population Standard Deviation
-                double variance = (sumOfSqrs - Math.pow(sumOfVals, 2.0) / count) / count;
-                sr.setVariance(variance);
+                return Double.NaN;
             }
-            return sr;
+            return curVal;
         }
 
         @Override
-        public void reset() {
-            count = invalidCount = 0;
-            firstValue = lastValue = null;
-            minVal = Long.MAX_VALUE;
-            maxVal = Long.MIN_VALUE;
-            sumOfVals = sumOfSqrs = 0.0d;
+        protected Number getNoData() {
+            return noData;
         }
 
         @Override
@@ -414,81 +325,22 @@ public class StatisticsVisitor {
         }
     }
 
-    public static class IntegerStrategy implements StatisticsStrategy {
+    public static class IntegerStrategy extends NumberStrategy {
 
         Integer noData = null;
 
-        int count = 0;
-
-        int invalidCount = 0;
-
-        Object firstValue = null;
-
-        Object lastValue = null;
-
-        int minVal = Integer.MAX_VALUE;
-
-        int maxVal = Integer.MIN_VALUE;
-
-        double sumOfVals = 0.0d;
-
-        double sumOfSqrs = 0.0d;
-
         @Override
-        public void add(Object value) {
-            if (value == null) {
-                invalidCount++;
-                return;
-            }
-
+        protected double toDouble(Object value) {
             int curVal = ((Integer) value).intValue();
             if (noData != null && curVal == noData) {
-                invalidCount++;
-                return;
-            }
-
-            if (firstValue == null) {
-                firstValue = value;
+                return Double.NaN;
             }
-
-            sumOfVals += curVal;
-            sumOfSqrs += curVal * curVal;
-
-            maxVal = Math.max(maxVal, curVal);
-            minVal = Math.min(minVal, curVal);
-
-            lastValue = value;
-
-            count++;
-        }
-
-        @Override
-        public StatisticsVisitorResult getResult() {
-            StatisticsVisitorResult sr = new StatisticsVisitorResult();
-            sr.setFirstValue(firstValue);
-            sr.setLastValue(lastValue);
-            sr.setCount(count);
-
-            sr.setMinimum(minVal);
-            sr.setMaximum(maxVal);
-            sr.setSum(sumOfVals);
-            sr.setNoData(noData);
-
-            if (count > 0) {
-                // Population Standard Deviation
-                double variance = (sumOfSqrs - Math.pow(sumOfVals, 2.0) / count) / count;
-                sr.setVariance(variance);
-            }
-            return sr;
+            return curVal;
         }
 
         @Override
-        public void reset() {
-            count = invalidCount = 0;
-            firstValue = lastValue = null;
-            minVal = Integer.MAX_VALUE;
-            maxVal = Integer.MIN_VALUE;
-            sumOfVals = sumOfSqrs = 0.0d;
+        protected Number getNoData() {
+            return noData;
         }
 
         @Override
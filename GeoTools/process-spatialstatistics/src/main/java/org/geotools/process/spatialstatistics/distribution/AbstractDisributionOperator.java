@@ -16,6 +16,14 @@
  */
 package org.geotools.process.spatialstatistics.distribution;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.filter.expression.Expression;
@@ -41,6 +49,65 @@ public abstract class AbstractDisributionOperator extends GeneralOperation {
 
     protected final String ALL = "ALL";
 
+    /** Number of features read before they are summarized in parallel partitions */
+    protected static final int BATCH_SIZE = 16384;
+
+    /**
+     * Summarizes features into visitors; visit is called concurrently, each time with its own
+     * visitor.
+     */
+    protected interface PartitionHandler<V extends AbstractDistributionVisitor> {
+        V createVisitor();
+
+        void visit(V visitor, SimpleFeature feature);
+    }
+
+    /**
+     * Visits all features in one pass. Features are read in batches of {@link #BATCH_SIZE}; each
+     * batch is split into partitions summarized on the fork/join pool, and the partial visitors
+     * are merged in feature order.
+     */
+    protected <V extends AbstractDistributionVisitor> V visitFeatures(
+            SimpleFeatureCollection features, PartitionHandler<V> handler) {
+        V result = handler.createVisitor();
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator featureIter = features.features();
+        try {
+            while (featureIter.hasNext()) {
+                batch.add(featureIter.next());
+                if (batch.size() == BATCH_SIZE) {
+                    visitBatch(batch, handler, result);
+                    batch.clear();
+                }
+            }
+        } finally {
+            featureIter.close();
+        }
+
+        visitBatch(batch, handler, result);
+        return result;
+    }
+
+    private <V extends AbstractDistributionVisitor> void visitBatch(
+            final List<SimpleFeature> batch, final PartitionHandler<V> handler, V result) {
+        // partial visitors keyed by the start of their partition
+        final Map<Integer, V> partitions = new ConcurrentSkipListMap<Integer, V>();
+        ParallelExecutor.execute(batch.size(), new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                V visitor = handler.createVisitor();
+                for (int i = start; i < end; i++) {
+                    handler.visit(visitor, batch.get(i));
+                }
+                partitions.put(Integer.valueOf(start), visitor);
+            }
+        });
+
+        for (V partial : partitions.values()) {
+            result.merge(partial);
+        }
+    }
+
     protected double getValue(SimpleFeature feature, Expression expression, double defaultValue) {
         Double dblVal = expression.evaluate(feature, Double.class);
         if (dblVal == null || dblVal.isNaN() || dblVal.isInfinite()) {
@@ -18,6 +18,7 @@ package org.geotools.process.spatialstatistics.distribution;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Abstract Distribution Visitor
@@ -37,4 +38,26 @@ public abstract class AbstractDistributionVisitor {
         return resuleMap;
     }
 
+    /**
+     * Merges the results of another visitor of the same kind, e.g. of another partition of the
+     * features. Case values new to this visitor are appended in the order of the other visitor.
+     */
+    @SuppressWarnings("unchecked")
+    public void merge(AbstractDistributionVisitor other) {
+        for (Object entry : other.resuleMap.entrySet()) {
+            Map.Entry<Object, Object> caseEntry = (Map.Entry<Object, Object>) entry;
+            Object current = resuleMap.get(caseEntry.getKey());
+            if (current == null) {
+                resuleMap.put(caseEntry.getKey(), caseEntry.getValue());
+            } else {
+                mergeValue(current, caseEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Merges the summary of one case value into the summary of this visitor.
+     */
+    protected abstract void mergeValue(Object target, Object source);
+
 }
@@ -16,12 +16,11 @@
  */
 package org.geotools.process.spatialstatistics.distribution;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.geotools.factory.GeoTools;
 import org.geotools.geometry.jts.JTSFactoryFinder;
-import org.geotools.process.spatialstatistics.core.SSUtils;
+import org.geotools.process.spatialstatistics.core.CentralFeatureFinder;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -37,39 +36,35 @@ import com.vividsolutions.jts.geom.Point;
  */
 public class CentralFeature {
 
-    class Event {
-        int oid;
-
-        public double x;
-
-        public double y;
-
-        public double weight = 1.0;
+    private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
 
-        public double potential = 0.0;
+    private boolean approximate = false;
 
-        public Event() {
-        }
+    private int numFeatures = 0;
 
-        public Event(int oid, double x, double y, double weight, double potential) {
-            this.oid = oid;
-            this.x = x;
-            this.y = y;
-            this.weight = weight;
-            this.potential = potential;
-        }
-    }
+    private double[] x = new double[16];
 
-    private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
+    private double[] y = new double[16];
 
-    private int numFeatures = 0;
+    private double[] weight = new double[16];
 
-    private List<Event> events = new ArrayList<Event>();
+    private double[] potential = new double[16];
 
     private GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools.getDefaultHints());
 
     public void addValue(Coordinate coordinate, double weight, double potential) {
-        events.add(new Event(numFeatures, coordinate.x, coordinate.y, weight, potential));
+        if (numFeatures == x.length) {
+            int capacity = numFeatures * 2;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.weight = Arrays.copyOf(this.weight, capacity);
+            this.potential = Arrays.copyOf(this.potential, capacity);
+        }
+
+        this.x[numFeatures] = coordinate.x;
+        this.y[numFeatures] = coordinate.y;
+        this.weight[numFeatures] = weight;
+        this.potential[numFeatures] = potential;
         numFeatures++;
     }
 
@@ -77,36 +72,24 @@ public class CentralFeature {
         addValue(point.getCoordinate(), weight, potential);
     }
 
-    public Point getCentralEvent() {
-        double minDistance = Double.MAX_VALUE;
-        Event centralEvent = new Event();
-
-        for (Event ce : events) {
-            double curDistance = 0d;
-            for (Event de : events) {
-                double dij = 0d;
-                if (ce.oid == de.oid) {
-                    dij = ce.potential;
-                } else {
-                    switch (distanceMethod) {
-                    case Euclidean:
-                        dij = SSUtils.getEuclideanDistance(ce.x, ce.y, de.x, de.y);
-                        break;
-                    case Manhattan:
-                        dij = SSUtils.getManhattanDistance(ce.x, ce.y, de.x, de.y);
-                        break;
-                    }
-                }
-                curDistance += (dij * de.weight);
-            }
-
-            if (minDistance > curDistance) {
-                minDistance = curDistance;
-                centralEvent = ce;
-            }
+    public void merge(CentralFeature other) {
+        for (int i = 0; i < other.numFeatures; i++) {
+            addValue(new Coordinate(other.x[i], other.y[i]), other.weight[i],
+                    other.potential[i]);
         }
+    }
 
-        return gf.createPoint(new Coordinate(centralEvent.x, centralEvent.y));
+    public Point getCentralEvent() {
+        CentralFeatureFinder finder = new CentralFeatureFinder(x, y, weight, potential,
+                numFeatures);
+        finder.setDistanceMethod(distanceMethod);
+        finder.setApproximate(approximate);
+
+        int index = finder.find();
+        if (index == -1) {
+            return gf.createPoint(new Coordinate(0, 0));
+        }
+        return gf.createPoint(new Coordinate(x[index], y[index]));
     }
 
     public DistanceMethod getDistanceMethod() {
@@ -116,4 +99,12 @@ public class CentralFeature {
     public void setDistanceMethod(DistanceMethod distanceMethod) {
         this.distanceMethod = distanceMethod;
     }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
 }
\ No newline at end of file
@@ -48,6 +48,8 @@ public class CentralFeatureOperation extends AbstractDisributionOperator {
 
     private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
 
+    private boolean approximate = false;
+
     public DistanceMethod getDistanceMethod() {
         return distanceMethod;
     }
@@ -56,6 +58,17 @@ public class CentralFeatureOperation extends AbstractDisributionOperator {
         this.distanceMethod = distanceMethod;
     }
 
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * If true, only the features nearest to the median center of each case are verified.
+     */
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
     public SimpleFeatureCollection execute(SimpleFeatureCollection features, String weightField,
             String potentialField, String caseField) throws IOException {
         SimpleFeatureType schema = features.getSchema();
@@ -71,6 +84,7 @@ public class CentralFeatureOperation extends AbstractDisributionOperator {
 
         CentralFeatureVisitor visitor = new CentralFeatureVisitor();
         visitor.setDistanceMethod(distanceMethod);
+        visitor.setApproximate(approximate);
 
         SimpleFeatureIterator featureIter = features.features();
         try {
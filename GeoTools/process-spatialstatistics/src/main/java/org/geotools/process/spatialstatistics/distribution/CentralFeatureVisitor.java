@@ -31,6 +31,8 @@ public class CentralFeatureVisitor extends AbstractDistributionVisitor {
 
     private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
 
+    private boolean approximate = false;
+
     public DistanceMethod getDistanceMethod() {
         return distanceMethod;
     }
@@ -39,6 +41,14 @@ public class CentralFeatureVisitor extends AbstractDistributionVisitor {
         this.distanceMethod = distanceMethod;
     }
 
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
     @SuppressWarnings("unchecked")
     public void visit(Coordinate coordinate, Object caseVal, double weightVal, double pottentialVal) {
         caseVal = caseVal == null ? CASE_ALL : caseVal;
@@ -47,9 +57,15 @@ public class CentralFeatureVisitor extends AbstractDistributionVisitor {
         if (centeralFeature == null) {
             centeralFeature = new CentralFeature();
             centeralFeature.setDistanceMethod(distanceMethod);
+            centeralFeature.setApproximate(approximate);
             resuleMap.put(caseVal, centeralFeature);
         }
 
         centeralFeature.addValue(coordinate, weightVal, pottentialVal);
     }
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((CentralFeature) target).merge((CentralFeature) source);
+    }
 }
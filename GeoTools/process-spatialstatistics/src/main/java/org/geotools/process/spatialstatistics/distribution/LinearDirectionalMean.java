@@ -92,6 +92,16 @@ public class LinearDirectionalMean {
         numFeatures++;
     }
 
+    public void merge(LinearDirectionalMean other) {
+        sumX += other.sumX;
+        sumY += other.sumY;
+        sumZ += other.sumZ;
+        sumSin += other.sumSin;
+        sumCos += other.sumCos;
+        sumLen += other.sumLen;
+        numFeatures += other.numFeatures;
+    }
+
     public LineString getDirectionalLine() {
         // Get Start and End Points
         double halfMeanLen = getMeanLength() / 2.0;
@@ -23,7 +23,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FeatureTypes.SimpleShapeType;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
@@ -48,7 +47,7 @@ public class LinearDirectionalMeanOperation extends AbstractDisributionOperator
     String[] FIELDS = { "CompassA", "DirMean", "CirVar", "AveX", "AveY", "AveLen" };
 
     public SimpleFeatureCollection execute(SimpleFeatureCollection features,
-            boolean orientationOnly, String caseField) throws IOException {
+            final boolean orientationOnly, String caseField) throws IOException {
         SimpleFeatureType schema = features.getSchema();
         if (FeatureTypes.getSimpleShapeType(schema) != SimpleShapeType.LINESTRING) {
             LOGGER.log(Level.SEVERE, schema.getTypeName() + " is not a linestring features!");
@@ -56,27 +55,29 @@ public class LinearDirectionalMeanOperation extends AbstractDisributionOperator
         }
 
         caseField = FeatureTypes.validateProperty(schema, caseField);
-        int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
-
-        LinearDirectionalMeanVisitor visitor = new LinearDirectionalMeanVisitor();
-        visitor.setOrientationOnly(orientationOnly);
-
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                if (geometry == null || geometry.isEmpty())
-                    continue;
-
-                // Case Field
-                Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
-
-                visitor.visit(geometry, caseVal);
-            }
-        } finally {
-            featureIter.close();
-        }
+        final int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
+
+        LinearDirectionalMeanVisitor visitor = visitFeatures(features,
+                new PartitionHandler<LinearDirectionalMeanVisitor>() {
+                    @Override
+                    public LinearDirectionalMeanVisitor createVisitor() {
+                        LinearDirectionalMeanVisitor visitor = new LinearDirectionalMeanVisitor();
+                        visitor.setOrientationOnly(orientationOnly);
+                        return visitor;
+                    }
+
+                    @Override
+                    public void visit(LinearDirectionalMeanVisitor visitor, SimpleFeature feature) {
+                        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                        if (geometry == null || geometry.isEmpty())
+                            return;
+
+                        // Case Field
+                        Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
+
+                        visitor.visit(geometry, caseVal);
+                    }
+                });
 
         // build feature collection
         CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
@@ -46,4 +46,9 @@ public class LinearDirectionalMeanVisitor extends AbstractDistributionVisitor {
 
         directionalMean.addValue(lineString);
     }
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((LinearDirectionalMean) target).merge((LinearDirectionalMean) source);
+    }
 }
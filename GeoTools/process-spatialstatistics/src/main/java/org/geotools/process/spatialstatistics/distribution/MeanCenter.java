@@ -58,6 +58,15 @@ public class MeanCenter {
         numFeatures++;
     }
 
+    public void merge(MeanCenter other) {
+        weightSum += other.weightSum;
+        sumX += other.sumX;
+        sumY += other.sumY;
+        sumZ += other.sumZ;
+        dimensionSum += other.dimensionSum;
+        numFeatures += other.numFeatures;
+    }
+
     public Point getMeanCenter() {
         double meanX = sumX / weightSum;
         double meanY = sumY / weightSum;
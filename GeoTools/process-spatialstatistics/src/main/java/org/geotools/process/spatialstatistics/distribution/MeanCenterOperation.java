@@ -23,7 +23,6 @@ import java.util.logging.Logger;
 
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.util.logging.Logging;
@@ -57,40 +56,42 @@ public class MeanCenterOperation extends AbstractDisributionOperator {
         caseField = FeatureTypes.validateProperty(schema, caseField);
         dimensionField = FeatureTypes.validateProperty(schema, dimensionField);
 
-        int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
-        int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
-        int idxDim = dimensionField == null ? -1 : schema.indexOf(dimensionField);
-        Expression weightExpr = ff.property(weightField);
-        Expression dimensionExpr = ff.property(dimensionField);
-
-        MeanCenterVisitor visitor = new MeanCenterVisitor();
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                if (geometry == null || geometry.isEmpty()) {
-                    continue;
-                }
-
-                Coordinate coordinate = getTrueCentroid(geometry);
-                Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
-
-                double weightVal = 1.0;
-                if (idxWeight != -1) {
-                    weightVal = this.getValue(feature, weightExpr, weightVal);
-                }
-
-                double dimVal = Double.NaN;
-                if (idxDim != -1) {
-                    dimVal = this.getValue(feature, dimensionExpr, dimVal);
-                }
-
-                visitor.visit(coordinate, caseVal, weightVal, dimVal);
-            }
-        } finally {
-            featureIter.close();
-        }
+        final int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
+        final int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
+        final int idxDim = dimensionField == null ? -1 : schema.indexOf(dimensionField);
+        final Expression weightExpr = ff.property(weightField);
+        final Expression dimensionExpr = ff.property(dimensionField);
+
+        MeanCenterVisitor visitor = visitFeatures(features,
+                new PartitionHandler<MeanCenterVisitor>() {
+                    @Override
+                    public MeanCenterVisitor createVisitor() {
+                        return new MeanCenterVisitor();
+                    }
+
+                    @Override
+                    public void visit(MeanCenterVisitor visitor, SimpleFeature feature) {
+                        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                        if (geometry == null || geometry.isEmpty()) {
+                            return;
+                        }
+
+                        Coordinate coordinate = getTrueCentroid(geometry);
+                        Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
+
+                        double weightVal = 1.0;
+                        if (idxWeight != -1) {
+                            weightVal = getValue(feature, weightExpr, weightVal);
+                        }
+
+                        double dimVal = Double.NaN;
+                        if (idxDim != -1) {
+                            dimVal = getValue(feature, dimensionExpr, dimVal);
+                        }
+
+                        visitor.visit(coordinate, caseVal, weightVal, dimVal);
+                    }
+                });
 
         // build feature collection
         CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
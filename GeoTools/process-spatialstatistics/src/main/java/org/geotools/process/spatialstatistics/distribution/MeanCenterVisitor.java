@@ -39,4 +39,9 @@ public class MeanCenterVisitor extends AbstractDistributionVisitor {
 
         meanCenter.addValue(coordinate, weightVal, dimVal);
     }
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((MeanCenter) target).merge((MeanCenter) source);
+    }
 }
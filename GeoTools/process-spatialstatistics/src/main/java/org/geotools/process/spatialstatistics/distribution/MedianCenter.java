@@ -16,11 +16,13 @@
  */
 package org.geotools.process.spatialstatistics.distribution;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.geotools.factory.GeoTools;
 import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -28,13 +30,36 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 
 /**
- * Median Center
+ * Median Center<br>
+ * Weiszfeld iterations over primitive coordinate arrays, accelerated by over-relaxed steps
+ * (Ostresh) that fall back to the plain step whenever they do not decrease the sum of weighted
+ * distances. The iteration starts from the better of the mean center and the coordinate-wise
+ * median, or from the previous solution when values were added after a solve (warm start).
  * 
  * @author Minpa Lee, MangoSystem
  * 
  * @source $URL$
  */
 public class MedianCenter {
+    static final int MAX_ITERATIONS = 100;
+
+    static final double TOLERANCE = 0.000001;
+
+    static final double OVER_RELAXATION = 1.8;
+
+    // indexes of the evaluation result
+    private static final int X = 0;
+
+    private static final int Y = 1;
+
+    private static final int SUM_K = 2;
+
+    private static final int SUM_KX = 3;
+
+    private static final int SUM_KY = 4;
+
+    private static final int DISTANCE = 5;
+
     private double sumX = 0.0;
 
     private double sumY = 0.0;
@@ -43,44 +68,32 @@ public class MedianCenter {
 
     private double minY = Double.MAX_VALUE;
 
-    private double maxX = Double.MIN_VALUE;
+    private double maxX = -Double.MAX_VALUE;
 
-    private double maxY = Double.MIN_VALUE;
+    private double maxY = -Double.MAX_VALUE;
 
     private double weightSum = 0.0;
 
-    private Point medianCenter = null;
+    private int size = 0;
 
-    private List<Event> events = new ArrayList<Event>();
+    private double[] x = new double[16];
 
-    private final GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools
-            .getDefaultHints());
-
-    class Event {
-        public double x;
+    private double[] y = new double[16];
 
-        public double y;
+    private double[] weight = new double[16];
 
-        public double weight;
+    // attribute values by field, NaN for missing values
+    private double[][] attributes = null;
 
-        public Number[] attVals;
+    private Point medianCenter = null;
 
-        public Event() {
-        }
+    // previous solution, the starting point when values are added after a solve
+    private Coordinate initialEstimate = null;
 
-        public Event(double x, double y, double weight, Number[] attVals) {
-            this.x = x;
-            this.y = y;
-            this.weight = weight;
-            this.attVals = attVals;
-        }
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
 
-        public double getEuclideanDistance(Event other) {
-            double dx = this.x - other.x;
-            double dy = this.y - other.y;
-            return Math.sqrt((dx * dx) + (dy * dy));
-        }
-    }
+    private final GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools
+            .getDefaultHints());
 
     public void addValue(Coordinate coordinate, double weight, Number[] attVals) {
         weightSum += weight;
@@ -93,7 +106,59 @@ public class MedianCenter {
         maxX = Math.max(maxX, coordinate.x);
         maxY = Math.max(maxY, coordinate.y);
 
-        events.add(new Event(coordinate.x, coordinate.y, weight, attVals));
+        if (size == x.length) {
+            int capacity = size * 2;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.weight = Arrays.copyOf(this.weight, capacity);
+            if (attributes != null) {
+                for (int k = 0; k < attributes.length; k++) {
+                    attributes[k] = Arrays.copyOf(attributes[k], capacity);
+                }
+            }
+        }
+
+        this.x[size] = coordinate.x;
+        this.y[size] = coordinate.y;
+        this.weight[size] = weight;
+
+        if (attVals != null && attributes == null) {
+            attributes = new double[attVals.length][x.length];
+            for (int k = 0; k < attributes.length; k++) {
+                Arrays.fill(attributes[k], Double.NaN);
+            }
+        }
+
+        if (attributes != null) {
+            for (int k = 0; k < attributes.length; k++) {
+                Number value = attVals != null && k < attVals.length ? attVals[k] : null;
+                attributes[k][size] = value == null ? Double.NaN : value.doubleValue();
+            }
+        }
+        size++;
+
+        // solve again, starting from the current solution
+        if (medianCenter != null) {
+            initialEstimate = medianCenter.getCoordinate();
+            medianCenter = null;
+        }
+    }
+
+    public void merge(MedianCenter other) {
+        Number[] attVals = other.attributes == null ? null : new Number[other.attributes.length];
+        for (int i = 0; i < other.size; i++) {
+            if (attVals != null) {
+                for (int k = 0; k < attVals.length; k++) {
+                    double value = other.attributes[k][i];
+                    attVals[k] = Double.isNaN(value) ? null : Double.valueOf(value);
+                }
+            }
+            addValue(new Coordinate(other.x[i], other.y[i]), other.weight[i], attVals);
+        }
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
     }
 
     public Point getMedianCenter() {
@@ -101,111 +166,124 @@ public class MedianCenter {
             return medianCenter;
         }
 
-        // Calculate Median Center
-        final int maxIters = 100; // maximum number of iterations
-        final double tolerance = 0.000001;
-
         // Set Initial Guess to the Mean Center and Begin
-        Event med = new Event();
-        med.x = sumX / weightSum;
-        med.y = sumY / weightSum;
+        double medX = sumX / weightSum;
+        double medY = sumY / weightSum;
 
         // Calculates the weighted median center
         // (minimizes the Euclidean distance) for a set of xy-coordinates. (1, A)
-        if (events.size() == 1) {
-            return gf.createPoint(new Coordinate(med.x, med.y));
+        if (size == 1) {
+            return gf.createPoint(new Coordinate(medX, medY));
         }
 
         // Create Maximum Weight for Coincident Points
-        double width = maxX - minX;
-        double height = maxY - minY;
-
         double deltaX = maxX - minX;
-        maxX = maxX + (deltaX / 1000.0);
+        double extentMaxX = maxX + (deltaX / 1000.0);
 
         double deltaY = maxY - minY;
-        minY = minY - (deltaY / 1000.0);
-
-        height = maxY - minY;
-        width = maxX - minX;
-
-        double extentArea = height * width * 1000.0;
+        double extentMinY = minY - (deltaY / 1000.0);
 
-        boolean flag = true;
-        int iterations = 0;
-        while (flag) {
+        final double extentArea = (maxY - extentMinY) * (extentMaxX - minX) * 1000.0;
 
-            if (iterations++ >= maxIters) {
-                // Maximum Number of Iterations Reached
-                flag = false;
-                break;
-            }
+        // start from the best of the candidates
+        double[] current = evaluateDistance(medX, medY, extentArea);
+        if (initialEstimate != null) {
+            current = better(current, evaluateDistance(initialEstimate.x, initialEstimate.y,
+                    extentArea));
+        }
+        double[] median = { getCoordinateMedian(x), getCoordinateMedian(y) };
+        current = better(current, evaluateDistance(median[0], median[1], extentArea));
 
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
             // Re-weight Coordinates and Get New Estimate
-            Event newCenter = evaluateDistance(med, extentArea);
+            final double curX = current[X];
+            final double curY = current[Y];
+            final double stepX = current[SUM_KX] / current[SUM_K];
+            final double stepY = current[SUM_KY] / current[SUM_K];
+
+            double[] next = evaluateDistance(curX + OVER_RELAXATION * (stepX - curX), curY
+                    + OVER_RELAXATION * (stepY - curY), extentArea);
+            if (!(next[DISTANCE] <= current[DISTANCE])) {
+                // the plain Weiszfeld step never increases the sum of distances
+                next = evaluateDistance(stepX, stepY, extentArea);
+            }
 
             // Decision Criteria
-            boolean diffX = SSUtils.compareDouble(newCenter.x, med.x, tolerance);
-            boolean diffY = SSUtils.compareDouble(newCenter.y, med.y, tolerance);
+            boolean diffX = SSUtils.compareDouble(next[X], curX, TOLERANCE);
+            boolean diffY = SSUtils.compareDouble(next[Y], curY, TOLERANCE);
+            current = next;
             if (diffX && diffY) {
-                flag = false;
-            } else {
-                med.x = newCenter.x;
-                med.y = newCenter.y;
+                break;
             }
         }
 
-        medianCenter = gf.createPoint(new Coordinate(med.x, med.y));
+        medianCenter = gf.createPoint(new Coordinate(current[X], current[Y]));
 
         return medianCenter;
     }
 
     public Number[] getUnivariateMedian() {
-        Event initCe = events.get(0);
-        if (initCe.attVals == null) {
+        if (attributes == null) {
             return null;
         }
 
-        int size = initCe.attVals.length;
-        MedianVisitor[] visitor = new MedianVisitor[size];
-        for (int k = 0; k < visitor.length; k++) {
-            visitor[k] = new MedianVisitor();
-        }
-
-        for (Event ce : events) {
-            for (int k = 0; k < size; k++) {
-                visitor[k].visit(ce.attVals[k]);
-            }
-        }
-
-        Number[] medianValue = new Number[size];
-        for (int k = 0; k < visitor.length; k++) {
-            medianValue[k] = visitor[k].getMedian();
+        Number[] medianValue = new Number[attributes.length];
+        double[] values = new double[size];
+        for (int k = 0; k < attributes.length; k++) {
+            System.arraycopy(attributes[k], 0, values, 0, size);
+            medianValue[k] = MedianVisitor.getMedian(values, size);
         }
 
         return medianValue;
     }
 
-    private Event evaluateDistance(Event estimate, double maxK) {
-        double sumK = 0;
-        double newXTop = 0;
-        double newYTop = 0;
+    private double getCoordinateMedian(double[] coordinates) {
+        double[] values = Arrays.copyOf(coordinates, size);
+        Double median = MedianVisitor.getMedian(values, size);
+        return median == null ? Double.NaN : median.doubleValue();
+    }
 
-        for (Event ce : events) {
-            final double dij = estimate.getEuclideanDistance(ce);
-            double k = 0;
+    private static double[] better(double[] current, double[] candidate) {
+        return candidate[DISTANCE] < current[DISTANCE] ? candidate : current;
+    }
 
-            if (dij == 0) {
-                k = ce.weight * maxK;
-            } else {
-                k = ce.weight / dij;
+    /**
+     * Evaluates the estimate: the sum of weighted distances and the sums of the Weiszfeld step.
+     * Partial sums of the parallel partitions are added in index order, so the result does not
+     * depend on the scheduling.
+     */
+    private double[] evaluateDistance(final double estX, final double estY, final double maxK) {
+        final Map<Integer, double[]> partitions = new ConcurrentSkipListMap<Integer, double[]>();
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double sumK = 0;
+                double newXTop = 0;
+                double newYTop = 0;
+                double sumDistance = 0;
+                for (int i = start; i < end; i++) {
+                    final double dx = estX - x[i];
+                    final double dy = estY - y[i];
+                    final double dij = Math.sqrt((dx * dx) + (dy * dy));
+                    final double k = dij == 0 ? weight[i] * maxK : weight[i] / dij;
+
+                    sumK += k;
+                    newXTop += k * x[i];
+                    newYTop += k * y[i];
+                    sumDistance += weight[i] * dij;
+                }
+                partitions.put(Integer.valueOf(start), new double[] { sumK, newXTop, newYTop,
+                        sumDistance });
             }
-
-            sumK += k;
-            newXTop += k * ce.x;
-            newYTop += k * ce.y;
+        }, parallelism, null);
+
+        double[] result = { estX, estY, 0, 0, 0, 0 };
+        for (double[] partial : partitions.values()) {
+            result[SUM_K] += partial[0];
+            result[SUM_KX] += partial[1];
+            result[SUM_KY] += partial[2];
+            result[DISTANCE] += partial[3];
         }
-
-        return new Event(newXTop / sumK, newYTop / sumK, 1.0, null);
+        return result;
     }
-}
\ No newline at end of file
+}
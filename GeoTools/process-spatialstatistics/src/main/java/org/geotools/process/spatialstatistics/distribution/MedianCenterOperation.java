@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
@@ -48,6 +49,19 @@ public class MedianCenterOperation extends AbstractDisributionOperator {
 
     final String[] FIELDS = { "XCoord", "YCoord" };
 
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
+
+    /**
+     * Sets the number of threads used to solve each median center, 1 disables parallel execution.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     public SimpleFeatureCollection execute(SimpleFeatureCollection features, String weightField,
             String caseField, String[] attFields) throws IOException {
         SimpleFeatureType schema = features.getSchema();
@@ -143,6 +157,7 @@ public class MedianCenterOperation extends AbstractDisributionOperator {
             while (iter.hasNext()) {
                 Object caseVal = iter.next();
                 MedianCenter curCenter = resultMap.get(caseVal);
+                curCenter.setParallelism(parallelism);
 
                 Point cenPoint = curCenter.getMedianCenter();
 
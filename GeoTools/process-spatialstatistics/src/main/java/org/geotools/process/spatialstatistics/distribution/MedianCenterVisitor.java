@@ -39,4 +39,9 @@ public class MedianCenterVisitor extends AbstractDistributionVisitor {
 
         medianCenter.addValue(coordinate, weightVal, attVals);
     }
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((MedianCenter) target).merge((MedianCenter) source);
+    }
 }
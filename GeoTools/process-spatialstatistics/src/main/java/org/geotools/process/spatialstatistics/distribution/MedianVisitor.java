@@ -16,55 +16,128 @@
  */
 package org.geotools.process.spatialstatistics.distribution;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Median Visitor
+ * Median Visitor<br>
+ * Values are kept in a primitive array and the median is found by selection (quickselect)
+ * instead of sorting.
  * 
  * @author Minpa Lee, MangoSystem
  * 
  * @source $URL$
  */
 public class MedianVisitor {
-    @SuppressWarnings("rawtypes")
-    private List list = new ArrayList();
+    private double[] values = new double[16];
+
+    private int size = 0;
 
-    @SuppressWarnings("unchecked")
     public void visit(Object value) {
-        list.add(value);
+        if (value instanceof Number) {
+            visit(((Number) value).doubleValue());
+        }
+    }
+
+    public void visit(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
     }
 
-    @SuppressWarnings("unchecked")
     public Number getMedian() {
-        final int size = list.size();
-        if (size < 1) {
+        return getMedian(values, size);
+    }
+
+    /**
+     * Returns the median of the first size values, or null if there are none. NaN values are
+     * ignored; the values are reordered in place.
+     */
+    public static Double getMedian(double[] values, int size) {
+        // move NaN values to the end
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!Double.isNaN(values[i])) {
+                double temp = values[count];
+                values[count++] = values[i];
+                values[i] = temp;
+            }
+        }
+
+        if (count < 1) {
             return null;
-        } else if (size == 1) {
-            return (Number) list.get(0);
+        } else if (count == 1) {
+            return Double.valueOf(values[0]);
         }
 
-        Number median = null;
-        Collections.sort(list);
+        final int index = count / 2;
+        select(values, 0, count - 1, index);
+        if ((count % 2) == 0) {
+            // the largest value left of the index is the lower middle value
+            double lower = values[0];
+            for (int i = 1; i < index; i++) {
+                lower = Math.max(lower, values[i]);
+            }
+            return Double.valueOf((lower + values[index]) / 2.0);
+        }
+        return Double.valueOf(values[index]);
+    }
+
+    /**
+     * Places the k-th smallest value of [left, right] at k, smaller values before and larger
+     * values after it.
+     */
+    static void select(double[] values, int left, int right, int k) {
+        while (right > left + 1) {
+            int mid = (left + right) >>> 1;
+            swap(values, mid, left + 1);
+            if (values[left] > values[right]) {
+                swap(values, left, right);
+            }
+            if (values[left + 1] > values[right]) {
+                swap(values, left + 1, right);
+            }
+            if (values[left] > values[left + 1]) {
+                swap(values, left, left + 1);
+            }
 
-        final int index = size / 2;
-        if ((size % 2) == 0) {
-            Object input1 = list.get(index - 1);
-            Object input2 = list.get(index);
+            int i = left + 1;
+            int j = right;
+            final double pivot = values[left + 1];
+            while (true) {
+                do {
+                    i++;
+                } while (values[i] < pivot);
+                do {
+                    j--;
+                } while (values[j] > pivot);
+                if (j < i) {
+                    break;
+                }
+                swap(values, i, j);
+            }
+            swap(values, left + 1, j);
 
-            if ((input1 instanceof Number) && (input2 instanceof Number)) {
-                Number num1 = (Number) input1;
-                Number num2 = (Number) input2;
-                median = (num1.doubleValue() + num2.doubleValue()) / 2.0;
-            } else {
-                // NaN
-                median = (Number) list.get(index);
+            if (j >= k) {
+                right = j - 1;
+            }
+            if (j <= k) {
+                left = i;
             }
-        } else {
-            median = (Number) list.get(index);
         }
 
-        return median;
+        if (right == left + 1 && values[right] < values[left]) {
+            swap(values, left, right);
+        }
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.distribution;
+
+/**
+ * Streaming weighted moments of a point set: weighted mean center, sums of squared deviations and
+ * co-moment of x and y.<br>
+ * Values are added one by one in constant memory (West's weighted update), and two partial results
+ * can be merged (Chan's pairwise update), so partitions of a feature collection can be summarized
+ * independently.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class SpatialMoments {
+
+    private double weightSum = 0.0;
+
+    private double meanX = 0.0;
+
+    private double meanY = 0.0;
+
+    private double meanZ = 0.0;
+
+    private double sigX = 0.0;
+
+    private double sigY = 0.0;
+
+    private double sigXY = 0.0;
+
+    private int numFeatures = 0;
+
+    public void addValue(double x, double y, double z, double weight) {
+        numFeatures++;
+
+        final double newWeightSum = weightSum + weight;
+        if (newWeightSum == 0) {
+            weightSum = newWeightSum;
+            return;
+        }
+
+        final double devX = x - meanX;
+        final double devY = y - meanY;
+        final double ratio = weight / newWeightSum;
+
+        meanX += devX * ratio;
+        meanY += devY * ratio;
+        meanZ += (z - meanZ) * ratio;
+
+        sigX += weight * devX * (x - meanX);
+        sigY += weight * devY * (y - meanY);
+        sigXY += weight * devX * (y - meanY);
+        weightSum = newWeightSum;
+    }
+
+    public void merge(SpatialMoments other) {
+        if (other.numFeatures == 0) {
+            return;
+        }
+
+        final double newWeightSum = weightSum + other.weightSum;
+        if (numFeatures == 0 || newWeightSum == 0) {
+            copy(other);
+            weightSum = newWeightSum;
+            numFeatures += other.numFeatures;
+            return;
+        }
+
+        final double devX = other.meanX - meanX;
+        final double devY = other.meanY - meanY;
+        final double ratio = other.weightSum / newWeightSum;
+        final double product = weightSum * ratio; // w1 * w2 / (w1 + w2)
+
+        sigX += other.sigX + devX * devX * product;
+        sigY += other.sigY + devY * devY * product;
+        sigXY += other.sigXY + devX * devY * product;
+
+        meanX += devX * ratio;
+        meanY += devY * ratio;
+        meanZ += (other.meanZ - meanZ) * ratio;
+
+        weightSum = newWeightSum;
+        numFeatures += other.numFeatures;
+    }
+
+    private void copy(SpatialMoments other) {
+        meanX = other.meanX;
+        meanY = other.meanY;
+        meanZ = other.meanZ;
+        sigX = other.sigX;
+        sigY = other.sigY;
+        sigXY = other.sigXY;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    public double getMeanX() {
+        return weightSum == 0 ? Double.NaN : meanX;
+    }
+
+    public double getMeanY() {
+        return weightSum == 0 ? Double.NaN : meanY;
+    }
+
+    public double getMeanZ() {
+        return weightSum == 0 ? Double.NaN : meanZ;
+    }
+
+    /**
+     * Returns the weighted sum of squared x deviations from the mean center.
+     */
+    public double getSigX() {
+        return sigX;
+    }
+
+    /**
+     * Returns the weighted sum of squared y deviations from the mean center.
+     */
+    public double getSigY() {
+        return sigY;
+    }
+
+    /**
+     * Returns the weighted sum of x * y deviations from the mean center.
+     */
+    public double getSigXY() {
+        return sigXY;
+    }
+}
@@ -43,43 +43,18 @@ import com.vividsolutions.jts.geom.Point;
 public class StandardDeviationalEllipse {
     protected static final Logger LOGGER = Logging.getLogger(StandardDeviationalEllipse.class);
 
-    private double sumX = 0.0;
-
-    private double sumY = 0.0;
-
-    private double sumZ = 0.0;
-
-    private double weightSum = 0.0;
-
-    private List<Event> events = new ArrayList<Event>();
+    private SpatialMoments moments = new SpatialMoments();
 
     private GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools.getDefaultHints());
 
-    class Event {
-        public double x;
-
-        public double y;
-
-        public double weight;
-
-        public Event() {
-        }
-
-        public Event(double x, double y, double weight) {
-            this.x = x;
-            this.y = y;
-            this.weight = weight;
-        }
-    }
-
     public void addValue(Coordinate coordinate, double weight) {
-        weightSum += weight;
-
-        sumX += coordinate.x * weight;
-        sumY += coordinate.y * weight;
-        sumZ += coordinate.z * weight;
+        moments.addValue(coordinate.x, coordinate.y, coordinate.z, weight);
+        ellipseCircle = null;
+    }
 
-        events.add(new Event(coordinate.x, coordinate.y, weight));
+    public void merge(StandardDeviationalEllipse other) {
+        moments.merge(other.moments);
+        ellipseCircle = null;
     }
 
     public double seX = 0;
@@ -96,19 +71,14 @@ public class StandardDeviationalEllipse {
         }
 
         // Mean Center
-        double meanX = sumX / weightSum;
-        double meanY = sumY / weightSum;
+        final double meanX = moments.getMeanX();
+        final double meanY = moments.getMeanY();
+        final double weightSum = moments.getWeightSum();
 
         // Standard Ellipse
-        double sigXY = 0, sigX = 0, sigY = 0;
-        for (Event ce : events) {
-            final double devX = ce.x - meanX;
-            final double devY = ce.y - meanY;
-
-            sigX += Math.pow(devX, 2.0) * ce.weight;
-            sigY += Math.pow(devY, 2.0) * ce.weight;
-            sigXY += devX * devY * ce.weight;
-        }
+        final double sigX = moments.getSigX();
+        final double sigY = moments.getSigY();
+        final double sigXY = moments.getSigXY();
 
         double denom = sigXY * 2.0;
         double diffXY = sigX - sigY;
@@ -203,11 +173,8 @@ public class StandardDeviationalEllipse {
     }
 
     public Point getMeanCenter() {
-        double meanX = sumX / weightSum;
-        double meanY = sumY / weightSum;
-        double meanZ = sumZ / weightSum;
-
-        return gf.createPoint(new Coordinate(meanX, meanY, meanZ));
+        return gf.createPoint(new Coordinate(moments.getMeanX(), moments.getMeanY(), moments
+                .getMeanZ()));
     }
 
 }
@@ -22,7 +22,6 @@ import java.util.Iterator;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
@@ -69,37 +68,39 @@ public class StandardDeviationalEllipseOperation extends AbstractDisributionOper
         weightField = FeatureTypes.validateProperty(schema, weightField);
         caseField = FeatureTypes.validateProperty(schema, caseField);
 
-        int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
-        int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
-        Expression weightExpr = ff.property(weightField);
+        final int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
+        final int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
+        final Expression weightExpr = ff.property(weightField);
 
-        StandardDeviationalEllipseVisitor visitor = new StandardDeviationalEllipseVisitor();
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                if (geometry == null || geometry.isEmpty()) {
-                    continue;
-                }
+        StandardDeviationalEllipseVisitor visitor = visitFeatures(features,
+                new PartitionHandler<StandardDeviationalEllipseVisitor>() {
+                    @Override
+                    public StandardDeviationalEllipseVisitor createVisitor() {
+                        return new StandardDeviationalEllipseVisitor();
+                    }
 
-                // geometry's true centroid
-                Coordinate coordinate = getTrueCentroid(geometry);
+                    @Override
+                    public void visit(StandardDeviationalEllipseVisitor visitor, SimpleFeature feature) {
+                        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                        if (geometry == null || geometry.isEmpty()) {
+                            return;
+                        }
 
-                // Case Field
-                Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
+                        // geometry's true centroid
+                        Coordinate coordinate = getTrueCentroid(geometry);
 
-                // Weight Field
-                double weightVal = 1.0;
-                if (idxWeight != -1) {
-                    weightVal = this.getValue(feature, weightExpr, weightVal);
-                }
+                        // Case Field
+                        Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
 
-                visitor.visit(coordinate, caseVal, weightVal);
-            }
-        } finally {
-            featureIter.close();
-        }
+                        // Weight Field
+                        double weightVal = 1.0;
+                        if (idxWeight != -1) {
+                            weightVal = getValue(feature, weightExpr, weightVal);
+                        }
+
+                        visitor.visit(coordinate, caseVal, weightVal);
+                    }
+                });
 
         // build feature collection
         CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
@@ -39,4 +39,9 @@ public class StandardDeviationalEllipseVisitor extends AbstractDistributionVisit
 
         sde.addValue(coordinate, weightVal);
     }
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((StandardDeviationalEllipse) target).merge((StandardDeviationalEllipse) source);
+    }
 }
@@ -16,9 +16,6 @@
  */
 package org.geotools.process.spatialstatistics.distribution;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.geotools.factory.GeoTools;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 
@@ -34,77 +31,27 @@ import com.vividsolutions.jts.geom.Point;
  * @source $URL$
  */
 public class StandardDistance {
-    private double sumX = 0.0;
-
-    private double sumY = 0.0;
-
-    private double sumZ = 0.0;
-
-    private double weightSum = 0.0;
-
-    private int numFeatures = 0;
-
-    private double sdVal = Double.NaN;
-
-    private List<Event> events = new ArrayList<Event>();
+    private SpatialMoments moments = new SpatialMoments();
 
     private GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools.getDefaultHints());
 
-    class Event {
-        public double x;
-
-        public double y;
-
-        public double weight;
-
-        public Event() {
-        }
-
-        public Event(double x, double y, double weight) {
-            this.x = x;
-            this.y = y;
-            this.weight = weight;
-        }
-    }
-
     public void addValue(Coordinate coordinate, double weight) {
         // #### Calculate Mean Center and Standard Distance ####
-        weightSum += weight;
-
-        sumX += coordinate.x * weight;
-        sumY += coordinate.y * weight;
-        sumZ += coordinate.z * weight;
-
-        events.add(new Event(coordinate.x, coordinate.y, weight));
+        moments.addValue(coordinate.x, coordinate.y, coordinate.z, weight);
+    }
 
-        numFeatures++;
+    public void merge(StandardDistance other) {
+        moments.merge(other.moments);
     }
 
     public double getStdDist(double standardDeviation) {
-        if (Double.isNaN(sdVal)) {
-            double meanX = sumX / weightSum;
-            double meanY = sumY / weightSum;
-
-            double sigXYSum = 0;
-            for (Event ce : events) {
-                final double devX = ce.x - meanX;
-                final double devY = ce.y - meanY;
-
-                sigXYSum += (Math.pow(devX, 2.0) * ce.weight) + (Math.pow(devY, 2.0) * ce.weight);
-            }
-
-            sdVal = Math.sqrt(sigXYSum / weightSum) * standardDeviation;
-        }
-
-        return sdVal;
+        double sigXYSum = moments.getSigX() + moments.getSigY();
+        return Math.sqrt(sigXYSum / moments.getWeightSum()) * standardDeviation;
     }
 
     public Point getMeanCenter() {
-        double meanX = sumX / weightSum;
-        double meanY = sumY / weightSum;
-        double meanZ = sumZ / weightSum;
-
-        return gf.createPoint(new Coordinate(meanX, meanY, meanZ));
+        return gf.createPoint(new Coordinate(moments.getMeanX(), moments.getMeanY(), moments
+                .getMeanZ()));
     }
 
 }
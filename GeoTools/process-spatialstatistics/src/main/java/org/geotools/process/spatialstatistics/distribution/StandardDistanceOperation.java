@@ -22,7 +22,6 @@ import java.util.Iterator;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
@@ -67,37 +66,39 @@ public class StandardDistanceOperation extends AbstractDisributionOperator {
         weightField = FeatureTypes.validateProperty(schema, weightField);
         caseField = FeatureTypes.validateProperty(schema, caseField);
 
-        int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
-        int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
-        Expression weightExpr = ff.property(weightField);
-
-        StandardDistanceVisitor visitor = new StandardDistanceVisitor();
-        SimpleFeatureIterator featureIter = features.features();
-        try {
-            while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                if (geometry == null || geometry.isEmpty()) {
-                    continue;
-                }
-
-                // geometry's true centroid
-                Coordinate coordinate = getTrueCentroid(geometry);
-
-                // #### Case Field ####
-                Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
-
-                // #### Weight Field ####
-                double weightVal = 1.0;
-                if (idxWeight != -1) {
-                    weightVal = this.getValue(feature, weightExpr, weightVal);
-                }
-
-                visitor.visit(coordinate, caseVal, weightVal);
-            }
-        } finally {
-            featureIter.close();
-        }
+        final int idxWeight = weightField == null ? -1 : schema.indexOf(weightField);
+        final int idxCase = caseField == null ? -1 : schema.indexOf(caseField);
+        final Expression weightExpr = ff.property(weightField);
+
+        StandardDistanceVisitor visitor = visitFeatures(features,
+                new PartitionHandler<StandardDistanceVisitor>() {
+                    @Override
+                    public StandardDistanceVisitor createVisitor() {
+                        return new StandardDistanceVisitor();
+                    }
+
+                    @Override
+                    public void visit(StandardDistanceVisitor visitor, SimpleFeature feature) {
+                        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                        if (geometry == null || geometry.isEmpty()) {
+                            return;
+                        }
+
+                        // geometry's true centroid
+                        Coordinate coordinate = getTrueCentroid(geometry);
+
+                        // #### Case Field ####
+                        Object caseVal = idxCase == -1 ? ALL : feature.getAttribute(idxCase);
+
+                        // #### Weight Field ####
+                        double weightVal = 1.0;
+                        if (idxWeight != -1) {
+                            weightVal = getValue(feature, weightExpr, weightVal);
+                        }
+
+                        visitor.visit(coordinate, caseVal, weightVal);
+                    }
+                });
 
         // build feature collection
         CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
@@ -39,4 +39,9 @@ public class StandardDistanceVisitor extends AbstractDistributionVisitor {
 
         sd.addValue(coordinate, weightVal);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void mergeValue(Object target, Object source) {
+        ((StandardDistance) target).merge((StandardDistance) source);
+    }
+}
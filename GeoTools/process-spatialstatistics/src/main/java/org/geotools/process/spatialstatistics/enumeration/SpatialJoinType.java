@@ -24,7 +24,15 @@ package org.geotools.process.spatialstatistics.enumeration;
  * @source $URL$
  */
 public enum SpatialJoinType {
+    /** one to one, the nearest join feature; unmatched input features are kept */
     KeepAllRecord,
-    
-    OnlyMatchingRecord
+
+    /** one to one, the nearest join feature; unmatched input features are removed */
+    OnlyMatchingRecord,
+
+    /** one output feature per matching join feature; unmatched input features are kept */
+    OneToMany,
+
+    /** one to one with the count and the numeric attribute sums of all matching join features */
+    Aggregate
 }
@@ -16,19 +16,20 @@
  */
 package org.geotools.process.spatialstatistics.gridcoverage;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
+import org.geotools.process.spatialstatistics.core.PointKdTree;
+import org.geotools.process.spatialstatistics.core.PointKdTree.NeighborHeap;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.gridcoverage.RasterRadius.SearchRadiusType;
 import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.index.kdtree.KdTree;
 
 /**
- * Implementation of Inverse Distance Weighted interpolation.
+ * Implementation of Inverse Distance Weighted interpolation.<br>
+ * The samples are searched with k nearest neighbor and radius queries over a KD-tree, using a
+ * search buffer per thread, so a cell costs O(log n + k) instead of a scan of all samples.
  * 
  * @author Minpa Lee, MangoSystem <br>
  * @see https://github.com/geotools/geotools/blob/master/spike/jan/gsoc-transformations/src/main/java/org/geotools/referencing/operation/builder/
@@ -39,12 +40,26 @@ import com.vividsolutions.jts.index.kdtree.KdTree;
 public class IDWInterpolator extends AbstractInterpolator {
     protected static final Logger LOGGER = Logging.getLogger(IDWInterpolator.class);
 
-    private KdTree spatialIndex = new KdTree(0.0d);
+    private PointKdTree spatialIndex;
+
+    private double[] x;
+
+    private double[] y;
+
+    private double[] z;
 
     private RasterRadius radius = new RasterRadius();
 
     private double power = 2.0;
 
+    // search buffers are reused by the thread interpolating a tile
+    private final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+        @Override
+        protected Search initialValue() {
+            return new Search();
+        }
+    };
+
     public IDWInterpolator(Coordinate[] samples) {
         this(samples, new RasterRadius(), 2.0);
     }
@@ -59,18 +74,27 @@ public class IDWInterpolator extends AbstractInterpolator {
     }
 
     private void init() {
-        for (Coordinate sample : samples) {
-            spatialIndex.insert(sample);
+        x = new double[number];
+        y = new double[number];
+        z = new double[number];
+        for (int i = 0; i < number; i++) {
+            x[i] = samples[i].x;
+            y[i] = samples[i].y;
+            z[i] = samples[i].z;
         }
+        spatialIndex = new PointKdTree(x, y, number);
     }
 
     @Override
     public double getValue(Coordinate p) {
+        Search search = searches.get();
+        search.reset();
         if (radius.getRadiusType() == SearchRadiusType.Fixed) {
-            return interpolateFixed(p);
+            interpolateFixed(p, search);
         } else {
-            return interpolateVariable(p);
+            interpolateVariable(p, search);
         }
+        return search.getValue();
     }
 
     /**
@@ -79,22 +103,15 @@ public class IDWInterpolator extends AbstractInterpolator {
      * the specified number of input points
      * 
      * @param p locations
-     * @return interpolated value
      */
-    private double interpolateVariable(Coordinate p) {
-        // List ret = spatialIndex.query(queryEnv);
-
-        Map<Double, Coordinate> sortedMap = new TreeMap<Double, Coordinate>();
-        for (Coordinate sample : samples) {
-            final double distance = p.distance(sample);
-            if (radius.distance > 0 && radius.distance < distance) {
-                continue;
-            } else {
-                sortedMap.put(Double.valueOf(distance), sample);
-            }
+    private void interpolateVariable(Coordinate p, Search search) {
+        final double maxDistance = radius.distance > 0 ? radius.distance
+                : Double.POSITIVE_INFINITY;
+        if (radius.numberOfPoints > 0) {
+            addNearest(p, radius.numberOfPoints, maxDistance, search);
+        } else {
+            spatialIndex.query(p.x, p.y, maxDistance, DistanceMethod.Euclidean, search);
         }
-
-        return interpolate(sortedMap);
     }
 
     /**
@@ -103,42 +120,70 @@ public class IDWInterpolator extends AbstractInterpolator {
      * the search radius will increase until it can encompass the minimum number of points
      * 
      * @param p locations
-     * @return interpolated value
      */
-    private double interpolateFixed(Coordinate p) {
-        /* ============================================= */
-        /* TODO Fix! */
-        /* ============================================= */
-        Map<Double, Coordinate> sortedMap = new TreeMap<Double, Coordinate>();
-        for (Coordinate sample : samples) {
-            final double distance = p.distance(sample);
-            if (radius.numberOfPoints > 0) {
-                sortedMap.put(Double.valueOf(distance), sample);
-            } else {
-                if (radius.distance >= distance) {
-                    sortedMap.put(Double.valueOf(distance), sample);
-                }
-            }
+    private void interpolateFixed(Coordinate p, Search search) {
+        spatialIndex.query(p.x, p.y, radius.distance, DistanceMethod.Euclidean, search);
+        if (search.count < radius.numberOfPoints) {
+            search.reset();
+            addNearest(p, radius.numberOfPoints, Double.POSITIVE_INFINITY, search);
         }
-
-        return interpolate(sortedMap);
     }
 
-    private double interpolate(Map<Double, Coordinate> sortedMap) {
-        double sumWeight = 0;
-        double weightSumDist = 0;
-        int process = 0;
-        for (Entry<Double, Coordinate> entry : sortedMap.entrySet()) {
-            process++;
-            final double weight = Math.pow(entry.getKey(), -power);
-            weightSumDist += weight * entry.getValue().z;
-            sumWeight += weight;
-            if (radius.numberOfPoints > 0 && process >= radius.numberOfPoints) {
+    private void addNearest(Coordinate p, int k, double maxDistance, Search search) {
+        NeighborHeap heap = spatialIndex.nearest(p.x, p.y, k, -1, DistanceMethod.Euclidean,
+                false, search.heap);
+        for (int pos = 0; pos < heap.size(); pos++) {
+            if (heap.getDistance(pos) > maxDistance) {
                 break;
             }
+            search.visit(heap.getIndex(pos), heap.getDistance(pos));
         }
+    }
+
+    /**
+     * Per thread search state: the k-NN buffer and the running weighted sums.
+     */
+    final class Search implements PointKdTree.Visitor {
 
-        return sumWeight > 0 ? weightSumDist / sumWeight : -Float.MAX_VALUE;
+        final NeighborHeap heap = new NeighborHeap();
+
+        double sumWeight;
+
+        double weightSumDist;
+
+        int count;
+
+        int coincident;
+
+        void reset() {
+            sumWeight = weightSumDist = 0;
+            count = 0;
+            coincident = -1;
+        }
+
+        @Override
+        public void visit(int index, double distance) {
+            count++;
+            if (distance == 0) {
+                // the sample value at its own location
+                if (coincident == -1 || index < coincident) {
+                    coincident = index;
+                }
+                return;
+            }
+
+            final double weight = power == 2.0 ? 1.0 / (distance * distance) : Math.pow(
+                    distance, -power);
+            weightSumDist += weight * z[index];
+            sumWeight += weight;
+        }
+
+        double getValue() {
+            if (coincident != -1) {
+                return z[coincident];
+            }
+            return sumWeight > 0 ? weightSumDist / sumWeight : -Float.MAX_VALUE;
+        }
     }
 
 }
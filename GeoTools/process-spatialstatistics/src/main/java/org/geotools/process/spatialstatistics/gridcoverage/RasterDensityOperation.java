@@ -16,23 +16,19 @@
  */
 package org.geotools.process.spatialstatistics.gridcoverage;
 
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
-import javax.media.jai.BorderExtender;
-import javax.media.jai.JAI;
-import javax.media.jai.ParameterBlockJAI;
-import javax.media.jai.PlanarImage;
-import javax.media.jai.registry.RenderedRegistryMode;
+import javax.media.jai.KernelJAI;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.StringHelper;
-import org.geotools.process.spatialstatistics.enumeration.RasterPixelType;
 import org.geotools.util.logging.Logging;
 import org.jaitools.tiledimage.DiskMemImage;
 import org.opengis.feature.simple.SimpleFeature;
@@ -53,57 +49,73 @@ import com.vividsolutions.jts.geom.Geometry;
 public class RasterDensityOperation extends RasterProcessingOperation {
     protected static final Logger LOGGER = Logging.getLogger(RasterKernelDensityOperation.class);
 
-    double scaleArea = 0.0;
+    /**
+     * Grid positions and weights of the points inside the extent.
+     */
+    protected static final class GridPoints {
+        int size = 0;
 
-    protected PlanarImage scaleUnit(PlanarImage source0) {
-        final RenderingHints hints = new RenderingHints(JAI.KEY_BORDER_EXTENDER,
-                BorderExtender.createInstance(BorderExtender.BORDER_ZERO));
+        int[] columns = new int[1024];
 
-        final ParameterBlockJAI pb = new ParameterBlockJAI("DivideByConst",
-                RenderedRegistryMode.MODE_NAME);
+        int[] rows = new int[1024];
 
-        pb.setSource("source0", source0);
-        pb.setParameter("constants", new double[] { scaleArea });
+        double[] weights = new double[1024];
 
-        return JAI.create("DivideByConst", pb, hints);
-    }
+        void add(int column, int row, double weight) {
+            if (size == columns.length) {
+                columns = Arrays.copyOf(columns, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            columns[size] = column;
+            rows[size] = row;
+            weights[size] = weight;
+            size++;
+        }
 
-    protected PlanarImage pointToRaster(SimpleFeatureCollection pointFeatures, String weightField) {
-        // calculate extent & cellsize
-        calculateExtentAndCellSize(pointFeatures, Integer.MIN_VALUE);
+        public int size() {
+            return size;
+        }
+    }
 
+    /**
+     * Reads the grid positions of the points inside the current extent. Multipoints are treated as
+     * a set of individual points.
+     */
+    protected GridPoints loadPoints(SimpleFeatureCollection pointFeatures, String weightField) {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+        Expression weightExp = null;
         if (!StringHelper.isNullOrEmpty(weightField)) {
             weightField = FeatureTypes.validateProperty(pointFeatures.getSchema(), weightField);
+            weightExp = ff.property(weightField);
         }
 
-        DiskMemImage outputImage = this.createDiskMemImage(Extent, RasterPixelType.FLOAT);
-        this.initializeDefaultValue(outputImage, 0.0);
-
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
-        Expression weightExp = ff.property(weightField);
-
         String the_geom = pointFeatures.getSchema().getGeometryDescriptor().getLocalName();
         Filter filter = ff.bbox(ff.property(the_geom), Extent);
 
+        GridPoints points = new GridPoints();
         GridTransformer trans = new GridTransformer(Extent, CellSize);
         SimpleFeatureIterator featureIter = pointFeatures.subCollection(filter).features();
         try {
             while (featureIter.hasNext()) {
                 final SimpleFeature feature = featureIter.next();
-
-                // Multipoints are treated as a set of individual points.
                 Geometry multiPoint = (Geometry) feature.getDefaultGeometry();
-                for (int iPart = 0; iPart < multiPoint.getNumGeometries(); iPart++) {
-                    final Coordinate realPos = multiPoint.getGeometryN(iPart).getCoordinate();
-                    final GridCoordinates2D gridPos = trans.worldToGrid(realPos);
-                    if (trans.contains(gridPos.x, gridPos.y)) {
-                        final Double dblVal = weightExp.evaluate(feature, Double.class);
-                        double wVal = dblVal == null ? 1.0 : dblVal.doubleValue();
+                if (multiPoint == null || multiPoint.isEmpty()) {
+                    continue;
+                }
 
-                        wVal += outputImage.getSampleDouble(gridPos.x, gridPos.y, 0);
+                double weight = 1.0;
+                if (weightExp != null) {
+                    final Double dblVal = weightExp.evaluate(feature, Double.class);
+                    weight = dblVal == null ? 1.0 : dblVal.doubleValue();
+                }
 
-                        outputImage.setSample(gridPos.x, gridPos.y, 0, wVal);
-                        updateStatistics(wVal);
+                for (int iPart = 0; iPart < multiPoint.getNumGeometries(); iPart++) {
+                    final Coordinate realPos = multiPoint.getGeometryN(iPart).getCoordinate();
+                    final int column = trans.getColumn(realPos.x);
+                    final int row = trans.getRow(realPos.y);
+                    if (trans.contains(column, row)) {
+                        points.add(column, row, weight);
                     }
                 }
             }
@@ -111,7 +123,189 @@ public class RasterDensityOperation extends RasterProcessingOperation {
             featureIter.close();
         }
 
-        return outputImage;
+        return points;
+    }
+
+    /**
+     * A kernel mirrored and scaled for scattering. Convolve correlates: a point at (x, y) adds
+     * kernel(i, j) to (x + xOrigin - i, y + yOrigin - j), so the stamp is placed at (x - left, y -
+     * top).
+     */
+    protected static final class KernelStamp {
+        final int width;
+
+        final int height;
+
+        final int left;
+
+        final int top;
+
+        final double[] values;
+
+        public KernelStamp(KernelJAI kernel, double scale) {
+            this.width = kernel.getWidth();
+            this.height = kernel.getHeight();
+            this.left = width - 1 - kernel.getXOrigin();
+            this.top = height - 1 - kernel.getYOrigin();
+
+            final float[] data = kernel.getKernelData();
+            this.values = new double[data.length];
+            for (int index = 0; index < data.length; index++) {
+                values[data.length - 1 - index] = data[index] * scale;
+            }
+        }
+    }
+
+    /**
+     * Selects the stamp of a point in a band. Called from several threads.
+     */
+    protected interface StampProvider {
+        KernelStamp getStamp(int band, int point);
+    }
+
+    /**
+     * Writes the density of the points into the first band of the image, see
+     * {@link #scatter(DiskMemImage, GridPoints, StampProvider, TileStatistics[])}.
+     *
+     * @return false if the operation was canceled
+     */
+    protected boolean scatter(DiskMemImage image, GridPoints points, KernelJAI kernel,
+            double scale) {
+        final KernelStamp stamp = new KernelStamp(kernel, scale);
+        return scatter(image, points, new StampProvider() {
+            @Override
+            public KernelStamp getStamp(int band, int point) {
+                return stamp;
+            }
+        }, null);
+    }
+
+    /**
+     * Writes the density of the points into every band of the image: the stamp of a point in a
+     * band, multiplied by its weight, is added around the point. Each point is assigned to the
+     * tiles its stamps overlap and the tiles are computed in parallel, so only the cells near a
+     * point are visited. With one stamp per band, the result equals a Convolve of the rasterized
+     * weights with a zero border.
+     *
+     * @param bandStatistics if not null, receives the statistics of each band
+     * @return false if the operation was canceled
+     */
+    protected boolean scatter(final DiskMemImage image, final GridPoints points,
+            final StampProvider stamps, final TileStatistics[] bandStatistics) {
+        final int numBands = image.getSampleModel().getNumBands();
+
+        // points per tile, as offsets into the members of all tiles
+        final int minTileX = image.getMinTileX();
+        final int minTileY = image.getMinTileY();
+        final int numXTiles = image.getNumXTiles();
+        final int tileCount = numXTiles * image.getNumYTiles();
+        final int[] range = new int[4];
+
+        final int[] offsets = new int[tileCount + 1];
+        for (int index = 0; index < points.size; index++) {
+            getTileRange(image, points, index, stamps, numBands, range);
+            for (int tileY = range[2]; tileY <= range[3]; tileY++) {
+                for (int tileX = range[0]; tileX <= range[1]; tileX++) {
+                    offsets[(tileY - minTileY) * numXTiles + (tileX - minTileX) + 1]++;
+                }
+            }
+        }
+
+        for (int tile = 0; tile < tileCount; tile++) {
+            offsets[tile + 1] += offsets[tile];
+        }
+
+        final int[] members = new int[offsets[tileCount]];
+        final int[] cursor = Arrays.copyOf(offsets, tileCount);
+        for (int index = 0; index < points.size; index++) {
+            getTileRange(image, points, index, stamps, numBands, range);
+            for (int tileY = range[2]; tileY <= range[3]; tileY++) {
+                for (int tileX = range[0]; tileX <= range[1]; tileX++) {
+                    members[cursor[(tileY - minTileY) * numXTiles + (tileX - minTileX)]++] = index;
+                }
+            }
+        }
+
+        return executeTiles(image, new TileTask() {
+            @Override
+            public void execute(WritableRaster raster, Rectangle bounds, TileStatistics statistics) {
+                final int tile = (image.YToTileY(bounds.y) - minTileY) * numXTiles
+                        + (image.XToTileX(bounds.x) - minTileX);
+                final double[] buffer = new double[bounds.width * bounds.height];
+
+                for (int band = 0; band < numBands; band++) {
+                    if (band > 0) {
+                        Arrays.fill(buffer, 0.0);
+                    }
+
+                    for (int pos = offsets[tile]; pos < offsets[tile + 1]; pos++) {
+                        final int index = members[pos];
+                        add(buffer, bounds, stamps.getStamp(band, index), points.columns[index],
+                                points.rows[index], points.weights[index]);
+                    }
+
+                    raster.setSamples(bounds.x, bounds.y, bounds.width, bounds.height, band,
+                            buffer);
+
+                    TileStatistics tileStatistics = new TileStatistics(NoData);
+                    if (offsets[tile] == offsets[tile + 1]) {
+                        tileStatistics.add(0.0);
+                    } else {
+                        for (int cell = 0; cell < buffer.length; cell++) {
+                            tileStatistics.add(buffer[cell]);
+                        }
+                    }
+
+                    statistics.merge(tileStatistics);
+                    if (bandStatistics != null) {
+                        synchronized (bandStatistics) {
+                            bandStatistics[band].merge(tileStatistics);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // adds the part of the stamp inside the tile
+    private void add(double[] buffer, Rectangle bounds, KernelStamp stamp, int column, int row,
+            double weight) {
+        final int originX = column - stamp.left;
+        final int originY = row - stamp.top;
+
+        final int minX = Math.max(bounds.x, originX);
+        final int maxX = Math.min(bounds.x + bounds.width, originX + stamp.width);
+        final int minY = Math.max(bounds.y, originY);
+        final int maxY = Math.min(bounds.y + bounds.height, originY + stamp.height);
+
+        final double[] values = stamp.values;
+        for (int y = minY; y < maxY; y++) {
+            int cell = (y - bounds.y) * bounds.width + (minX - bounds.x);
+            int k = (y - originY) * stamp.width + (minX - originX);
+            for (int x = minX; x < maxX; x++) {
+                buffer[cell++] += weight * values[k++];
+            }
+        }
+    }
+
+    // tiles overlapped by the stamps of a point: minimum and maximum tile x, then tile y
+    private void getTileRange(DiskMemImage image, GridPoints points, int index,
+            StampProvider stamps, int numBands, int[] range) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int band = 0; band < numBands; band++) {
+            KernelStamp stamp = stamps.getStamp(band, index);
+            minX = Math.min(minX, points.columns[index] - stamp.left);
+            minY = Math.min(minY, points.rows[index] - stamp.top);
+            maxX = Math.max(maxX, points.columns[index] - stamp.left + stamp.width - 1);
+            maxY = Math.max(maxY, points.rows[index] - stamp.top + stamp.height - 1);
+        }
+
+        final Rectangle bounds = image.getBounds();
+        range[0] = image.XToTileX(Math.max(bounds.x, minX));
+        range[1] = image.XToTileX(Math.min(bounds.x + bounds.width - 1, maxX));
+        range[2] = image.YToTileY(Math.max(bounds.y, minY));
+        range[3] = image.YToTileY(Math.min(bounds.y + bounds.height - 1, maxY));
     }
 
 }
@@ -16,29 +16,36 @@
  */
 package org.geotools.process.spatialstatistics.gridcoverage;
 
-import java.awt.RenderingHints;
 import java.util.logging.Logger;
 
 import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
-import javax.media.jai.BorderExtender;
-import javax.media.jai.JAI;
 import javax.media.jai.KernelJAI;
-import javax.media.jai.ParameterBlockJAI;
-import javax.media.jai.PlanarImage;
 
+import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
+import org.geotools.process.spatialstatistics.core.PointKdTree;
+import org.geotools.process.spatialstatistics.core.PointKdTree.NeighborHeap;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.geotools.process.spatialstatistics.enumeration.RasterPixelType;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.jaitools.media.jai.kernel.KernelFactory;
 import org.jaitools.media.jai.kernel.KernelFactory.ValueType;
+import org.jaitools.tiledimage.DiskMemImage;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 
 /**
  * Calculates a magnitude per unit area from point features using a kernel function to fit a smoothly tapered surface to each point.
+ * <p>
+ * The kernel, divided by its area, is added around each point directly into the output tiles, so
+ * the cost depends on the number of points, not on the size of the extent. Several search radii,
+ * optionally adapted to the density around each point, can be calculated as the bands of one
+ * coverage.
  * 
  * @author Minpa Lee, MangoSystem
  * 
@@ -53,6 +60,9 @@ public class RasterKernelDensityOperation extends RasterDensityOperation {
         BINARY, COSINE, DISTANCE, EPANECHNIKOV, GAUSSIAN, INVERSE_DISTANCE, QUADRATIC, QUARTIC, TRIANGULAR, TRIWEIGHT, TRICUBE;
     }
 
+    /** Largest adaptive bandwidth, as a multiple of the search radius */
+    public static final double MAX_ADAPTIVE_FACTOR = 4.0;
+
     private KernelType kernelType = KernelType.QUADRATIC;
 
     public KernelType getKernelType() {
@@ -73,31 +83,150 @@ public class RasterKernelDensityOperation extends RasterDensityOperation {
 
     public GridCoverage2D execute(SimpleFeatureCollection pointFeatures, String weightField,
             double searchRadius) {
-        // step 1 : convert point to gridcoverage : Sum
-        final PlanarImage outputImage = pointToRaster(pointFeatures, weightField);
+        // step 1 : read the grid positions of the points
+        calculateExtentAndCellSize(pointFeatures, Integer.MIN_VALUE);
+        final DiskMemImage outputImage = createDiskMemImage(Extent, RasterPixelType.FLOAT);
+        final GridPoints points = loadPoints(pointFeatures, weightField);
 
         // The kernel function is based on the quadratic kernel function described in Silverman
         // (1986, p. 76, equation 4.5).
         // http://arxiv.org/ftp/physics/papers/0701/0701111.pdf
 
         // step 2 Only a circular neighborhood is possible
-        final KernelJAI kernel = getKernel(searchRadius);
+        final int radius = (int) Math.floor(searchRadius / CellSize);
+        final KernelJAI kernel = getKernel(radius);
+
+        // step 3 : add the kernel of each point, divided by the area
+        final double scale = getUnitFactor(pointFeatures) / getKernelArea(radius);
+        if (!scatter(outputImage, points, kernel, scale)) {
+            return null;
+        }
+
+        return createGridCoverage("KernelDensity", outputImage);
+    }
+
+    public GridCoverage2D execute(SimpleFeatureCollection pointFeatures, String weightField,
+            double[] searchRadii) {
+        return execute(pointFeatures, weightField, searchRadii, 0);
+    }
+
+    /**
+     * Calculates one density band per search radius with a single read of the points. The bands
+     * share the points and the kernels of equal radius.
+     * <p>
+     * If neighbors is positive, the bandwidth adapts to the density around each point: the
+     * distance to its k-th nearest point, at least the search radius of the band and at most
+     * {@link #MAX_ADAPTIVE_FACTOR} times it. Each kernel is divided by its own area.
+     *
+     * @param neighbors number of nearest points of the adaptive bandwidth, 0 for a fixed bandwidth
+     */
+    public GridCoverage2D execute(SimpleFeatureCollection pointFeatures, String weightField,
+            double[] searchRadii, int neighbors) {
+        if (searchRadii == null || searchRadii.length == 0) {
+            throw new IllegalArgumentException("searchRadii parameter required");
+        }
+        final int numBands = searchRadii.length;
+
+        // step 1 : read the grid positions of the points
+        calculateExtentAndCellSize(pointFeatures, Integer.MIN_VALUE);
+        final DiskMemImage outputImage = createDiskMemImage(Extent, RasterPixelType.FLOAT, 64,
+                64, numBands);
+        final GridPoints points = loadPoints(pointFeatures, weightField);
+
+        // step 2 : kernel radius in cells of each band and point
+        final int[] bandRadii = new int[numBands];
+        final int[] maxRadii = new int[numBands];
+        int maxRadius = 0;
+        for (int band = 0; band < numBands; band++) {
+            bandRadii[band] = (int) Math.floor(searchRadii[band] / CellSize);
+            maxRadii[band] = neighbors > 0 ? (int) Math.floor(bandRadii[band]
+                    * MAX_ADAPTIVE_FACTOR) : bandRadii[band];
+            maxRadius = Math.max(maxRadius, maxRadii[band]);
+        }
+
+        final double[] distances = neighbors > 0 ? getNearestDistances(points, neighbors) : null;
+
+        // one kernel per radius, shared by the bands
+        final double unitFactor = getUnitFactor(pointFeatures);
+        final KernelStamp[] stamps = new KernelStamp[maxRadius + 1];
+        for (int band = 0; band < numBands; band++) {
+            for (int point = 0; point < (distances == null ? 1 : points.size()); point++) {
+                int radius = getRadius(bandRadii[band], maxRadii[band], distances, point);
+                if (stamps[radius] == null) {
+                    KernelJAI kernel = getKernel(radius);
+                    stamps[radius] = new KernelStamp(kernel, unitFactor / getKernelArea(radius));
+                }
+            }
+        }
+
+        // step 3 : add the kernel of each point to every band
+        final TileStatistics[] bandStatistics = new TileStatistics[numBands];
+        for (int band = 0; band < numBands; band++) {
+            bandStatistics[band] = new TileStatistics(NoData);
+        }
+
+        boolean completed = scatter(outputImage, points, new StampProvider() {
+            @Override
+            public KernelStamp getStamp(int band, int point) {
+                return stamps[getRadius(bandRadii[band], maxRadii[band], distances, point)];
+            }
+        }, bandStatistics);
+
+        if (!completed) {
+            return null;
+        }
+
+        GridSampleDimension[] bands = new GridSampleDimension[numBands];
+        for (int band = 0; band < numBands; band++) {
+            bands[band] = createSampleDimension("Radius " + searchRadii[band], NoData,
+                    bandStatistics[band].getMinValue(), bandStatistics[band].getMaxValue());
+        }
 
-        final RenderingHints hints = new RenderingHints(JAI.KEY_BORDER_EXTENDER,
-                BorderExtender.createInstance(BorderExtender.BORDER_ZERO));
+        return createGridCoverage("KernelDensity", outputImage, bands, NoData, MinValue,
+                MaxValue, Extent);
+    }
 
-        final ParameterBlockJAI pb = new ParameterBlockJAI("Convolve");
-        pb.setSource("source0", outputImage);
-        pb.setParameter("kernel", kernel);
+    // adaptive radius: the nearest neighbor distance within [radius, maximum radius]
+    private int getRadius(int radius, int maxRadius, double[] distances, int point) {
+        if (distances == null) {
+            return radius;
+        }
+        return (int) Math.max(radius, Math.min(maxRadius, Math.floor(distances[point])));
+    }
 
-        PlanarImage densityImage = JAI.create("Convolve", pb, hints);
+    // distance in cells from each point to its k-th nearest point
+    private double[] getNearestDistances(final GridPoints points, final int neighbors) {
+        final int size = points.size();
+        final double[] x = new double[size];
+        final double[] y = new double[size];
+        for (int index = 0; index < size; index++) {
+            x[index] = points.columns[index];
+            y[index] = points.rows[index];
+        }
 
-        // If an area unit is selected, the calculated density for the cell is multiplied by the
-        // appropriate factor before it is written to the output raster.
-        // For example, if the input units are meters, the output area units will default to square
-        // kilometers. Comparing a unit scale factor of meters to kilometers will result in the
-        // values being different by a multiplier of 1,000,000 (1,000 meters x 1,000 meters).
+        final PointKdTree spatialIndex = new PointKdTree(x, y, size);
+        final double[] distances = new double[size];
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                NeighborHeap heap = new NeighborHeap();
+                for (int index = start; index < end; index++) {
+                    spatialIndex.nearest(x[index], y[index], neighbors, index,
+                            DistanceMethod.Euclidean, false, heap);
+                    distances[index] = heap.size() < neighbors ? Double.POSITIVE_INFINITY
+                            : heap.getDistance(heap.size() - 1);
+                }
+            }
+        });
+        return distances;
+    }
 
+    // If an area unit is selected, the calculated density for the cell is multiplied by the
+    // appropriate factor before it is written to the output raster.
+    // For example, if the input units are meters, the output area units will default to square
+    // kilometers. Comparing a unit scale factor of meters to kilometers will result in the
+    // values being different by a multiplier of 1,000,000 (1,000 meters x 1,000 meters).
+    private double getUnitFactor(SimpleFeatureCollection pointFeatures) {
         // if unit is a meter, apply kilometers scale factor
         CoordinateReferenceSystem crs = pointFeatures.getSchema().getCoordinateReferenceSystem();
         if (crs != null && crs.getCoordinateSystem() != null) {
@@ -106,40 +235,39 @@ public class RasterKernelDensityOperation extends RasterDensityOperation {
                 Unit<?> unit = hor.getCoordinateSystem().getAxis(0).getUnit();
                 // UnitConverter converter = SI.METER.getConverterTo(unit);
                 if (unit != null && unit == SI.METRE) {
-                    this.scaleArea = scaleArea / 1000000.0;
+                    return 1000000.0;
                 }
             }
         }
-
-        densityImage = scaleUnit(densityImage);
-
-        return createGridCoverage("KernelDensity", densityImage);
+        return 1.0;
     }
 
-    private KernelJAI getKernel(double searchRadius) {
-        scaleArea = 0.0;
-
-        // http://en.wikipedia.org/wiki/Kernel_(statistics)
-        final int radius = (int) Math.floor(searchRadius / CellSize);
-        final int width = 2 * radius + 1;
-        final double r2 = radius * radius;
-
-        // calculate area
-        final double cellArea = CellSize * CellSize;
-
-        // build kernel
+    // area of the cells covered by the kernel of the radius
+    private double getKernelArea(int radius) {
         final KernelJAI binKernel = KernelFactory.createCircle(radius, ValueType.BINARY);
 
         // use cell's area
+        int cellCount = 0;
         final float[] data = binKernel.getKernelData();
         for (int index = 0; index < data.length; index++) {
             if (data[index] != 0.0) {
-                scaleArea += cellArea;
+                cellCount++;
             }
         }
 
         // area of circle
-        // scaleArea = Math.PI * searchRadius * searchRadius;
+        // return Math.PI * searchRadius * searchRadius;
+        return cellCount * CellSize * CellSize;
+    }
+
+    private KernelJAI getKernel(int radius) {
+        // http://en.wikipedia.org/wiki/Kernel_(statistics)
+        final int width = 2 * radius + 1;
+        final double r2 = radius * radius;
+
+        // build kernel
+        final KernelJAI binKernel = KernelFactory.createCircle(radius, ValueType.BINARY);
+        final float[] data = binKernel.getKernelData();
 
         KernelJAI kernel = null;
         switch (this.kernelType) {
@@ -57,6 +57,7 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.enumeration.RasterPixelType;
 import org.geotools.process.spatialstatistics.storage.FeatureInserter;
@@ -108,6 +109,8 @@ public abstract class RasterProcessingOperation {
 
     protected double MaxValue = Double.MIN_VALUE;
 
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
+
     private String outTypeName = null;
 
     private DataStore outDataStore = null;
@@ -160,6 +163,182 @@ public abstract class RasterProcessingOperation {
         this.MaxValue = Math.max(MaxValue, retVal);
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Computes the value of a cell. Called from several threads.
+     */
+    protected interface CellCalculator {
+        double getValue(int column, int row);
+    }
+
+    /**
+     * Color space of multi-band images with one component per band. The first band is displayed
+     * as gray.
+     */
+    static final class BandColorSpace extends ColorSpace {
+        private static final long serialVersionUID = 3437284613935962585L;
+
+        private static final ColorSpace sRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+
+        public BandColorSpace(int numComponents) {
+            super(numComponents <= 15 ? ColorSpace.TYPE_2CLR + numComponents - 2
+                    : ColorSpace.TYPE_FCLR, numComponents);
+        }
+
+        @Override
+        public float[] toRGB(float[] colorvalue) {
+            final float gray = Math.max(0f, Math.min(1f, colorvalue[0]));
+            return new float[] { gray, gray, gray };
+        }
+
+        @Override
+        public float[] fromRGB(float[] rgbvalue) {
+            final float[] colorvalue = new float[getNumComponents()];
+            colorvalue[0] = (rgbvalue[0] + rgbvalue[1] + rgbvalue[2]) / 3f;
+            return colorvalue;
+        }
+
+        @Override
+        public float[] toCIEXYZ(float[] colorvalue) {
+            return sRGB.toCIEXYZ(toRGB(colorvalue));
+        }
+
+        @Override
+        public float[] fromCIEXYZ(float[] colorvalue) {
+            return fromRGB(sRGB.fromCIEXYZ(colorvalue));
+        }
+    }
+
+    /**
+     * Writes one tile of an image. Only the bounds, the tile clipped to the image, are written.
+     * Called from several threads, each with its own tile.
+     */
+    protected interface TileTask {
+        void execute(WritableRaster raster, Rectangle bounds, TileStatistics statistics);
+    }
+
+    /**
+     * Minimum and maximum of the values written to one tile, ignoring NoData.
+     */
+    protected static final class TileStatistics {
+        private final double noData;
+
+        private double minValue = Double.MAX_VALUE;
+
+        private double maxValue = -Double.MAX_VALUE;
+
+        private boolean empty = true;
+
+        public TileStatistics(double noData) {
+            this.noData = noData;
+        }
+
+        public void add(double value) {
+            if (SSUtils.compareDouble(value, noData)) {
+                return;
+            }
+
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+            empty = false;
+        }
+
+        public void merge(TileStatistics other) {
+            if (!other.empty) {
+                minValue = Math.min(minValue, other.minValue);
+                maxValue = Math.max(maxValue, other.maxValue);
+                empty = false;
+            }
+        }
+
+        public double getMinValue() {
+            return minValue;
+        }
+
+        public double getMaxValue() {
+            return maxValue;
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+    }
+
+    /**
+     * Computes every cell of the first band of the image, see
+     * {@link #executeTiles(DiskMemImage, TileTask)}.
+     */
+    protected boolean executeTiles(DiskMemImage image, final CellCalculator calculator) {
+        return executeTiles(image, new TileTask() {
+            @Override
+            public void execute(WritableRaster raster, Rectangle bounds, TileStatistics statistics) {
+                for (int row = bounds.y; row < bounds.y + bounds.height; row++) {
+                    for (int column = bounds.x; column < bounds.x + bounds.width; column++) {
+                        final double value = calculator.getValue(column, row);
+                        raster.setSample(column, row, 0, value);
+                        statistics.add(value);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the task on every tile of the image, on at most {@link #getParallelism()} threads
+     * of the shared pool. The statistics of the tiles are reduced into MinValue and MaxValue.
+     * Progress is reported per tile and cancellation is checked before each tile.
+     *
+     * @return false if the operation was canceled
+     */
+    protected boolean executeTiles(final DiskMemImage image, final TileTask task) {
+        final int numXTiles = image.getNumXTiles();
+        final int tileCount = numXTiles * image.getNumYTiles();
+        final Rectangle imageBounds = image.getBounds();
+        final TileStatistics[] statistics = new TileStatistics[tileCount];
+
+        ParallelExecutor.execute(tileCount, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int index = start; index < end; index++) {
+                    final int tileX = image.getMinTileX() + index % numXTiles;
+                    final int tileY = image.getMinTileY() + index / numXTiles;
+
+                    WritableRaster raster = null;
+                    synchronized (image) {
+                        raster = image.getWritableTile(tileX, tileY);
+                    }
+
+                    try {
+                        Rectangle bounds = raster.getBounds().intersection(imageBounds);
+                        statistics[index] = new TileStatistics(NoData);
+                        task.execute(raster, bounds, statistics[index]);
+                    } finally {
+                        synchronized (image) {
+                            image.releaseWritableTile(tileX, tileY);
+                        }
+                    }
+                }
+            }
+        }, parallelism, 1, Progress);
+
+        for (TileStatistics tileStatistics : statistics) {
+            if (tileStatistics == null || tileStatistics.empty) {
+                continue;
+            }
+            MinValue = Math.min(MinValue, tileStatistics.minValue);
+            MaxValue = Math.max(MaxValue, tileStatistics.maxValue);
+        }
+
+        return Progress == null || !Progress.isCanceled();
+    }
+
     /**
      * Fill the specified raster with the provided background values
      * 
@@ -423,6 +602,11 @@ public abstract class RasterProcessingOperation {
 
     protected DiskMemImage createDiskMemImage(ReferencedEnvelope extent,
             RasterPixelType transferType, int tw, int th) {
+        return createDiskMemImage(extent, transferType, tw, th, 1);
+    }
+
+    protected DiskMemImage createDiskMemImage(ReferencedEnvelope extent,
+            RasterPixelType transferType, int tw, int th, int numBands) {
         // set pixel type
         PixelType = transferType;
 
@@ -439,31 +623,43 @@ public abstract class RasterProcessingOperation {
 
         switch (transferType) {
         case BYTE:
-            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_BYTE, tw, th, 1);
+            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_BYTE, tw, th,
+                    numBands);
             ColorSpace bcs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
             cm = new ComponentColorModel(bcs, false, false, Transparency.TRANSLUCENT,
                     DataBuffer.TYPE_BYTE);
             break;
         case SHORT:
-            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_SHORT, tw, th, 1);
+            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_SHORT, tw, th,
+                    numBands);
             ColorSpace scs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
             cm = new ComponentColorModel(scs, false, false, Transparency.TRANSLUCENT,
                     DataBuffer.TYPE_SHORT);
             break;
         case INTEGER:
-            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_INT, tw, th, 1);
+            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_INT, tw, th,
+                    numBands);
             cm = PlanarImage.createColorModel(sampleModel);
             break;
         case FLOAT:
-            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, tw, th, 1);
+            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, tw, th,
+                    numBands);
             cm = PlanarImage.createColorModel(sampleModel);
             break;
         case DOUBLE:
-            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, tw, th, 1);
+            sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, tw, th,
+                    numBands);
             cm = PlanarImage.createColorModel(sampleModel);
             break;
         }
 
+        if (numBands > 1) {
+            // gray color spaces have a single component, and the default color model of two bands
+            // is gray with alpha and of more than four bands is null
+            cm = new ComponentColorModel(new BandColorSpace(numBands), false, false,
+                    Transparency.OPAQUE, sampleModel.getDataType());
+        }
+
         // Create a TiledImage using the SampleModel.
         Dimension dm = RasterHelper.getDimension(Extent, CellSize);
 
@@ -551,19 +747,12 @@ public abstract class RasterProcessingOperation {
             noDataValue = minValue - 1;
         }
 
-        Color[] colors = new Color[] { Color.BLUE, Color.CYAN, Color.GREEN, Color.YELLOW, Color.RED };
-
         CharSequence noDataName = Vocabulary.formatInternational(VocabularyKeys.NODATA);
-        
-        Category nan = new Category(noDataName, new Color[] { new Color(255, 255, 255, 0) },
-                NumberRange.create(noDataValue, noDataValue));
 
-        Category values = new Category("values", colors, NumberRange.create(minValue, maxValue));
-        
         GridSampleDimension[] bands = null;
         GridSampleDimension band = null;
 
-        band = new GridSampleDimension("Dimension", new Category[] { nan, values }, null);
+        band = createSampleDimension("Dimension", noDataValue, minValue, maxValue);
         bands = new GridSampleDimension[] { band };
 
         // setting metadata
@@ -578,4 +767,21 @@ public abstract class RasterProcessingOperation {
         GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
         return factory.create(name, tiledImage, extent, bands, null, properties);
     }
+
+    /**
+     * Creates a sample dimension with a NoData category and a colored category of values.
+     */
+    protected GridSampleDimension createSampleDimension(CharSequence name, double noDataValue,
+            double minValue, double maxValue) {
+        Color[] colors = new Color[] { Color.BLUE, Color.CYAN, Color.GREEN, Color.YELLOW, Color.RED };
+
+        CharSequence noDataName = Vocabulary.formatInternational(VocabularyKeys.NODATA);
+
+        Category nan = new Category(noDataName, new Color[] { new Color(255, 255, 255, 0) },
+                NumberRange.create(noDataValue, noDataValue));
+
+        Category values = new Category("values", colors, NumberRange.create(minValue, maxValue));
+
+        return new GridSampleDimension(name, new Category[] { nan, values }, null);
+    }
 }
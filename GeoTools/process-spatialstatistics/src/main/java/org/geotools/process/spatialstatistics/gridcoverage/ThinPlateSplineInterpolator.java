@@ -16,154 +16,359 @@
  */
 package org.geotools.process.spatialstatistics.gridcoverage;
 
-import org.geotools.referencing.operation.matrix.GeneralMatrix;
+import java.util.logging.Logger;
+
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
+import org.geotools.process.spatialstatistics.core.PointKdTree;
+import org.geotools.process.spatialstatistics.core.PointKdTree.NeighborHeap;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Coordinate;
 
 /**
  * Implementation of 2D Thin Plate Spline interpolation.
  * <p>
+ * Up to {@link #GLOBAL_LIMIT} samples, or if the number of neighbors is not positive, one global
+ * spline is fitted over all samples. Larger sample sets are split into a regular grid of
+ * partitions: a local spline is fitted over the k nearest samples of each partition center, and a
+ * cell blends the splines of the four surrounding partition centers with smooth weights. Memory is
+ * then O(n k), setup O(n k<sup>2</sup>) and each cell O(k).
+ * <p>
+ * The linear systems are solved by LU decomposition with partial pivoting in coordinates relative
+ * to the spline center, instead of inverting the matrix. Duplicate samples are handled by a small
+ * regularization, and a spline over collinear samples falls back to their mean value.
+ * <p>
  * http://en.wikipedia.org/wiki/Thin_plate_spline <br>
  * http://elonen.iki.fi/code/tpsdemo/index.html
- * 
+ *
  * @author Minpa Lee
  * @see https://github.com/geotools/geotools/blob/master/spike/jan/gsoc-transformations/src/main/java/org/geotools/referencing/operation/builder/algorithm/TPSInterpolation.java
  * @source $URL$
  */
 public class ThinPlateSplineInterpolator extends AbstractInterpolator {
+    protected static final Logger LOGGER = Logging.getLogger(ThinPlateSplineInterpolator.class);
+
+    /** Maximum number of samples fitted by one global spline */
+    public static final int GLOBAL_LIMIT = 1000;
+
+    /** Default number of nearest samples of a local spline */
+    public static final int DEFAULT_NEIGHBORS = 64;
+
+    private static final double SINGULAR_TOLERANCE = 1e-12;
+
+    private static final double REGULARIZATION = 1e-9;
+
+    private Spline[] splines;
+
+    // partition grid, the spline of partition (column, row) is centered on the partition
+    private double minX;
 
-    /** Main matrix (according http://elonen.iki.fi/code/tpsdemo/index.html) */
-    private GeneralMatrix L;
+    private double minY;
 
-    /** Matrix of target values (according http://elonen.iki.fi/code/tpsdemo/index.html) */
-    private GeneralMatrix V;
+    private double partitionSize;
 
-    private GeneralMatrix result;
+    private int columns = 1;
+
+    private int rows = 1;
 
     public ThinPlateSplineInterpolator(Coordinate[] samples) {
+        this(samples, samples.length <= GLOBAL_LIMIT ? 0 : DEFAULT_NEIGHBORS);
+    }
+
+    /**
+     * @param neighbors number of nearest samples of the local splines, 0 fits one global spline
+     */
+    public ThinPlateSplineInterpolator(Coordinate[] samples, int neighbors) {
         this.samples = samples;
         this.number = samples.length;
 
-        L = new GeneralMatrix(number + 3, number + 3);
+        if (neighbors <= 0 || neighbors >= number) {
+            fitGlobal();
+        } else {
+            fitLocal(Math.max(3, neighbors));
+        }
+    }
+
+    private void fitGlobal() {
+        int[] indexes = new int[number];
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < number; i++) {
+            indexes[i] = i;
+            sumX += samples[i].x;
+            sumY += samples[i].y;
+        }
+
+        splines = new Spline[1];
+        if (number > 0) {
+            splines[0] = fit(indexes, number, sumX / number, sumY / number);
+        }
+    }
+
+    private void fitLocal(final int neighbors) {
+        final double[] x = new double[number];
+        final double[] y = new double[number];
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        minX = minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < number; i++) {
+            x[i] = samples[i].x;
+            y[i] = samples[i].y;
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
 
-        fillKsubMatrix();
-        fillPsubMatrix();
-        fillOsubMatrix();
+        // the k nearest samples of a spline should cover the partitions it is blended over
+        final double width = maxX - minX;
+        final double height = maxY - minY;
+        partitionSize = Math.sqrt(width * height * neighbors / (2.0 * Math.PI * number));
+        if (partitionSize == 0) {
+            partitionSize = Math.max(width, height) * neighbors / (2.0 * number);
+        }
+
+        if (partitionSize > 0) {
+            columns = Math.max(1, (int) Math.ceil(width / partitionSize));
+            rows = Math.max(1, (int) Math.ceil(height / partitionSize));
+        }
 
-        L.invert();
+        final PointKdTree spatialIndex = new PointKdTree(x, y, number);
+        splines = new Spline[columns * rows];
 
-        GeneralMatrix V = fillVMatrix(0);
-        result = new GeneralMatrix(number + 3, 1);
-        result.mul(L, V);
+        ParallelExecutor.execute(splines.length, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                NeighborHeap heap = new NeighborHeap();
+                int[] indexes = new int[neighbors];
+                for (int i = start; i < end; i++) {
+                    double centerX = minX + ((i % columns) + 0.5) * partitionSize;
+                    double centerY = minY + ((i / columns) + 0.5) * partitionSize;
+
+                    spatialIndex.nearest(centerX, centerY, neighbors, -1,
+                            DistanceMethod.Euclidean, false, heap);
+                    for (int pos = 0; pos < heap.size(); pos++) {
+                        indexes[pos] = heap.getIndex(pos);
+                    }
+                    splines[i] = fit(indexes, heap.size(), centerX, centerY);
+                }
+            }
+        }, ParallelExecutor.DEFAULT_PARALLELISM, 16, null);
     }
 
     @Override
     public double getValue(Coordinate p) {
-        double a1 = result.getElement(result.getNumRow() - 3, 0);
-        double a2 = result.getElement(result.getNumRow() - 2, 0);
-        double a3 = result.getElement(result.getNumRow() - 1, 0);
+        if (number == 0) {
+            return -Float.MAX_VALUE;
+        } else if (splines.length == 1) {
+            return splines[0].getValue(p.x, p.y);
+        }
 
-        double sum = 0;
-        for (int i = 0; i < (result.getNumRow() - 3); i++) {
-            double dist = p.distance(samples[i]);
-            sum += (result.getElement(i, 0) * functionU(dist));
+        // position relative to the partition centers, clamped to the outer centers
+        double fx = Math.max(0, Math.min(columns - 1, (p.x - minX) / partitionSize - 0.5));
+        double fy = Math.max(0, Math.min(rows - 1, (p.y - minY) / partitionSize - 0.5));
+        int col = Math.min((int) fx, Math.max(0, columns - 2));
+        int row = Math.min((int) fy, Math.max(0, rows - 2));
+        double tx = smoothStep(fx - col);
+        double ty = smoothStep(fy - row);
+
+        double value = 0;
+        for (int r = 0; r < 2; r++) {
+            double wy = r == 0 ? 1 - ty : ty;
+            if (wy == 0 || row + r >= rows) {
+                continue;
+            }
+            for (int c = 0; c < 2; c++) {
+                double wx = c == 0 ? 1 - tx : tx;
+                if (wx == 0 || col + c >= columns) {
+                    continue;
+                }
+                value += wx * wy * splines[(row + r) * columns + col + c].getValue(p.x, p.y);
+            }
         }
+        return value;
+    }
 
-        return sum + a1 + (a2 * p.x) + (a3 * p.y);
+    // blending weight with zero slope at the partition centers, so the surface stays smooth
+    private static double smoothStep(double t) {
+        return t * t * (3 - 2 * t);
     }
 
     /**
-     * Calculates U function for distance
-     * 
-     * @param distance distance
+     * Calculates U function for squared distance
+     *
      * @return log(distance)*distance<sub>2</sub> or 0 if distance = 0
      */
-    private double functionU(double distance) {
-        if (distance == 0) {
+    private static double functionU(double squaredDistance) {
+        if (squaredDistance == 0) {
             return 0;
         }
-
-        return distance * distance * Math.log(distance);
+        return 0.5 * squaredDistance * Math.log(squaredDistance);
     }
 
     /**
-     * Calculates U function where distance = ||p_i, p_j|| (from source points)
-     * 
-     * @param p_i p_i
-     * @param p_j p_j
-     * @return log(distance)*distance<sub>2</sub> or 0 if distance = 0
+     * Fits a spline over the samples, in coordinates relative to the center and scaled to the
+     * sample spread, so the system stays well conditioned for projected coordinates.
      */
-    private double calculateFunctionU(Coordinate p_i, Coordinate p_j) {
-        double distance = p_i.distance(p_j);
-
-        return functionU(distance);
-    }
+    private Spline fit(int[] indexes, int count, double centerX, double centerY) {
+        double scale = 0;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] z = new double[count];
+        for (int i = 0; i < count; i++) {
+            Coordinate sample = samples[indexes[i]];
+            x[i] = sample.x - centerX;
+            y[i] = sample.y - centerY;
+            z[i] = sample.z;
+            scale = Math.max(scale, Math.max(Math.abs(x[i]), Math.abs(y[i])));
+        }
 
-    /**
-     * Fill K submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
-     */
-    private void fillKsubMatrix() {
-        double alfa = 0;
+        scale = scale == 0 ? 1 : scale;
+        for (int i = 0; i < count; i++) {
+            x[i] /= scale;
+            y[i] /= scale;
+        }
 
-        for (int i = 0; i < number; i++) {
-            for (int j = i + 1; j < number; j++) {
-                double u = calculateFunctionU(samples[i], samples[j]);
-                L.setElement(i, j, u);
-                L.setElement(j, i, u);
-                alfa = alfa + (u * 2); // same for upper and lower part
+        Spline spline = new Spline(x, y, centerX, centerY, scale);
+        if (!spline.solve(z, 0)) {
+            // duplicate samples make the system singular
+            if (!spline.solve(z, REGULARIZATION)) {
+                spline.setConstant(z);
             }
         }
-
-        alfa = alfa / (number * number);
+        return spline;
     }
 
-    /**
-     * Fill L submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
-     */
-    private void fillPsubMatrix() {
-        for (int i = 0; i < number; i++) {
-            L.setElement(i, i, 0);
+    static final class Spline {
+
+        final double[] x;
+
+        final double[] y;
+
+        final double centerX;
+
+        final double centerY;
 
-            Coordinate source = samples[i];
+        final double scale;
 
-            L.setElement(i, number + 0, 1);
-            L.setElement(i, number + 1, source.x);
-            L.setElement(i, number + 2, source.y);
+        // kernel weights followed by the affine coefficients a1 + a2 * x + a3 * y
+        double[] coefficients;
 
-            L.setElement(number + 0, i, 1);
-            L.setElement(number + 1, i, source.x);
-            L.setElement(number + 2, i, source.y);
+        Spline(double[] x, double[] y, double centerX, double centerY, double scale) {
+            this.x = x;
+            this.y = y;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.scale = scale;
         }
-    }
 
-    /**
-     * Fill O submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
-     */
-    private void fillOsubMatrix() {
-        for (int i = number; i < (number + 3); i++) {
-            for (int j = number; j < (number + 3); j++) {
-                L.setElement(i, j, 0);
+        double getValue(double px, double py) {
+            final int n = x.length;
+            final double u = (px - centerX) / scale;
+            final double v = (py - centerY) / scale;
+
+            double sum = coefficients[n] + coefficients[n + 1] * u + coefficients[n + 2] * v;
+            for (int i = 0; i < n; i++) {
+                if (coefficients[i] != 0) {
+                    double dx = u - x[i];
+                    double dy = v - y[i];
+                    sum += coefficients[i] * functionU(dx * dx + dy * dy);
+                }
             }
+            return sum;
         }
-    }
 
-    /**
-     * Fill V matrix (matrix of target values)
-     * 
-     * @param dim 0 for dx, 1 for dy.
-     * @return V Matrix
-     */
-    private GeneralMatrix fillVMatrix(int dim) {
-        V = new GeneralMatrix(number + 3, 1);
-
-        for (int i = 0; i < number; i++) {
-            V.setElement(i, 0, samples[i].z);
+        void setConstant(double[] z) {
+            final int n = x.length;
+            double mean = 0;
+            for (int i = 0; i < n; i++) {
+                mean += z[i];
+            }
+            coefficients = new double[n + 3];
+            coefficients[n] = n == 0 ? -Float.MAX_VALUE : mean / n;
         }
 
-        V.setElement(V.getNumRow() - 3, 0, 0);
-        V.setElement(V.getNumRow() - 2, 0, 0);
-        V.setElement(V.getNumRow() - 1, 0, 0);
+        /**
+         * Solves [K + lambda I, P; P<sup>T</sup>, O] [w; a] = [z; 0] by LU decomposition with
+         * partial pivoting.
+         *
+         * @return false if the system is singular
+         */
+        boolean solve(double[] z, double lambda) {
+            final int n = x.length;
+            final int size = n + 3;
+            final double[] L = new double[size * size];
+            final double[] b = new double[size];
+
+            // fill K, P and O sub matrices (see http://elonen.iki.fi/code/tpsdemo/index.html)
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    double dx = x[i] - x[j];
+                    double dy = y[i] - y[j];
+                    double u = functionU(dx * dx + dy * dy);
+                    L[i * size + j] = u;
+                    L[j * size + i] = u;
+                }
+                L[i * size + i] = lambda;
+
+                L[i * size + n] = L[n * size + i] = 1;
+                L[i * size + n + 1] = L[(n + 1) * size + i] = x[i];
+                L[i * size + n + 2] = L[(n + 2) * size + i] = y[i];
+                b[i] = z[i];
+            }
+
+            double maxAbs = 0;
+            for (int i = 0; i < L.length; i++) {
+                maxAbs = Math.max(maxAbs, Math.abs(L[i]));
+            }
+            final double tolerance = SINGULAR_TOLERANCE * Math.max(1, maxAbs);
+
+            // forward elimination
+            for (int k = 0; k < size; k++) {
+                int pivot = k;
+                for (int i = k + 1; i < size; i++) {
+                    if (Math.abs(L[i * size + k]) > Math.abs(L[pivot * size + k])) {
+                        pivot = i;
+                    }
+                }
+                if (Math.abs(L[pivot * size + k]) <= tolerance) {
+                    return false;
+                }
 
-        return V;
+                if (pivot != k) {
+                    for (int j = k; j < size; j++) {
+                        double t = L[k * size + j];
+                        L[k * size + j] = L[pivot * size + j];
+                        L[pivot * size + j] = t;
+                    }
+                    double t = b[k];
+                    b[k] = b[pivot];
+                    b[pivot] = t;
+                }
+
+                final double diagonal = L[k * size + k];
+                for (int i = k + 1; i < size; i++) {
+                    final double factor = L[i * size + k] / diagonal;
+                    if (factor == 0) {
+                        continue;
+                    }
+                    for (int j = k + 1; j < size; j++) {
+                        L[i * size + j] -= factor * L[k * size + j];
+                    }
+                    b[i] -= factor * b[k];
+                }
+            }
+
+            // back substitution
+            for (int i = size - 1; i >= 0; i--) {
+                double sum = b[i];
+                for (int j = i + 1; j < size; j++) {
+                    sum -= L[i * size + j] * b[j];
+                }
+                b[i] = sum / L[i * size + i];
+            }
+
+            coefficients = b;
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
@@ -17,8 +17,8 @@
 package org.geotools.process.spatialstatistics.operations;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -66,96 +66,179 @@ public class CollectEventsOperation extends GeneralOperation {
         schema = FeatureTypes.add(schema, countField, Integer.class);
         Class<?> outputBinding = schema.getDescriptor(countField).getType().getBinding();
 
-        List<Event> events = buildIndex(points);
-        List<Event> coincidentEvents = new ArrayList<Event>();
-        List<String> processedMap = new ArrayList<String>();
+        EventGrid grid = buildIndex(points);
+        BitSet processed = new BitSet(grid.size);
 
         IFeatureInserter featureWriter = getFeatureWriter(schema);
         SimpleFeatureIterator featureIter = points.features();
         try {
+            int index = -1;
             while (featureIter.hasNext()) {
                 SimpleFeature feature = featureIter.next();
-                String featureID = feature.getID();
-                if (processedMap.contains(featureID)) {
+                index++;
+                if (processed.get(index)) {
                     continue;
                 }
 
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                Coordinate coordinate = geometry.getCoordinate();
-
                 // count coincident events
-                int featureCount = 1;
-                for (Event event : events) {
-                    if (processedMap.contains(event.getFID()) || event.equalsFID(featureID)
-                            || event.distance(coordinate) > tolerance) {
-                        continue;
-                    }
-
-                    featureCount++;
-                    processedMap.add(event.getFID());
-                    coincidentEvents.add(event);
-                }
-
-                // remove coincident events
-                if (coincidentEvents.size() > 0) {
-                    events.removeAll(coincidentEvents);
-                    coincidentEvents.clear();
-                }
+                processed.set(index);
+                int featureCount = 1 + grid.collect(index, tolerance, processed);
 
                 // create & insert feature
-                SimpleFeature newFeature = featureWriter.buildFeature(featureID);
+                SimpleFeature newFeature = featureWriter.buildFeature(feature.getID());
                 featureWriter.copyAttributes(feature, newFeature, true);
                 Object countVal = Converters.convert(featureCount, outputBinding);
                 newFeature.setAttribute(countField, countVal);
 
                 featureWriter.write(newFeature);
-                processedMap.add(featureID);
             }
         } catch (Exception e) {
             featureWriter.rollback(e);
         } finally {
+            featureIter.close();
             featureWriter.close();
         }
 
         return featureWriter.getFeatureCollection();
     }
 
-    private List<Event> buildIndex(SimpleFeatureCollection points) {
-        List<Event> events = new ArrayList<Event>();
+    private EventGrid buildIndex(SimpleFeatureCollection points) {
+        EventGrid grid = new EventGrid(tolerance > 0 ? tolerance : 1d);
         SimpleFeatureIterator featureIter = points.features();
         try {
             while (featureIter.hasNext()) {
                 SimpleFeature feature = featureIter.next();
                 Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                events.add(new Event(feature.getID(), geometry.getCoordinate()));
+                if (geometry == null || geometry.isEmpty()) {
+                    grid.add(Double.NaN, Double.NaN); // never coincident
+                } else {
+                    Coordinate coordinate = geometry.getCoordinate();
+                    grid.add(coordinate.x, coordinate.y);
+                }
             }
         } finally {
             featureIter.close();
         }
-        return events;
+        return grid;
     }
 
-    final class Event {
+    /**
+     * Events hashed into square cells of the tolerance size, in feature order. Events of a cell
+     * are chained by index, so coincident events are searched in the 3 x 3 neighboring cells only.
+     */
+    static final class EventGrid {
 
-        private String fid;
+        private static final int NONE = -1;
 
-        private Coordinate coordinate;
+        final double cellSize;
 
-        public Event(String fid, Coordinate coordinate) {
-            this.fid = fid;
-            this.coordinate = coordinate;
+        int size = 0;
+
+        double[] x = new double[1024];
+
+        double[] y = new double[1024];
+
+        long[] cellX = new long[1024];
+
+        long[] cellY = new long[1024];
+
+        int[] next = new int[1024];
+
+        // open addressing table of the first event of each cell
+        int[] heads = new int[2048];
+
+        int cells = 0;
+
+        EventGrid(double cellSize) {
+            this.cellSize = cellSize;
+            Arrays.fill(heads, NONE);
         }
 
-        public String getFID() {
-            return this.fid;
+        void add(double px, double py) {
+            if (size == x.length) {
+                int capacity = size * 2;
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                cellX = Arrays.copyOf(cellX, capacity);
+                cellY = Arrays.copyOf(cellY, capacity);
+                next = Arrays.copyOf(next, capacity);
+            }
+
+            final int index = size++;
+            x[index] = px;
+            y[index] = py;
+            next[index] = NONE;
+            if (Double.isNaN(px) || Double.isNaN(py)) {
+                return;
+            }
+
+            cellX[index] = (long) Math.floor(px / cellSize);
+            cellY[index] = (long) Math.floor(py / cellSize);
+
+            int slot = find(cellX[index], cellY[index]);
+            if (heads[slot] == NONE) {
+                heads[slot] = index;
+                if (++cells * 2 > heads.length) {
+                    rehash();
+                }
+            } else {
+                next[index] = next[heads[slot]];
+                next[heads[slot]] = index;
+            }
         }
 
-        public boolean equalsFID(String fid) {
-            return this.fid.equals(fid);
+        /**
+         * Marks the unprocessed events within the tolerance of the event as processed and returns
+         * their number.
+         */
+        int collect(int index, double tolerance, BitSet processed) {
+            if (Double.isNaN(x[index]) || Double.isNaN(y[index])) {
+                return 0;
+            }
+
+            int count = 0;
+            for (long cx = cellX[index] - 1; cx <= cellX[index] + 1; cx++) {
+                for (long cy = cellY[index] - 1; cy <= cellY[index] + 1; cy++) {
+                    for (int j = heads[find(cx, cy)]; j != NONE; j = next[j]) {
+                        if (processed.get(j)) {
+                            continue;
+                        }
+
+                        double dx = x[j] - x[index];
+                        double dy = y[j] - y[index];
+                        if (Math.sqrt(dx * dx + dy * dy) <= tolerance) {
+                            processed.set(j);
+                            count++;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        private int find(long cx, long cy) {
+            final int mask = heads.length - 1;
+            long hash = (cx * 0x9e3779b97f4a7c15L) ^ (cy * 0xc2b2ae3d27d4eb4fL);
+            int slot = (int) (hash ^ (hash >>> 29)) & mask;
+            while (heads[slot] != NONE) {
+                int head = heads[slot];
+                if (cellX[head] == cx && cellY[head] == cy) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
         }
 
-        public double distance(Coordinate coordinate) {
-            return this.coordinate.distance(coordinate);
+        private void rehash() {
+            int[] oldHeads = heads;
+            heads = new int[oldHeads.length * 2];
+            Arrays.fill(heads, NONE);
+            for (int head : oldHeads) {
+                if (head != NONE) {
+                    heads[find(cellX[head], cellY[head])] = head;
+                }
+            }
         }
     }
 
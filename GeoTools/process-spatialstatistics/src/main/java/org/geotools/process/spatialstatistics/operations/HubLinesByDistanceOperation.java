@@ -24,6 +24,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.NearestFeatureFinder;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
@@ -45,6 +46,8 @@ import com.vividsolutions.jts.geom.LineString;
 public class HubLinesByDistanceOperation extends AbstractHubLinesOperation {
     protected static final Logger LOGGER = Logging.getLogger(HubLinesByDistanceOperation.class);
 
+    static final int BATCH_SIZE = 4096;
+
     public SimpleFeatureCollection execute(SimpleFeatureCollection spokeFeatures,
             SimpleFeatureCollection hubFeatures, String hubIdField, boolean useCentroid,
             boolean preserveAttributes, double maximumDistance) throws IOException {
@@ -80,46 +83,24 @@ public class HubLinesByDistanceOperation extends AbstractHubLinesOperation {
         IFeatureInserter featureWriter = getFeatureWriter(featureType);
 
         List<Hub> hubs = loadHubs(hubFeatures, hubIdField);
+        List<Geometry> locations = new ArrayList<Geometry>(hubs.size());
+        for (Hub hub : hubs) {
+            locations.add(hub.location);
+        }
+        NearestFeatureFinder finder = new NearestFeatureFinder(locations);
+
+        // spokes are searched in parallel batches and written in order
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
         SimpleFeatureIterator spokeIter = spokeFeatures.features();
         try {
             while (spokeIter.hasNext()) {
-                SimpleFeature spokeFeature = spokeIter.next();
-                Geometry spokeGeom = (Geometry) spokeFeature.getDefaultGeometry();
-                if (useCentroid) {
-                    spokeGeom = spokeGeom.getCentroid();
-                }
-
-                // find nearest hub
-                Hub nearestHub = null;
-                double minDist = Double.MAX_VALUE;
-                for (Hub currentHub : hubs) {
-                    double currentDist = currentHub.location.distance(spokeGeom);
-                    if (minDist > currentDist) {
-                        minDist = currentDist;
-                        nearestHub = currentHub;
-                    }
-                }
-
-                // create line: direction = spoke --> hub
-                Geometry hubLine = getShortestLine(spokeGeom, nearestHub.location, false);
-                double distance = hubLine.getLength();
-                if (distance == 0 || this.maximumDistance < distance) {
-                    continue;
-                }
-
-                // create & insert feature
-                SimpleFeature newFeature = featureWriter.buildFeature(null);
-                if (preserveAttributes) {
-                    featureWriter.copyAttributes(spokeFeature, newFeature, false);
-                }
-
-                newFeature.setDefaultGeometry(hubLine);
-                if (hasHubID) {
-                    newFeature.setAttribute(hubIdField, nearestHub.id);
+                batch.add(spokeIter.next());
+                if (batch.size() == BATCH_SIZE) {
+                    writeBatch(batch, finder, hubs, hasHubID ? hubIdField : null, featureWriter);
+                    batch.clear();
                 }
-                newFeature.setAttribute(HUB_DIST, distance);
-                featureWriter.write(newFeature);
             }
+            writeBatch(batch, finder, hubs, hasHubID ? hubIdField : null, featureWriter);
         } catch (IOException e) {
             featureWriter.rollback(e);
         } finally {
@@ -129,6 +110,51 @@ public class HubLinesByDistanceOperation extends AbstractHubLinesOperation {
         return featureWriter.getFeatureCollection();
     }
 
+    private void writeBatch(List<SimpleFeature> batch, NearestFeatureFinder finder,
+            List<Hub> hubs, String hubIdField, IFeatureInserter featureWriter)
+            throws IOException {
+        final int count = batch.size();
+        Geometry[] spokeGeoms = new Geometry[count];
+        for (int i = 0; i < count; i++) {
+            Geometry spokeGeom = (Geometry) batch.get(i).getDefaultGeometry();
+            if (useCentroid && spokeGeom != null) {
+                spokeGeom = spokeGeom.getCentroid();
+            }
+            spokeGeoms[i] = spokeGeom;
+        }
+
+        // find nearest hub
+        double[] distances = new double[count];
+        int[] nearests = finder.nearest(spokeGeoms, count, maximumDistance, distances);
+
+        for (int i = 0; i < count; i++) {
+            if (nearests[i] == -1 || distances[i] == 0) {
+                continue;
+            }
+
+            // create line: direction = spoke --> hub
+            Hub nearestHub = hubs.get(nearests[i]);
+            Geometry hubLine = getShortestLine(spokeGeoms[i], nearestHub.location, false);
+            double distance = hubLine.getLength();
+            if (distance == 0 || this.maximumDistance < distance) {
+                continue;
+            }
+
+            // create & insert feature
+            SimpleFeature newFeature = featureWriter.buildFeature(null);
+            if (preserveAttributes) {
+                featureWriter.copyAttributes(batch.get(i), newFeature, false);
+            }
+
+            newFeature.setDefaultGeometry(hubLine);
+            if (hubIdField != null) {
+                newFeature.setAttribute(hubIdField, nearestHub.id);
+            }
+            newFeature.setAttribute(HUB_DIST, distance);
+            featureWriter.write(newFeature);
+        }
+    }
+
     private List<Hub> loadHubs(SimpleFeatureCollection hubFeatures, String hubIdField) {
         List<Hub> hubs = new ArrayList<Hub>();
 
@@ -24,6 +24,7 @@ import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.NearestFeatureFinder;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
@@ -45,6 +46,8 @@ public class NearOperation extends GeneralOperation {
 
     protected static final String DIST_FIELD = "dist";
 
+    static final int BATCH_SIZE = 4096;
+
     protected double maximumDistance = Double.MAX_VALUE;
 
     public void setMaximumDistance(double maximumDistance) {
@@ -85,42 +88,24 @@ public class NearOperation extends GeneralOperation {
         IFeatureInserter featureWriter = getFeatureWriter(featureType);
 
         List<NearFeature> hubs = loadNearFeatures(nearFeatures, nearIdField);
+        List<Geometry> locations = new ArrayList<Geometry>(hubs.size());
+        for (NearFeature hub : hubs) {
+            locations.add(hub.location);
+        }
+        NearestFeatureFinder finder = new NearestFeatureFinder(locations);
+
+        // input features are searched in parallel batches and written in order
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
         SimpleFeatureIterator featureIter = inputFeatures.features();
         try {
             while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-
-                // find nearest hub
-                NearFeature nearFeature = null;
-                double minumumDistance = Double.MAX_VALUE;
-                for (NearFeature currentHub : hubs) {
-                    double currentDist = geometry.distance(currentHub.location);
-                    if (minumumDistance > currentDist) {
-                        minumumDistance = currentDist;
-                        nearFeature = currentHub;
-                    }
+                batch.add(featureIter.next());
+                if (batch.size() == BATCH_SIZE) {
+                    writeBatch(batch, finder, hubs, hasID ? nearIdField : null, featureWriter);
+                    batch.clear();
                 }
-
-                // create & insert feature
-                SimpleFeature newFeature = featureWriter.buildFeature(null);
-                featureWriter.copyAttributes(feature, newFeature, true);
-
-                // create line: direction = spoke --> hub
-                if (maximumDistance < minumumDistance) {
-                    if (hasID) {
-                        newFeature.setAttribute(nearIdField, null);
-                    }
-                    newFeature.setAttribute(DIST_FIELD, null);
-                } else {
-                    if (hasID) {
-                        newFeature.setAttribute(nearIdField, nearFeature.id);
-                    }
-                    newFeature.setAttribute(DIST_FIELD, minumumDistance);
-                }
-
-                featureWriter.write(newFeature);
             }
+            writeBatch(batch, finder, hubs, hasID ? nearIdField : null, featureWriter);
         } catch (IOException e) {
             featureWriter.rollback(e);
         } finally {
@@ -130,6 +115,39 @@ public class NearOperation extends GeneralOperation {
         return featureWriter.getFeatureCollection();
     }
 
+    private void writeBatch(List<SimpleFeature> batch, NearestFeatureFinder finder,
+            List<NearFeature> hubs, String nearIdField, IFeatureInserter featureWriter)
+            throws IOException {
+        final int count = batch.size();
+        Geometry[] geometries = new Geometry[count];
+        for (int i = 0; i < count; i++) {
+            geometries[i] = (Geometry) batch.get(i).getDefaultGeometry();
+        }
+
+        double[] distances = new double[count];
+        int[] nearests = finder.nearest(geometries, count, maximumDistance, distances);
+
+        for (int i = 0; i < count; i++) {
+            // create & insert feature
+            SimpleFeature newFeature = featureWriter.buildFeature(null);
+            featureWriter.copyAttributes(batch.get(i), newFeature, true);
+
+            if (nearests[i] == -1) {
+                if (nearIdField != null) {
+                    newFeature.setAttribute(nearIdField, null);
+                }
+                newFeature.setAttribute(DIST_FIELD, null);
+            } else {
+                if (nearIdField != null) {
+                    newFeature.setAttribute(nearIdField, hubs.get(nearests[i]).id);
+                }
+                newFeature.setAttribute(DIST_FIELD, distances[i]);
+            }
+
+            featureWriter.write(newFeature);
+        }
+    }
+
     private List<NearFeature> loadNearFeatures(SimpleFeatureCollection features, String idField) {
         List<NearFeature> nears = new ArrayList<NearFeature>();
 
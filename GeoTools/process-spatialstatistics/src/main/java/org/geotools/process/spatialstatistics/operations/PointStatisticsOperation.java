@@ -18,8 +18,6 @@ package org.geotools.process.spatialstatistics.operations;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -27,8 +25,12 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.ReprojectingFeatureCollection;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.NearestFeatureFinder;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.core.StatisticsField;
 import org.geotools.process.spatialstatistics.core.StatisticsVisitor;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.StatisticsStrategy;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.StringStrategy;
 import org.geotools.process.spatialstatistics.core.StatisticsVisitorResult;
 import org.geotools.process.spatialstatistics.core.SummaryFieldBuilder;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
@@ -36,14 +38,15 @@ import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.Filter;
 import org.opengis.parameter.InvalidParameterValueException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
- * Point Statistics Operation
+ * Point Statistics Operation<br>
+ * The polygons are indexed once and the points are read in a single pass; each point is added to
+ * the summaries of the polygons containing it.
  * 
  * @author Minpa Lee, MangoSystem
  * 
@@ -54,6 +57,8 @@ public class PointStatisticsOperation extends GeneralOperation {
 
     // FIRST, LAST, SUM, MEAN, MIN, MAX, RANGE, STD, VAR, COUNT
 
+    static final int BATCH_SIZE = 4096;
+
     private double bufferDistance = 0.0d;
 
     public double getBufferDistance() {
@@ -111,57 +116,77 @@ public class PointStatisticsOperation extends GeneralOperation {
             points = new ReprojectingFeatureCollection(points, aCrs);
         }
 
-        // prepare transactional feature store
-        final String the_geom = points.getSchema().getGeometryDescriptor().getLocalName();
-        IFeatureInserter featureWriter = getFeatureWriter(schema);
-
-        SimpleFeatureIterator featureIter = null;
+        // 1. index polygons
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        SimpleFeatureIterator featureIter = polygons.features();
         try {
-            featureIter = polygons.features();
             while (featureIter.hasNext()) {
-                SimpleFeature feature = featureIter.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                Geometry geometry = (Geometry) featureIter.next().getDefaultGeometry();
                 if (geometry == null || geometry.isEmpty()) {
                     continue;
                 }
 
-                MultipleStatVisitor visitor = new MultipleStatVisitor(points.getSchema());
                 if (bufferDistance > 0) {
                     geometry = geometry.buffer(bufferDistance);
                 }
-                Filter filter = ff.intersects(ff.property(the_geom), ff.literal(geometry));
-
-                int featureCount = 0;
-                if (statFields.size() > 0) {
-                    SimpleFeatureIterator pointIter = null;
-                    try {
-                        pointIter = points.subCollection(filter).features();
-                        while (pointIter.hasNext()) {
-                            SimpleFeature pointFeature = pointIter.next();
-                            featureCount++;
-                            for (String srcField : uvFields) {
-                                visitor.visit(srcField, pointFeature);
-                            }
-                        }
-                    } finally {
-                        pointIter.close();
-                    }
-                } else {
-                    featureCount = points.subCollection(filter).size();
+                geometries.add(geometry);
+            }
+        } finally {
+            featureIter.close();
+        }
+        NearestFeatureFinder finder = new NearestFeatureFinder(geometries, true);
+
+        // 2. aggregate points into the polygons containing them, in one pass
+        final int polygonCount = geometries.size();
+        int[] featureCounts = new int[polygonCount];
+        StatisticsAccumulator[] accumulators = new StatisticsAccumulator[uvFields.size()];
+        for (int k = 0; k < accumulators.length; k++) {
+            accumulators[k] = new StatisticsAccumulator(points.getSchema(), uvFields.get(k),
+                    polygonCount);
+        }
+
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+        SimpleFeatureIterator pointIter = points.features();
+        try {
+            while (pointIter.hasNext()) {
+                batch.add(pointIter.next());
+                if (batch.size() == BATCH_SIZE) {
+                    aggregate(batch, finder, featureCounts, accumulators);
+                    batch.clear();
                 }
+            }
+            aggregate(batch, finder, featureCounts, accumulators);
+        } finally {
+            pointIter.close();
+        }
+
+        // 3. prepare transactional feature store
+        IFeatureInserter featureWriter = getFeatureWriter(schema);
+        try {
+            featureIter = polygons.features();
+            int index = 0;
+            while (featureIter.hasNext()) {
+                SimpleFeature feature = featureIter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
+
+                final int polygon = index++;
 
                 // create & insert feature
                 SimpleFeature newFeature = featureWriter.buildFeature(null);
                 featureWriter.copyAttributes(feature, newFeature, true);
 
                 if (hasCountField) {
-                    newFeature.setAttribute(cntField, featureCount);
+                    newFeature.setAttribute(cntField, featureCounts[polygon]);
                 }
 
-                if (visitor.getResult().size() > 0) {
-                    HashMap<Object, StatisticsVisitor> stat = visitor.getResult();
+                if (featureCounts[polygon] > 0) {
                     for (StatisticsField field : statFields) {
-                        StatisticsVisitorResult ret = stat.get(field.getSrcField()).getResult();
+                        StatisticsAccumulator accumulator = accumulators[uvFields.indexOf(field
+                                .getSrcField())];
+                        StatisticsVisitorResult ret = accumulator.getResult(polygon);
                         Object value = ret.getValue(field.getStatType());
                         newFeature.setAttribute(field.getTargetField(), value);
                     }
@@ -178,6 +203,39 @@ public class PointStatisticsOperation extends GeneralOperation {
         return featureWriter.getFeatureCollection();
     }
 
+    private void aggregate(final List<SimpleFeature> batch, final NearestFeatureFinder finder,
+            int[] featureCounts, StatisticsAccumulator[] accumulators) {
+        // point in polygon tests run in parallel, accumulation follows the point order
+        final int[][] polygons = new int[batch.size()][];
+        ParallelExecutor.execute(batch.size(), new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    Geometry geometry = (Geometry) batch.get(i).getDefaultGeometry();
+                    polygons[i] = finder.findAll(geometry, 0d);
+                }
+            }
+        });
+
+        for (int i = 0; i < polygons.length; i++) {
+            if (polygons[i].length == 0) {
+                continue;
+            }
+
+            SimpleFeature pointFeature = batch.get(i);
+            for (StatisticsAccumulator accumulator : accumulators) {
+                Object value = pointFeature.getAttribute(accumulator.propertyName);
+                for (int polygon : polygons[i]) {
+                    accumulator.add(polygon, value);
+                }
+            }
+
+            for (int polygon : polygons[i]) {
+                featureCounts[polygon]++;
+            }
+        }
+    }
+
     private SimpleFeatureType addAttributes(SimpleFeatureType schema,
             List<StatisticsField> attributes) {
         for (StatisticsField sfield : attributes) {
@@ -188,32 +246,46 @@ public class PointStatisticsOperation extends GeneralOperation {
         return schema;
     }
 
-    static final class MultipleStatVisitor {
+    /**
+     * Summary of one attribute per polygon. Each polygon containing points gets its own
+     * {@link StatisticsStrategy} of the attribute type.
+     */
+    static final class StatisticsAccumulator {
 
-        static final String CASE_ALL = "ALL";
+        final String propertyName;
 
-        SimpleFeatureType schema;
+        final Class<?> binding;
 
-        HashMap<Object, StatisticsVisitor> resuleMap = new LinkedHashMap<Object, StatisticsVisitor>();
+        final StatisticsStrategy[] strategies;
 
-        public MultipleStatVisitor(SimpleFeatureType schema) {
-            this.schema = schema;
+        public StatisticsAccumulator(SimpleFeatureType schema, String propertyName, int size) {
+            this.propertyName = FeatureTypes.validateProperty(schema, propertyName);
+            this.binding = schema.getDescriptor(this.propertyName).getType().getBinding();
+            this.strategies = new StatisticsStrategy[size];
         }
 
-        public HashMap<Object, StatisticsVisitor> getResult() {
-            return resuleMap;
-        }
-
-        public void visit(String propertyName, SimpleFeature feature) {
-            propertyName = propertyName == null ? CASE_ALL : propertyName;
-            StatisticsVisitor visitor = resuleMap.get(propertyName);
+        public void add(int polygon, Object value) {
+            if (value == null) {
+                return;
+            }
 
-            if (visitor == null) {
-                visitor = new StatisticsVisitor(schema, propertyName);
-                resuleMap.put(propertyName, visitor);
+            StatisticsStrategy strategy = strategies[polygon];
+            if (strategy == null) {
+                strategy = StatisticsVisitor.createStrategy(binding);
+                if (strategy == null) {
+                    strategy = StatisticsVisitor.createStrategy(value.getClass());
+                }
+                if (strategy == null) {
+                    strategy = new StringStrategy();
+                }
+                strategies[polygon] = strategy;
             }
+            strategy.add(value);
+        }
 
-            visitor.visit(feature);
+        public StatisticsVisitorResult getResult(int polygon) {
+            StatisticsStrategy strategy = strategies[polygon];
+            return strategy == null ? new StatisticsVisitorResult() : strategy.getResult();
         }
     }
 
@@ -25,6 +25,8 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.ReprojectingFeatureCollection;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.NearestFeatureFinder;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.enumeration.SpatialJoinType;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.referencing.CRS;
@@ -33,13 +35,14 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
-import org.opengis.filter.Filter;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
- * SpatialJoin : One by One
+ * SpatialJoin : joins the attributes of the nearest join feature within the search radius, of all
+ * matching join features (one to many) or their aggregates, see {@link SpatialJoinType}.<br>
+ * The join features are loaded once into a spatial index of prepared geometries.
  * 
  * @author Minpa Lee, MangoSystem
  * 
@@ -48,6 +51,10 @@ import com.vividsolutions.jts.geom.Geometry;
 public class SpatialJoinOperation extends GeneralOperation {
     protected static final Logger LOGGER = Logging.getLogger(SpatialJoinOperation.class);
 
+    static final String JOIN_COUNT = "join_count";
+
+    static final int BATCH_SIZE = 4096;
+
     private double searchRadius = 0.0d;
 
     public double getSearchRadius() {
@@ -63,7 +70,9 @@ public class SpatialJoinOperation extends GeneralOperation {
         String typeName = inputFeatures.getSchema().getTypeName();
         SimpleFeatureType schema = FeatureTypes.build(inputFeatures.getSchema(), typeName);
 
+        final boolean aggregate = joinType == SpatialJoinType.Aggregate;
         List<String> propertyList = new ArrayList<String>();
+        List<Boolean> numericList = new ArrayList<Boolean>();
         SimpleFeatureType joinSchema = joinFeatures.getSchema();
         for (AttributeDescriptor desc : joinSchema.getAttributeDescriptors()) {
             if (desc instanceof GeometryDescriptor) {
@@ -73,11 +82,23 @@ public class SpatialJoinOperation extends GeneralOperation {
                 if (FeatureTypes.existProeprty(schema, desc.getLocalName())) {
                     continue;
                 }
-                schema = FeatureTypes.add(schema, desc);
+
+                Class<?> binding = desc.getType().getBinding();
+                boolean numeric = aggregate && Number.class.isAssignableFrom(binding);
+                if (numeric) {
+                    schema = FeatureTypes.add(schema, desc.getLocalName(), Double.class, 38);
+                } else {
+                    schema = FeatureTypes.add(schema, desc);
+                }
                 propertyList.add(desc.getLocalName());
+                numericList.add(Boolean.valueOf(numeric));
             }
         }
 
+        if (aggregate && !FeatureTypes.existProeprty(schema, JOIN_COUNT)) {
+            schema = FeatureTypes.add(schema, JOIN_COUNT, Integer.class, 10);
+        }
+
         // check CRS
         CoordinateReferenceSystem aCrs = inputFeatures.getSchema().getCoordinateReferenceSystem();
         CoordinateReferenceSystem bCrs = joinFeatures.getSchema().getCoordinateReferenceSystem();
@@ -86,9 +107,13 @@ public class SpatialJoinOperation extends GeneralOperation {
             joinFeatures = new ReprojectingFeatureCollection(joinFeatures, aCrs);
         }
 
+        // load the join features once
+        JoinIndex joinIndex = new JoinIndex(joinFeatures, propertyList, numericList);
+
         // prepare transactional feature store
         IFeatureInserter featureWriter = getFeatureWriter(schema);
 
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
         SimpleFeatureIterator featureIter = null;
         try {
             featureIter = inputFeatures.features();
@@ -99,23 +124,13 @@ public class SpatialJoinOperation extends GeneralOperation {
                     continue;
                 }
 
-                SimpleFeature joinFeature = searchNearestFeature(joinFeatures, geometry);
-
-                // create & insert feature
-                if (joinType == SpatialJoinType.OnlyMatchingRecord && joinFeature == null) {
-                    continue;
-                }
-
-                SimpleFeature newFeature = featureWriter.buildFeature(null);
-                featureWriter.copyAttributes(feature, newFeature, true);
-
-                if (joinFeature != null) {
-                    for (String name : propertyList) {
-                        newFeature.setAttribute(name, joinFeature.getAttribute(name));
-                    }
+                batch.add(feature);
+                if (batch.size() == BATCH_SIZE) {
+                    writeBatch(batch, joinIndex, joinType, featureWriter);
+                    batch.clear();
                 }
-                featureWriter.write(newFeature);
             }
+            writeBatch(batch, joinIndex, joinType, featureWriter);
         } catch (Exception e) {
             featureWriter.rollback(e);
         } finally {
@@ -125,44 +140,131 @@ public class SpatialJoinOperation extends GeneralOperation {
         return featureWriter.getFeatureCollection();
     }
 
-    private SimpleFeature searchNearestFeature(SimpleFeatureCollection joinFeatures,
-            Geometry geometry) {
-        String the_geom = joinFeatures.getSchema().getGeometryDescriptor().getLocalName();
+    private void writeBatch(final List<SimpleFeature> batch, final JoinIndex joinIndex,
+            final SpatialJoinType joinType, IFeatureInserter featureWriter) throws IOException {
+        // search the join features of the batch in parallel
+        final boolean oneToOne = joinType == SpatialJoinType.KeepAllRecord
+                || joinType == SpatialJoinType.OnlyMatchingRecord;
+        final double radius = searchRadius > 0 ? searchRadius : 0d;
+        final int[][] matches = new int[batch.size()][];
+        ParallelExecutor.execute(batch.size(), new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double[] distance = new double[1];
+                for (int i = start; i < end; i++) {
+                    Geometry geometry = (Geometry) batch.get(i).getDefaultGeometry();
+                    if (oneToOne) {
+                        int nearest = joinIndex.finder.nearest(geometry, radius, distance);
+                        matches[i] = nearest == -1 ? new int[0] : new int[] { nearest };
+                    } else {
+                        matches[i] = joinIndex.finder.findAll(geometry, radius);
+                    }
+                }
+            }
+        });
+
+        for (int i = 0; i < matches.length; i++) {
+            SimpleFeature feature = batch.get(i);
+            int[] joins = matches[i];
+
+            // create & insert feature
+            if (joinType == SpatialJoinType.OnlyMatchingRecord && joins.length == 0) {
+                continue;
+            }
+
+            if (joinType == SpatialJoinType.OneToMany && joins.length > 0) {
+                for (int join : joins) {
+                    SimpleFeature newFeature = featureWriter.buildFeature(null);
+                    featureWriter.copyAttributes(feature, newFeature, true);
+                    joinIndex.setAttributes(newFeature, join);
+                    featureWriter.write(newFeature);
+                }
+                continue;
+            }
+
+            SimpleFeature newFeature = featureWriter.buildFeature(null);
+            featureWriter.copyAttributes(feature, newFeature, true);
+            if (joinType == SpatialJoinType.Aggregate) {
+                joinIndex.setAggregates(newFeature, joins);
+                newFeature.setAttribute(JOIN_COUNT, Integer.valueOf(joins.length));
+            } else if (joins.length > 0) {
+                joinIndex.setAttributes(newFeature, joins[0]);
+            }
+            featureWriter.write(newFeature);
+        }
+    }
+
+    /**
+     * The join features held in memory: geometries in a spatial index and the joined attribute
+     * values in feature order.
+     */
+    static final class JoinIndex {
+
+        final NearestFeatureFinder finder;
+
+        final String[] properties;
+
+        final boolean[] numerics;
 
-        Filter filter = ff.intersects(ff.property(the_geom), ff.literal(geometry));
-        if (searchRadius > 0) {
-            Geometry buffered = geometry.buffer(searchRadius);
-            filter = ff.intersects(ff.property(the_geom), ff.literal(buffered));
+        final List<Object[]> values = new ArrayList<Object[]>();
+
+        JoinIndex(SimpleFeatureCollection joinFeatures, List<String> propertyList,
+                List<Boolean> numericList) {
+            properties = propertyList.toArray(new String[propertyList.size()]);
+            numerics = new boolean[properties.length];
+            for (int k = 0; k < numerics.length; k++) {
+                numerics[k] = numericList.get(k).booleanValue();
+            }
+
+            List<Geometry> geometries = new ArrayList<Geometry>();
+            SimpleFeatureIterator joinIter = joinFeatures.features();
+            try {
+                while (joinIter.hasNext()) {
+                    SimpleFeature feature = joinIter.next();
+                    geometries.add((Geometry) feature.getDefaultGeometry());
+
+                    Object[] attributes = new Object[properties.length];
+                    for (int k = 0; k < properties.length; k++) {
+                        attributes[k] = feature.getAttribute(properties[k]);
+                    }
+                    values.add(attributes);
+                }
+            } finally {
+                joinIter.close();
+            }
+
+            finder = new NearestFeatureFinder(geometries, true);
         }
 
-        SimpleFeature nearestFeature = null;
-        SimpleFeatureIterator joinIter = joinFeatures.subCollection(filter).features();
-        try {
-            double minDistance = Double.MAX_VALUE;
-            while (joinIter.hasNext()) {
-                SimpleFeature feature = joinIter.next();
-                if (searchRadius == 0) {
-                    nearestFeature = feature;
-                    break;
-                } else {
-                    // find nearest features
-                    Geometry joinGeometry = (Geometry) feature.getDefaultGeometry();
-                    double distance = geometry.distance(joinGeometry);
-                    if (distance == 0) {
-                        nearestFeature = feature;
-                        break;
-                    } else {
-                        if (minDistance > distance) {
-                            nearestFeature = feature;
-                            minDistance = distance;
-                        }
+        void setAttributes(SimpleFeature newFeature, int join) {
+            Object[] attributes = values.get(join);
+            for (int k = 0; k < properties.length; k++) {
+                newFeature.setAttribute(properties[k], attributes[k]);
+            }
+        }
+
+        // sums of numeric attributes, other attributes from the first matching feature
+        void setAggregates(SimpleFeature newFeature, int[] joins) {
+            if (joins.length == 0) {
+                return;
+            }
+
+            for (int k = 0; k < properties.length; k++) {
+                if (!numerics[k]) {
+                    newFeature.setAttribute(properties[k], values.get(joins[0])[k]);
+                    continue;
+                }
+
+                double sum = 0d;
+                for (int join : joins) {
+                    Object value = values.get(join)[k];
+                    if (value != null) {
+                        sum += ((Number) value).doubleValue();
                     }
                 }
+                newFeature.setAttribute(properties[k], Double.valueOf(sum));
             }
-        } finally {
-            joinIter.close();
         }
-        return nearestFeature;
     }
 
 }
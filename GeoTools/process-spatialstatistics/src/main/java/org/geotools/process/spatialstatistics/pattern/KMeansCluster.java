@@ -16,15 +16,17 @@
  */
 package org.geotools.process.spatialstatistics.pattern;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
+import org.geotools.process.spatialstatistics.core.SplitMixRandom;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
 
@@ -32,8 +34,14 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 
 /**
- * k-means clustering
- * 
+ * k-means clustering<br>
+ * Points are kept in primitive arrays, in the order of the features with a geometry. The centroids
+ * are seeded with k-means++ on a sample of the points, and Lloyd iterations use Hamerly's bounds
+ * (one upper and one lower bound per point) to skip most distance computations; assignment and
+ * centroid sums run in parallel partitions that are reduced in index order. In mini-batch mode
+ * the centroids are updated from random batches instead (Sculley), followed by one full
+ * assignment pass. The random seed is fixed, so results are reproducible.
+ *
  * @author Minpa Lee, MangoSystem
  * @reference http://code.google.com/p/hdict/source/browse/src/com/google/io/kmeans/DalvikClusterer.java
  * @source $URL$
@@ -43,133 +51,433 @@ public class KMeansCluster implements Cluster {
 
     static final int MAX_LOOP_COUNT = 100;
 
-    final Random random = new Random(System.currentTimeMillis());
+    /** Default random seed */
+    public static final long DEFAULT_SEED = 12345L;
 
-    private PointEvent[] points = null;
+    // k-means++ seeding uses at most this number of points per cluster
+    static final int SEEDING_SAMPLES_PER_CLUSTER = 100;
 
-    private ReferencedEnvelope extent = null;
+    private int size = 0;
 
-    public PointEvent[] getPoints() {
-        return this.points;
-    }
+    private double[] x = new double[1024];
+
+    private double[] y = new double[1024];
+
+    private int[] clusters = new int[0];
+
+    private double[] centerX = new double[0];
+
+    private double[] centerY = new double[0];
+
+    private long randomSeed = DEFAULT_SEED;
+
+    private int maxIterations = MAX_LOOP_COUNT;
+
+    private int miniBatchSize = 0;
+
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
 
     public KMeansCluster(SimpleFeatureCollection pointFeatures) {
-        loadPoints(pointFeatures, null);
+        loadPoints(pointFeatures);
     }
 
-    private PointEvent getRandomPoint() {
-        PointEvent randomPoint = new PointEvent();
+    public KMeansCluster(double[] x, double[] y, int size) {
+        this.x = x;
+        this.y = y;
+        this.size = size;
+    }
 
-        while (true) {
-            double x = extent.getMinX() + random.nextInt((int) extent.getWidth());
-            double y = extent.getMinY() + random.nextInt((int) extent.getHeight());
-            if (extent.contains(x, y)) {
-                randomPoint.x = x;
-                randomPoint.y = y;
-                break;
-            }
-        }
+    public int size() {
+        return size;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public void setRandomSeed(long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    /**
+     * Sets the batch size of mini-batch k-means, 0 (default) runs the exact Lloyd iterations.
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        this.miniBatchSize = Math.max(0, miniBatchSize);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the cluster of the point at the index, the index of the feature with a geometry.
+     */
+    public int getCluster(int index) {
+        return clusters[index];
+    }
 
-        return randomPoint;
+    public int[] getClusters() {
+        return clusters;
+    }
+
+    public PointEvent[] getPoints() {
+        PointEvent[] points = new PointEvent[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = new PointEvent(x[i], y[i], 1.0);
+            points[i].id = i;
+            points[i].cluster = i < clusters.length ? clusters[i] : 0;
+        }
+        return points;
     }
 
     @Override
     public PointEvent[] cluster(int numClusters) {
-        boolean converged = false;
-        boolean dirty;
-        double distance;
-        double curMinDistance;
-        int loopCount = 0;
-        PointEvent point;
-
-        // randomly pick some points to be the centroids of the groups, for the first pass
-        PointEvent[] means = new PointEvent[numClusters];
-        for (int i = 0; i < numClusters; ++i) {
-            means[i] = getRandomPoint();
+        final int k = Math.min(numClusters, size);
+        if (k <= 0) {
+            clusters = new int[size];
+            return new PointEvent[0];
+        }
+
+        SplitMixRandom random = new SplitMixRandom(randomSeed);
+        seedCentroids(k, random);
+
+        clusters = new int[size];
+        if (miniBatchSize > 0 && miniBatchSize < size) {
+            miniBatch(k, random);
+            assignAll(k, null, null);
+        } else {
+            lloyd(k);
+        }
+
+        PointEvent[] means = new PointEvent[k];
+        for (int i = 0; i < k; ++i) {
+            means[i] = new PointEvent(centerX[i], centerY[i]);
             means[i].cluster = i;
         }
+        return means;
+    }
+
+    // k-means++ (D^2 weighting) on a uniform sample of the points
+    private void seedCentroids(int k, SplitMixRandom random) {
+        int sampleSize = (int) Math.min(size, (long) k * SEEDING_SAMPLES_PER_CLUSTER);
+        final double[] sx = new double[sampleSize];
+        final double[] sy = new double[sampleSize];
+
+        // selection sampling (Knuth, algorithm S) keeps the point order
+        int selected = 0;
+        for (int i = 0; i < size && selected < sampleSize; i++) {
+            if ((size - i) * random.nextDouble() < sampleSize - selected) {
+                sx[selected] = x[i];
+                sy[selected] = y[i];
+                selected++;
+            }
+        }
+
+        centerX = new double[k];
+        centerY = new double[k];
+
+        int first = random.nextInt(sampleSize);
+        centerX[0] = sx[first];
+        centerY[0] = sy[first];
+
+        final double[] minDist2 = new double[sampleSize];
+        Arrays.fill(minDist2, Double.MAX_VALUE);
+        for (int c = 1; c < k; c++) {
+            final double cx = centerX[c - 1];
+            final double cy = centerY[c - 1];
+            ParallelExecutor.execute(sampleSize, new ParallelExecutor.RangeTask() {
+                @Override
+                public void execute(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        double dx = sx[i] - cx;
+                        double dy = sy[i] - cy;
+                        minDist2[i] = Math.min(minDist2[i], dx * dx + dy * dy);
+                    }
+                }
+            }, parallelism, null);
+
+            double total = 0;
+            for (int i = 0; i < sampleSize; i++) {
+                total += minDist2[i];
+            }
+
+            int next = sampleSize - 1;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                for (int i = 0; i < sampleSize; i++) {
+                    target -= minDist2[i];
+                    if (target < 0) {
+                        next = i;
+                        break;
+                    }
+                }
+            } else {
+                next = random.nextInt(sampleSize);
+            }
+
+            centerX[c] = sx[next];
+            centerY[c] = sy[next];
+        }
+    }
+
+    // Lloyd iterations with Hamerly's bounds
+    private void lloyd(final int k) {
+        final double[] upper = new double[size];
+        final double[] lower = new double[size];
+        assignAll(k, upper, lower);
+
+        final double[] halfSeparation = new double[k];
+        int changed = size;
+        for (int iteration = 0; iteration < maxIterations && changed > 0; iteration++) {
+            double[] moves = updateCenters(k, upper, lower);
+
+            // the bounds follow the movement of the centroids
+            int farthest = 0;
+            for (int j = 1; j < k; j++) {
+                if (moves[j] > moves[farthest]) {
+                    farthest = j;
+                }
+            }
+            double secondMove = 0;
+            for (int j = 0; j < k; j++) {
+                if (j != farthest) {
+                    secondMove = Math.max(secondMove, moves[j]);
+                }
+            }
+            updateBounds(moves, farthest, moves[farthest], secondMove, upper, lower);
+
+            // half of the distance to the nearest other centroid
+            for (int j = 0; j < k; j++) {
+                double nearest = Double.MAX_VALUE;
+                for (int o = 0; o < k; o++) {
+                    if (o != j) {
+                        nearest = Math.min(nearest, distance(centerX[j], centerY[j],
+                                centerX[o], centerY[o]));
+                    }
+                }
+                halfSeparation[j] = k == 1 ? Double.MAX_VALUE : nearest / 2.0;
+            }
+
+            changed = reassign(k, halfSeparation, upper, lower);
+        }
+
+        if (changed > 0) {
+            // iteration limit: move the centroids, then label each point with its nearest one
+            updateCenters(k, upper, lower);
+            assignAll(k, upper, lower);
+        }
+    }
+
+    // nearest and second nearest centroid of every point
+    private void assignAll(final int k, final double[] upper, final double[] lower) {
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double[] nearest = new double[2];
+                for (int i = start; i < end; i++) {
+                    clusters[i] = findNearest(x[i], y[i], k, nearest);
+                    if (upper != null) {
+                        upper[i] = nearest[0];
+                        lower[i] = nearest[1];
+                    }
+                }
+            }
+        }, parallelism, null);
+    }
+
+    private int reassign(final int k, final double[] halfSeparation, final double[] upper,
+            final double[] lower) {
+        final AtomicInteger changed = new AtomicInteger();
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double[] nearest = new double[2];
+                int count = 0;
+                for (int i = start; i < end; i++) {
+                    int current = clusters[i];
+                    double bound = Math.max(halfSeparation[current], lower[i]);
+                    if (upper[i] <= bound) {
+                        continue;
+                    }
+
+                    // tighten the upper bound
+                    upper[i] = distance(x[i], y[i], centerX[current], centerY[current]);
+                    if (upper[i] <= bound) {
+                        continue;
+                    }
 
-        // initialize data
-        double[] distances = new double[points.length];
-        Arrays.fill(distances, Double.MAX_VALUE);
-
-        double[] sumX = new double[numClusters];
-        double[] sumY = new double[numClusters];
-        int[] clusterSizes = new int[numClusters];
-
-        // main loop
-        while (!converged) {
-            dirty = false;
-
-            // compute which group each point is closest to
-            for (int i = 0; i < points.length; ++i) {
-                point = points[i];
-                curMinDistance = distances[i];
-                for (PointEvent mean : means) {
-                    distance = computeDistance(point, mean);
-                    if (distance < curMinDistance) {
-                        dirty = true;
-                        distances[i] = distance;
-                        curMinDistance = distance;
-                        point.cluster = mean.cluster;
+                    int cluster = findNearest(x[i], y[i], k, nearest);
+                    upper[i] = nearest[0];
+                    lower[i] = nearest[1];
+                    if (cluster != current) {
+                        clusters[i] = cluster;
+                        count++;
                     }
                 }
+                changed.addAndGet(count);
             }
+        }, parallelism, null);
+        return changed.get();
+    }
 
-            // if we did no work, break early (greedy algorithm has converged)
-            if (!dirty) {
-                converged = true;
-                break;
+    private void updateBounds(final double[] moves, final int farthest,
+            final double maxMove, final double secondMove, final double[] upper,
+            final double[] lower) {
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    int cluster = clusters[i];
+                    upper[i] += moves[cluster];
+                    lower[i] -= cluster == farthest ? secondMove : maxMove;
+                }
             }
+        }, parallelism, null);
+    }
 
-            // compute the new centroids of the groups, since contents have changed
-            for (int i = 0; i < numClusters; ++i) {
-                sumX[i] = sumY[i] = clusterSizes[i] = 0;
+    /**
+     * Recomputes the centroids from the assignment and returns the movement of each centroid. An
+     * empty cluster is moved to the point farthest from its centroid; the bounds of that point
+     * are reset so the next assignment moves it to the empty cluster.
+     */
+    private double[] updateCenters(final int k, double[] upper, double[] lower) {
+        final Map<Integer, double[]> partitions = new ConcurrentSkipListMap<Integer, double[]>();
+        ParallelExecutor.execute(size, new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                double[] sums = new double[k * 3];
+                for (int i = start; i < end; i++) {
+                    int offset = clusters[i] * 3;
+                    sums[offset] += x[i];
+                    sums[offset + 1] += y[i];
+                    sums[offset + 2] += 1;
+                }
+                partitions.put(Integer.valueOf(start), sums);
             }
+        }, parallelism, null);
 
-            for (int i = 0; i < points.length; ++i) {
-                point = points[i];
-                sumX[point.cluster] += point.x;
-                sumY[point.cluster] += point.y;
-                clusterSizes[point.cluster] += 1;
+        double[] sums = new double[k * 3];
+        for (double[] partial : partitions.values()) {
+            for (int j = 0; j < sums.length; j++) {
+                sums[j] += partial[j];
             }
+        }
 
-            for (int i = 0; i < numClusters; ++i) {
-                try {
-                    means[i].x = sumX[i] / clusterSizes[i];
-                    means[i].y = sumY[i] / clusterSizes[i];
-                } catch (ArithmeticException e) {
-                    // means a Divide-By-Zero error, b/c no points were associated with this
-                    // cluster.
-                    // rare, so reset the cluster to have a new random center
-                    PointEvent p = getRandomPoint();
-                    means[i].x = p.x;
-                    means[i].y = p.y;
+        double[] moves = new double[k];
+        BitSet reseeded = new BitSet(size);
+        for (int j = 0; j < k; j++) {
+            double newX = centerX[j];
+            double newY = centerY[j];
+            if (sums[j * 3 + 2] > 0) {
+                newX = sums[j * 3] / sums[j * 3 + 2];
+                newY = sums[j * 3 + 1] / sums[j * 3 + 2];
+            } else if (upper != null) {
+                int farthest = -1;
+                for (int i = 0; i < size; i++) {
+                    if (!reseeded.get(i) && (farthest == -1 || upper[i] > upper[farthest])) {
+                        farthest = i;
+                    }
+                }
+                if (farthest != -1) {
+                    reseeded.set(farthest);
+                    newX = x[farthest];
+                    newY = y[farthest];
                 }
             }
 
-            // bail out after at most MAX_LOOP_COUNT passes
-            loopCount++;
-            converged = converged || (loopCount > MAX_LOOP_COUNT);
+            moves[j] = distance(centerX[j], centerY[j], newX, newY);
+            centerX[j] = newX;
+            centerY[j] = newY;
         }
 
-        return means;
+        // force the reseeded points to be examined again
+        for (int i = reseeded.nextSetBit(0); i >= 0; i = reseeded.nextSetBit(i + 1)) {
+            upper[i] = Double.MAX_VALUE;
+            lower[i] = 0;
+        }
+        return moves;
+    }
+
+    // mini-batch k-means: per centroid learning rate 1 / number of points seen
+    private void miniBatch(final int k, SplitMixRandom random) {
+        final int[] batch = new int[miniBatchSize];
+        final int[] batchClusters = new int[miniBatchSize];
+        long[] counts = new long[k];
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            for (int b = 0; b < batch.length; b++) {
+                batch[b] = random.nextInt(size);
+            }
+
+            ParallelExecutor.execute(batch.length, new ParallelExecutor.RangeTask() {
+                @Override
+                public void execute(int start, int end) {
+                    double[] nearest = new double[2];
+                    for (int b = start; b < end; b++) {
+                        batchClusters[b] = findNearest(x[batch[b]], y[batch[b]], k, nearest);
+                    }
+                }
+            }, parallelism, null);
+
+            for (int b = 0; b < batch.length; b++) {
+                int cluster = batchClusters[b];
+                double rate = 1.0 / ++counts[cluster];
+                centerX[cluster] += (x[batch[b]] - centerX[cluster]) * rate;
+                centerY[cluster] += (y[batch[b]] - centerY[cluster]) * rate;
+            }
+        }
+    }
+
+    // returns the nearest centroid; distances to the nearest and second nearest in result
+    private int findNearest(double px, double py, int k, double[] result) {
+        int nearest = 0;
+        double best = Double.MAX_VALUE;
+        double second = Double.MAX_VALUE;
+        for (int j = 0; j < k; j++) {
+            double dx = px - centerX[j];
+            double dy = py - centerY[j];
+            double dist2 = dx * dx + dy * dy;
+            if (dist2 < best) {
+                second = best;
+                best = dist2;
+                nearest = j;
+            } else if (dist2 < second) {
+                second = dist2;
+            }
+        }
+        result[0] = Math.sqrt(best);
+        result[1] = second == Double.MAX_VALUE ? Double.MAX_VALUE : Math.sqrt(second);
+        return nearest;
     }
 
     /**
      * Computes the Cartesian distance between two points.
      */
-    private double computeDistance(PointEvent a, PointEvent b) {
-        double dx = a.x - b.x;
-        double dy = a.y - b.y;
+    private double distance(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
         return Math.sqrt((dx * dx) + (dy * dy));
     }
 
-    private void loadPoints(SimpleFeatureCollection pointFeatures, String weightField) {
-        this.extent = pointFeatures.getBounds();
-
-        List<Cluster.PointEvent> ptList = new ArrayList<Cluster.PointEvent>();
-        SimpleFeatureIterator featureIter = featureIter = pointFeatures.features();
+    private void loadPoints(SimpleFeatureCollection pointFeatures) {
+        SimpleFeatureIterator featureIter = pointFeatures.features();
         try {
             while (featureIter.hasNext()) {
                 SimpleFeature feature = featureIter.next();
@@ -178,14 +486,18 @@ public class KMeansCluster implements Cluster {
                     continue;
                 }
 
+                if (size == x.length) {
+                    x = Arrays.copyOf(x, size * 2);
+                    y = Arrays.copyOf(y, size * 2);
+                }
+
                 Point coord = geometry.getCentroid();
-                ptList.add(new PointEvent(coord.getX(), coord.getY(), 1.0, feature));
+                x[size] = coord.getX();
+                y[size] = coord.getY();
+                size++;
             }
         } finally {
             featureIter.close();
         }
-
-        points = new PointEvent[ptList.size()];
-        ptList.toArray(points);
     }
 }
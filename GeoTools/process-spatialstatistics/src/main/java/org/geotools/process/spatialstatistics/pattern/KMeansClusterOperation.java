@@ -27,7 +27,6 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
-import org.geotools.process.spatialstatistics.pattern.Cluster.PointEvent;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
@@ -51,27 +50,67 @@ import com.vividsolutions.jts.geom.Polygon;
 public class KMeansClusterOperation extends GeneralOperation {
     protected static final Logger LOGGER = Logging.getLogger(KMeansClusterOperation.class);
 
-    public SimpleFeatureCollection execute(SimpleFeatureCollection features, String targetField,
-            int numClusters) throws IOException {
+    private long randomSeed = KMeansCluster.DEFAULT_SEED;
+
+    private int miniBatchSize = 0;
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public void setRandomSeed(long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    /**
+     * Sets the batch size of mini-batch k-means for very large inputs, 0 (default) runs the exact
+     * iterations.
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    private KMeansCluster cluster(SimpleFeatureCollection features, int numClusters) {
         KMeansCluster cluster = new KMeansCluster(features);
+        cluster.setRandomSeed(randomSeed);
+        cluster.setMiniBatchSize(miniBatchSize);
         cluster.cluster(numClusters);
-        PointEvent[] originPoints = cluster.getPoints();
+        return cluster;
+    }
+
+    public SimpleFeatureCollection execute(SimpleFeatureCollection features, String targetField,
+            int numClusters) throws IOException {
+        // only coordinates are kept, the features are read again to write the clusters
+        KMeansCluster cluster = cluster(features, numClusters);
 
         SimpleFeatureType featureType = FeatureTypes.build(features, this.getOutputTypeName());
         featureType = FeatureTypes.add(featureType, targetField, Integer.class, 10);
 
         // prepare transactional feature store
         IFeatureInserter featureWriter = getFeatureWriter(featureType);
+        SimpleFeatureIterator featureIter = features.features();
         try {
-            for (PointEvent cp : originPoints) {
+            int index = 0;
+            while (featureIter.hasNext()) {
+                SimpleFeature feature = featureIter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
+
                 SimpleFeature newFeature = featureWriter.buildFeature(null);
-                featureWriter.copyAttributes(cp.feature, newFeature, true);
-                newFeature.setAttribute(targetField, cp.cluster);
+                featureWriter.copyAttributes(feature, newFeature, true);
+                newFeature.setAttribute(targetField, cluster.getCluster(index++));
                 featureWriter.write(newFeature);
             }
         } catch (IOException e) {
             featureWriter.rollback(e);
         } finally {
+            featureIter.close();
             featureWriter.close();
         }
 
@@ -80,17 +119,27 @@ public class KMeansClusterOperation extends GeneralOperation {
 
     public SimpleFeatureCollection executeAsCircle(SimpleFeatureCollection features,
             String targetField, int numClusters) throws IOException {
-        KMeansCluster cluster = new KMeansCluster(features);
-        cluster.cluster(numClusters);
-        PointEvent[] originPoints = cluster.getPoints();
+        KMeansCluster cluster = cluster(features, numClusters);
 
         Hashtable<Integer, List<Geometry>> clusters = new Hashtable<Integer, List<Geometry>>();
-        for (PointEvent cp : originPoints) {
-            final Integer clusterID = Integer.valueOf(cp.cluster);
-            if (!clusters.containsKey(clusterID)) {
-                clusters.put(clusterID, new ArrayList<Geometry>());
+        SimpleFeatureIterator featureIter = features.features();
+        try {
+            int index = 0;
+            while (featureIter.hasNext()) {
+                SimpleFeature feature = featureIter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
+
+                final Integer clusterID = Integer.valueOf(cluster.getCluster(index++));
+                if (!clusters.containsKey(clusterID)) {
+                    clusters.put(clusterID, new ArrayList<Geometry>());
+                }
+                clusters.get(clusterID).add(geometry);
             }
-            clusters.get(clusterID).add((Geometry) cp.feature.getDefaultGeometry());
+        } finally {
+            featureIter.close();
         }
 
         CoordinateReferenceSystem crs = features.getSchema().getCoordinateReferenceSystem();
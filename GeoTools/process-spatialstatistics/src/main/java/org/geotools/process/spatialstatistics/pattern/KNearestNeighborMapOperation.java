@@ -17,15 +17,14 @@
 package org.geotools.process.spatialstatistics.pattern;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.process.spatialstatistics.core.DistanceFactory;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
-import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.NearestNeighborFinder;
+import org.geotools.process.spatialstatistics.core.SparseWeightMatrix;
+import org.geotools.process.spatialstatistics.core.SpatialEventStore;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
 import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.util.logging.Logging;
@@ -51,11 +50,10 @@ public class KNearestNeighborMapOperation extends GeneralOperation {
 
     static String[] FIELDS = { "orig", "dest", "distance", "group" };
 
-    private Geometry getConvexHull(List<SpatialEvent> events) {
+    private Geometry getConvexHull(SpatialEventStore events) {
         Coordinate[] coordinates = new Coordinate[events.size()];
         for (int k = 0; k < events.size(); k++) {
-            SpatialEvent event = events.get(k);
-            coordinates[k] = new Coordinate(event.x, event.y);
+            coordinates[k] = new Coordinate(events.getX(k), events.getY(k));
         }
 
         ConvexHull cvxBuidler = new ConvexHull(coordinates, new GeometryFactory());
@@ -72,36 +70,24 @@ public class KNearestNeighborMapOperation extends GeneralOperation {
         schema = FeatureTypes.add(schema, FIELDS[3], String.class, 20);
 
         // 1. pre calculation
-        List<SpatialEvent> events = DistanceFactory.loadEvents(features, null);
+        SpatialEventStore events = SpatialEventStore.load(features, null);
 
         // 2. build feature
         int featureID = 1;
         IFeatureInserter featureWriter = getFeatureWriter(schema);
         try {
-            // k nearest neighbor = neighbor
-            SortedMap<Double, SpatialEvent> map = new TreeMap<Double, SpatialEvent>();
-            for (SpatialEvent start : events) {
-                map.clear();
-                for (SpatialEvent end : events) {
-                    if (end.oid == start.oid) {
-                        continue;
-                    }
-
-                    double currentDist = start.getDistance(end);
-                    if (map.size() < neighbor) {
-                        map.put(currentDist, end);
-                    } else {
-                        if (map.lastKey() > currentDist) {
-                            map.put(currentDist, end);
-                            map.remove(map.lastKey());
-                        }
-                    }
-                }
+            // k nearest neighbor = neighbor, equally distant neighbors are not collapsed
+            NearestNeighborFinder finder = new NearestNeighborFinder(events,
+                    DistanceMethod.Euclidean);
+            SparseWeightMatrix knn = finder.getKNearestNeighbors(neighbor, false);
+            for (int i = 0; i < events.size(); i++) {
+                Coordinate start = new Coordinate(events.getX(i), events.getY(i));
 
                 // build line
-                for (SpatialEvent nearest : map.values()) {
-                    Geometry line = gf.createLineString(new Coordinate[] { start.getCoordinate(),
-                            nearest.getCoordinate() });
+                for (int pos = knn.getRowStart(i); pos < knn.getRowEnd(i); pos++) {
+                    int j = knn.getNeighbor(pos);
+                    Coordinate nearest = new Coordinate(events.getX(j), events.getY(j));
+                    Geometry line = gf.createLineString(new Coordinate[] { start, nearest });
                     double distance = line.getLength();
                     if (distance == 0) {
                         continue;
@@ -109,8 +95,8 @@ public class KNearestNeighborMapOperation extends GeneralOperation {
                     SimpleFeature newFeature = featureWriter.buildFeature(Integer
                             .toString(featureID++));
                     newFeature.setDefaultGeometry(line);
-                    newFeature.setAttribute(FIELDS[0], start.oid);
-                    newFeature.setAttribute(FIELDS[1], nearest.oid);
+                    newFeature.setAttribute(FIELDS[0], events.getOid(i));
+                    newFeature.setAttribute(FIELDS[1], events.getOid(j));
                     newFeature.setAttribute(FIELDS[2], distance);
                     newFeature.setAttribute(FIELDS[3], "Nearest");
                     featureWriter.write(newFeature);
@@ -17,15 +17,18 @@
 package org.geotools.process.spatialstatistics.pattern;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.process.spatialstatistics.core.DistanceFactory;
 import org.geotools.process.spatialstatistics.core.FormatUtils;
+import org.geotools.process.spatialstatistics.core.NearestNeighborFinder;
 import org.geotools.process.spatialstatistics.core.SSUtils;
 import org.geotools.process.spatialstatistics.core.SSUtils.StatEnum;
 import org.geotools.process.spatialstatistics.core.SpatialEvent;
+import org.geotools.process.spatialstatistics.core.SpatialEventStore;
 import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
 import org.geotools.util.logging.Logging;
@@ -45,8 +48,6 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 public class NNIOperation extends GeneralOperation {
     protected static final Logger LOGGER = Logging.getLogger(NNIOperation.class);
 
-    private final DistanceFactory factory = DistanceFactory.newInstance();
-
     private DistanceMethod distanceMethod = DistanceMethod.Euclidean;
 
     private int featureCount = 0;
@@ -74,19 +75,73 @@ public class NNIOperation extends GeneralOperation {
         return convexHull.getArea();
     }
 
+    public double getConvexHullArea(SpatialEventStore events) {
+        final int size = events.size();
+        if (size < 3) {
+            return 0d;
+        }
+
+        // extreme points in 8 directions, counter clockwise from the lowest point
+        final double[][] directions = { { 0, -1 }, { 1, -1 }, { 1, 0 }, { 1, 1 }, { 0, 1 },
+                { -1, 1 }, { -1, 0 }, { -1, -1 } };
+        double[] octagonX = new double[directions.length];
+        double[] octagonY = new double[directions.length];
+        double[] extremes = new double[directions.length];
+        Arrays.fill(extremes, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < size; i++) {
+            final double x = events.getX(i);
+            final double y = events.getY(i);
+            for (int d = 0; d < directions.length; d++) {
+                double projection = directions[d][0] * x + directions[d][1] * y;
+                if (projection > extremes[d]) {
+                    extremes[d] = projection;
+                    octagonX[d] = x;
+                    octagonY[d] = y;
+                }
+            }
+        }
+
+        // points strictly inside the octagon can not be vertices of the hull (Akl-Toussaint)
+        List<Coordinate> candidates = new ArrayList<Coordinate>();
+        for (int i = 0; i < size; i++) {
+            final double x = events.getX(i);
+            final double y = events.getY(i);
+            boolean inside = true;
+            for (int d = 0; d < directions.length && inside; d++) {
+                int next = (d + 1) % directions.length;
+                double cross = (octagonX[next] - octagonX[d]) * (y - octagonY[d])
+                        - (octagonY[next] - octagonY[d]) * (x - octagonX[d]);
+                inside = cross > 0;
+            }
+
+            if (!inside) {
+                candidates.add(new Coordinate(x, y));
+            }
+        }
+
+        Coordinate[] coordinates = candidates.toArray(new Coordinate[candidates.size()]);
+        ConvexHull cbxBuidler = new ConvexHull(coordinates, new GeometryFactory());
+        return cbxBuidler.getConvexHull().getArea();
+    }
+
     public NearestNeighborResult execute(SimpleFeatureCollection features) {
         return execute(features, features.getBounds().getArea());
     }
 
     public NearestNeighborResult execute(SimpleFeatureCollection features, double studyArea) {
         typeName = features.getSchema().getTypeName();
-        return execute(DistanceFactory.loadEvents(features, null), studyArea);
+        return execute(SpatialEventStore.load(features, null), studyArea);
     }
 
     public NearestNeighborResult execute(List<SpatialEvent> events, double studyArea) {
-        observedMeanDist = 0.0;
+        return execute(SpatialEventStore.fromEvents(events), studyArea);
+    }
 
-        factory.DistanceType = distanceMethod;
+    /**
+     * Computes the nearest neighbor distances of all events through a KD-tree, in parallel.
+     */
+    public NearestNeighborResult execute(SpatialEventStore events, double studyArea) {
+        observedMeanDist = 0.0;
 
         featureCount = events.size();
         if (studyArea == 0) {
@@ -95,11 +150,10 @@ public class NNIOperation extends GeneralOperation {
             this.studyArea = studyArea;
         }
 
-        double minDistance = 0.0;
         double sumNearestDist = 0.0;
 
-        for (SpatialEvent curEvent : events) {
-            minDistance = factory.getMinimumDistance(events, curEvent);
+        NearestNeighborFinder finder = new NearestNeighborFinder(events, distanceMethod);
+        for (double minDistance : finder.getNearestDistances()) {
             sumNearestDist += minDistance;
         }
 
@@ -0,0 +1,188 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.spatialstatistics.pattern;
+
+import java.util.Arrays;
+
+/**
+ * Counts points per quadrat of a regular grid.<br>
+ * The quadrat of a point is computed from its coordinates, so counting is a single pass. Small
+ * grids use a dense count array, grids larger than {@link #DENSE_LIMIT} cells keep only the
+ * occupied quadrats in a hash table, so memory depends on the number of points, not the grid size.
+ * Counters over partitions of the points can be merged.
+ *
+ * @author Minpa Lee, MangoSystem
+ *
+ * @source $URL$
+ */
+public class QuadratCounter {
+
+    /** Maximum number of quadrats counted in a dense array */
+    public static final long DENSE_LIMIT = 1L << 22;
+
+    private static final long EMPTY = -1L;
+
+    private final double minX;
+
+    private final double minY;
+
+    private final double cellSize;
+
+    private final int columns;
+
+    private final int rows;
+
+    private int[] counts;
+
+    // sparse quadrats: open addressing with linear probing
+    private long[] keys;
+
+    private int[] values;
+
+    private int occupied = 0;
+
+    private int pointCount = 0;
+
+    public QuadratCounter(double minX, double minY, double cellSize, int columns, int rows) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+
+        if (getQuadratCount() <= DENSE_LIMIT) {
+            counts = new int[(int) getQuadratCount()];
+        } else {
+            keys = new long[1024];
+            values = new int[1024];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    /**
+     * Creates an empty counter over the same grid.
+     */
+    public QuadratCounter newInstance() {
+        return new QuadratCounter(minX, minY, cellSize, columns, rows);
+    }
+
+    public long getQuadratCount() {
+        return (long) columns * rows;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public boolean isDense() {
+        return counts != null;
+    }
+
+    public void add(double x, double y) {
+        // points on the maximum edge belong to the last column or row
+        int col = Math.min(columns - 1, Math.max(0, (int) Math.floor((x - minX) / cellSize)));
+        int row = Math.min(rows - 1, Math.max(0, (int) Math.floor((y - minY) / cellSize)));
+        increment((long) row * columns + col, 1);
+        pointCount++;
+    }
+
+    public void merge(QuadratCounter other) {
+        if (other.isDense()) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    increment(i, other.counts[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    increment(other.keys[i], other.values[i]);
+                }
+            }
+        }
+        pointCount += other.pointCount;
+    }
+
+    /**
+     * Returns the number of quadrats per point count: element c is the number of quadrats
+     * containing c points.
+     */
+    public long[] getFrequencies() {
+        int maxVal = 0;
+        int[] source = isDense() ? counts : values;
+        for (int i = 0; i < source.length; i++) {
+            maxVal = Math.max(maxVal, source[i]);
+        }
+
+        long[] frequencies = new long[maxVal + 1];
+        if (isDense()) {
+            for (int i = 0; i < counts.length; i++) {
+                frequencies[counts[i]]++;
+            }
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    frequencies[values[i]]++;
+                }
+            }
+            frequencies[0] = getQuadratCount() - occupied;
+        }
+        return frequencies;
+    }
+
+    private void increment(long key, int count) {
+        if (isDense()) {
+            counts[(int) key] += count;
+            return;
+        }
+
+        int slot = find(keys, key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            if (++occupied * 2 > keys.length) {
+                rehash();
+                slot = find(keys, key);
+            }
+        }
+        values[slot] += count;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int find(long[] table, long key) {
+        final int mask = table.length - 1;
+        long hash = key * 0x9e3779b97f4a7c15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != EMPTY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
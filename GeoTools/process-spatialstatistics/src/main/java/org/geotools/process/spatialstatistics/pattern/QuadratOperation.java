@@ -18,10 +18,13 @@ package org.geotools.process.spatialstatistics.pattern;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.process.spatialstatistics.core.ParallelExecutor;
 import org.geotools.process.spatialstatistics.operations.GeneralOperation;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeature;
@@ -42,6 +45,9 @@ import com.vividsolutions.jts.geom.Geometry;
 public class QuadratOperation extends GeneralOperation {
     protected static final Logger LOGGER = Logging.getLogger(QuadratOperation.class);
 
+    /** Number of features whose centroids are counted together */
+    static final int BATCH_SIZE = 16384;
+
     public QuadratResult execute(SimpleFeatureCollection features) {
         return execute(features, Double.valueOf(0d));
     }
@@ -50,81 +56,75 @@ public class QuadratOperation extends GeneralOperation {
         QuadratResult result = new QuadratResult(features.getSchema().getTypeName());
 
         // 1. calculate extent and feature count
-        Envelope bounds = null;
-        List<Coordinate> coordinates = new ArrayList<Coordinate>();
+        Envelope bounds = features.getBounds();
+        int size = features.size();
+
+        // 2. prepare variables
+        double area = bounds.getArea();
+        if (cellSize == null || cellSize <= 0 || cellSize.isNaN() || cellSize.isInfinite()) {
+            cellSize = Math.sqrt((area * 2) / size);
+        }
+
+        int columns = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+        int rows = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
 
+        // 3. count the centroids per quadrat, in batches
+        QuadratCounter counter = new QuadratCounter(bounds.getMinX(), bounds.getMinY(), cellSize,
+                columns, rows);
+
+        // partial counters are shared by all batches and merged once at the end
+        final Queue<QuadratCounter> pool = new ConcurrentLinkedQueue<QuadratCounter>();
+        List<Geometry> batch = new ArrayList<Geometry>(BATCH_SIZE);
         SimpleFeatureIterator featureIter = features.features();
         try {
             while (featureIter.hasNext()) {
                 SimpleFeature feature = featureIter.next();
                 Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                coordinates.add(geometry.getCentroid().getCoordinate());
+                if (geometry == null || geometry.isEmpty()) {
+                    continue;
+                }
 
-                if (bounds == null) {
-                    bounds = geometry.getEnvelopeInternal();
-                } else {
-                    bounds.expandToInclude(geometry.getEnvelopeInternal());
+                batch.add(geometry);
+                if (batch.size() == BATCH_SIZE) {
+                    count(batch, counter, pool);
+                    batch.clear();
                 }
             }
+            count(batch, counter, pool);
         } finally {
             featureIter.close();
         }
 
-        // 2. prepare variables
-        double area = bounds.getArea();
-        if (cellSize == null || cellSize <= 0 || cellSize.isNaN() || cellSize.isInfinite()) {
-            cellSize = Math.sqrt((area * 2) / coordinates.size());
+        for (QuadratCounter partial : pool) {
+            counter.merge(partial);
         }
 
-        double minX = bounds.getMinX();
-        double minY = bounds.getMinY();
-        int columns = (int) Math.ceil(bounds.getWidth() / cellSize);
-        int rows = (int) Math.ceil(bounds.getHeight() / cellSize);
-
-        // 3. calculate grids & count
-        int iQuadratCount[][] = new int[rows][columns];
-        for (Coordinate coordinate : coordinates) {
-            int col = (int) Math.floor((coordinate.x - minX) / cellSize);
-            int row = (int) Math.floor((coordinate.y - minY) / cellSize);
-            iQuadratCount[row][col]++;
-        }
+        // 4. calculate statistics
+        final long[] quadratsFreq = counter.getFrequencies();
+        final double quadratCount = counter.getQuadratCount();
 
-        // 4. builds array
-        final int quadrats[] = new int[rows * columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                quadrats[j + i * columns] = iQuadratCount[i][j];
-            }
-        }
-
-        // 5. calculate statistics
-        int quadratCount = quadrats.length;
-        int maxVal = 0;
         double sumOfVals = 0;
         double sumOfSqrs = 0;
-
-        for (int i = 0; i < quadratCount; i++) {
-            sumOfVals += quadrats[i];
-            sumOfSqrs += quadrats[i] * quadrats[i];
-            maxVal = Math.max(maxVal, quadrats[i]);
+        for (int i = 0; i < quadratsFreq.length; i++) {
+            sumOfVals += (double) i * quadratsFreq[i];
+            sumOfSqrs += (double) i * i * quadratsFreq[i];
         }
 
         double mean = sumOfVals / quadratCount;
         double variance = (sumOfSqrs - Math.pow(sumOfVals, 2.0) / quadratCount) / quadratCount;
         double VMR = variance / mean;
 
-        // 6. test
-        final int quadratsFreq[] = new int[maxVal + 1];
-        for (int i = 0; i < quadratCount; i++) {
-            quadratsFreq[quadrats[i]]++;
-        }
-
+        // 5. test
         double dObsProb = 0d;
         double dPoissonProb = 0d;
+        double dPoissonTerm = Math.exp(-mean); // mean^i * e^-mean / i!
         double dMaxDiff = 0d;
         for (int i = 0; i < quadratsFreq.length; i++) {
-            dObsProb += (double) quadratsFreq[i] / (double) quadratCount;
-            dPoissonProb += Math.pow(mean, i) * Math.exp(-mean) / factorial((double) i);
+            if (i > 0) {
+                dPoissonTerm *= mean / i;
+            }
+            dObsProb += quadratsFreq[i] / quadratCount;
+            dPoissonProb += dPoissonTerm;
             dMaxDiff = Math.max(dMaxDiff, Math.abs(dObsProb - dPoissonProb));
         }
 
@@ -132,7 +132,7 @@ public class QuadratOperation extends GeneralOperation {
 
         // finally, build result
         result.setArea(area);
-        result.setFeatureCount(coordinates.size());
+        result.setFeatureCount(counter.getPointCount());
         result.setCellSize(cellSize);
         result.setColumns(columns);
         result.setRows(rows);
@@ -141,19 +141,33 @@ public class QuadratOperation extends GeneralOperation {
         result.setVariance(variance);
         result.setVariance_Mean_Ratio(VMR);
 
-        result.setNumber_of_Quadrats(quadratCount);
+        result.setNumber_of_Quadrats((int) Math.min(Integer.MAX_VALUE, counter.getQuadratCount()));
         result.setKolmogorov_Smirnov_Test(dMaxDiff);
         result.setCritical_Value_at_5percent(dKS);
 
         return result;
     }
 
-    private double factorial(final double n) {
-        double f = 1.0d;
-        for (int i = 1; i <= n; i++) {
-            f *= i;
-        }
-        return f;
+    /**
+     * Counts the centroids of a batch in parallel partitions. Each worker takes a counter from the
+     * pool and returns it, so at most one counter per thread is created for all batches.
+     */
+    private void count(final List<Geometry> batch, final QuadratCounter counter,
+            final Queue<QuadratCounter> pool) {
+        ParallelExecutor.execute(batch.size(), new ParallelExecutor.RangeTask() {
+            @Override
+            public void execute(int start, int end) {
+                QuadratCounter partial = pool.poll();
+                if (partial == null) {
+                    partial = counter.newInstance();
+                }
+                for (int i = start; i < end; i++) {
+                    Coordinate coordinate = batch.get(i).getCentroid().getCoordinate();
+                    partial.add(coordinate.x, coordinate.y);
+                }
+                pool.offer(partial);
+            }
+        });
     }
 
     public static final class QuadratResult {
@@ -0,0 +1,72 @@
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class NearestNeighborFinderTest extends SpatialStatisticsTestCase {
+
+    private List<SpatialEvent> createEvents(int size) {
+        Random random = new Random(1);
+        List<SpatialEvent> events = new ArrayList<SpatialEvent>();
+        for (int i = 0; i < size; i++) {
+            Coordinate coordinate = new Coordinate(random.nextDouble() * 1000,
+                    random.nextDouble() * 1000);
+            events.add(new SpatialEvent(i, coordinate));
+        }
+        return events;
+    }
+
+    @Test
+    public void testThresholdDistance() {
+        List<SpatialEvent> events = createEvents(1500);
+        DistanceFactory factory = DistanceFactory.newInstance();
+        for (DistanceMethod method : DistanceMethod.values()) {
+            NearestNeighborFinder finder = new NearestNeighborFinder(events, method);
+            double[] nearestDistances = finder.getNearestDistances();
+
+            double maxDistance = 0;
+            for (int i = 0; i < events.size(); i++) {
+                double minDistance = Double.MAX_VALUE;
+                for (int j = 0; j < events.size(); j++) {
+                    if (i != j) {
+                        minDistance = Math.min(minDistance,
+                                factory.getDistance(events.get(i), events.get(j), method));
+                    }
+                }
+                assertEquals(minDistance, nearestDistances[i], 1e-9);
+                maxDistance = Math.max(maxDistance, minDistance);
+            }
+
+            assertEquals(maxDistance * 1.0001, finder.getThresholdDistance(), 1e-9);
+
+            factory.DistanceType = method;
+            assertEquals(maxDistance * 1.0001, factory.getThresholDistance(events), 1e-9);
+        }
+    }
+
+    @Test
+    public void testKNearestNeighborWeights() {
+        List<SpatialEvent> events = createEvents(800);
+        NearestNeighborFinder finder = new NearestNeighborFinder(events, DistanceMethod.Euclidean);
+        SparseWeightMatrix matrix = finder.getKNearestNeighbors(8, false);
+
+        assertEquals(events.size(), matrix.size());
+        PointKdTree.NeighborHeap heap = new PointKdTree.NeighborHeap();
+        for (int i = 0; i < events.size(); i++) {
+            finder.getKNearestNeighbors(i, 8, false, heap);
+            assertEquals(8, matrix.getNeighborCount(i));
+            for (int pos = 0; pos < 8; pos++) {
+                int k = matrix.getRowStart(i) + pos;
+                assertEquals(heap.getIndex(pos), matrix.getNeighbor(k));
+                assertEquals(heap.getDistance(pos), matrix.getWeight(k), 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.junit.Test;
+
+public class PointKdTreeTest extends SpatialStatisticsTestCase {
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void testRadiusQuery() {
+        for (int t = 0; t < 20; t++) {
+            final int size = random.nextInt(2000) + 1;
+            double[] x = new double[size];
+            double[] y = new double[size];
+            for (int i = 0; i < size; i++) {
+                // integer coordinates give duplicates and points exactly on the radius
+                x[i] = random.nextInt(50);
+                y[i] = t % 3 == 0 ? 5 : random.nextInt(50);
+            }
+
+            PointKdTree tree = new PointKdTree(x, y, size);
+            assertEquals(size, tree.size());
+
+            for (int q = 0; q < 20; q++) {
+                double qx = random.nextInt(50);
+                double qy = random.nextInt(50);
+                double radius = random.nextInt(10);
+                for (DistanceMethod method : DistanceMethod.values()) {
+                    final Set<Integer> found = new HashSet<Integer>();
+                    tree.query(qx, qy, radius, method, new PointKdTree.Visitor() {
+                        @Override
+                        public void visit(int index, double distance) {
+                            assertTrue(found.add(Integer.valueOf(index)));
+                        }
+                    });
+
+                    Set<Integer> expected = new HashSet<Integer>();
+                    for (int i = 0; i < size; i++) {
+                        if (distance(qx, qy, x[i], y[i], method) <= radius) {
+                            expected.add(Integer.valueOf(i));
+                        }
+                    }
+                    assertEquals(expected, found);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        for (int t = 0; t < 20; t++) {
+            final int size = random.nextInt(2000) + 2;
+            double[] x = new double[size];
+            double[] y = new double[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = random.nextInt(100);
+                y[i] = random.nextInt(100);
+            }
+
+            PointKdTree tree = new PointKdTree(x, y, size);
+            for (DistanceMethod method : DistanceMethod.values()) {
+                for (int i = 0; i < size; i += 7) {
+                    int nearest = tree.nearest(x[i], y[i], i, method);
+                    assertTrue(nearest != i);
+
+                    double expected = Double.MAX_VALUE;
+                    for (int j = 0; j < size; j++) {
+                        if (j != i) {
+                            expected = Math.min(expected, distance(x[i], y[i], x[j], y[j], method));
+                        }
+                    }
+                    assertEquals(expected, distance(x[i], y[i], x[nearest], y[nearest], method),
+                            0.0);
+                }
+            }
+        }
+
+        PointKdTree single = new PointKdTree(new double[] { 1 }, new double[] { 1 });
+        assertEquals(-1, single.nearest(1, 1, 0, DistanceMethod.Euclidean));
+        assertEquals(0, single.nearest(5, 5, -1, DistanceMethod.Euclidean));
+    }
+
+    @Test
+    public void testKNearestNeighbors() {
+        final int size = 1500;
+        final double[] x = new double[size];
+        final double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            // many equally distant neighbors
+            x[i] = random.nextInt(40);
+            y[i] = random.nextInt(40);
+        }
+
+        PointKdTree tree = new PointKdTree(x, y, size);
+        PointKdTree.NeighborHeap heap = new PointKdTree.NeighborHeap();
+        for (final DistanceMethod method : DistanceMethod.values()) {
+            for (int i = 0; i < size; i += 11) {
+                // all other points ordered by distance, then by index
+                final int origin = i;
+                Integer[] expected = new Integer[size - 1];
+                for (int j = 0, count = 0; j < size; j++) {
+                    if (j != origin) {
+                        expected[count++] = Integer.valueOf(j);
+                    }
+                }
+                Arrays.sort(expected, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer o1, Integer o2) {
+                        int result = Double.compare(
+                                distance(x[origin], y[origin], x[o1], y[o1], method),
+                                distance(x[origin], y[origin], x[o2], y[o2], method));
+                        return result != 0 ? result : o1.compareTo(o2);
+                    }
+                });
+
+                for (int k : new int[] { 1, 4, 8, 50 }) {
+                    tree.nearest(x[i], y[i], k, i, method, false, heap);
+                    assertEquals(k, heap.size());
+                    for (int pos = 0; pos < k; pos++) {
+                        assertEquals(expected[pos].intValue(), heap.getIndex(pos));
+                        assertEquals(distance(x[i], y[i], x[heap.getIndex(pos)],
+                                y[heap.getIndex(pos)], method), heap.getDistance(pos), 0.0);
+                    }
+
+                    // with ties, every point as distant as the k-th one is added
+                    tree.nearest(x[i], y[i], k, i, method, true, heap);
+                    double kth = distance(x[i], y[i], x[expected[k - 1]], y[expected[k - 1]],
+                            method);
+                    int count = k;
+                    while (count < expected.length
+                            && distance(x[i], y[i], x[expected[count]], y[expected[count]],
+                                    method) == kth) {
+                        count++;
+                    }
+                    assertEquals(count, heap.size());
+                    for (int pos = 0; pos < count; pos++) {
+                        assertEquals(expected[pos].intValue(), heap.getIndex(pos));
+                    }
+                }
+            }
+        }
+
+        // fewer points than k
+        tree = new PointKdTree(new double[] { 0, 1, 2 }, new double[] { 0, 0, 0 });
+        tree.nearest(0, 0, 5, 0, DistanceMethod.Euclidean, true, heap);
+        assertEquals(2, heap.size());
+        assertEquals(1, heap.getIndex(0));
+        assertEquals(2, heap.getIndex(1));
+    }
+
+    @Test
+    public void testEmptyTree() {
+        PointKdTree tree = new PointKdTree(new double[0], new double[0]);
+        tree.query(0, 0, 10, DistanceMethod.Euclidean, new PointKdTree.Visitor() {
+            @Override
+            public void visit(int index, double distance) {
+                fail();
+            }
+        });
+    }
+
+    private double distance(double x1, double y1, double x2, double y2, DistanceMethod method) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        if (method == DistanceMethod.Manhattan) {
+            return Math.abs(dx) + Math.abs(dy);
+        }
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
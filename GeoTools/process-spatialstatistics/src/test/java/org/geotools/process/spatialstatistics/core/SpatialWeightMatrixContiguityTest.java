@@ -0,0 +1,135 @@
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.property.PropertyDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.ContiguityType;
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpatialWeightMatrixContiguityTest extends SpatialStatisticsTestCase {
+    DataStore dataStore;
+
+    @Override
+    @Before
+    protected void setUp() throws Exception {
+        super.setUp();
+        // shared test-data of the parent package
+        dataStore = new PropertyDataStore(TestData.file(SpatialStatisticsTestCase.class, null));
+    }
+
+    @Override
+    @After
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        dataStore.dispose();
+    }
+
+    private SpatialWeightMatrixResult execute(String typeName, ContiguityType type, int order)
+            throws Exception {
+        SimpleFeatureCollection features = dataStore.getFeatureSource(typeName).getFeatures();
+
+        SpatialWeightMatrixContiguity contiguity = new SpatialWeightMatrixContiguity();
+        contiguity.setContiguityType(type);
+        contiguity.setOrderOfContiguity(order);
+        return contiguity.execute(features, "uid");
+    }
+
+    private Set<Integer> getNeighbors(SpatialWeightMatrixResult swm, int uid) {
+        int index = -1;
+        for (int i = 0; i < swm.getIdCount(); i++) {
+            if (((Number) swm.getId(i)).intValue() == uid) {
+                index = i;
+            }
+        }
+        assertTrue(index != -1);
+
+        Set<Integer> neighbors = new HashSet<Integer>();
+        SparseWeightMatrix.Row row = swm.getRow(index, new SparseWeightMatrix.Row());
+        for (int k = row.start; k < row.end; k++) {
+            neighbors.add(Integer.valueOf(((Number) swm.getId(row.neighbors[k])).intValue()));
+        }
+        return neighbors;
+    }
+
+    // 4 x 4 grid of unit squares, uid = row * 4 + column
+    private boolean isFirstOrderNeighbor(int uid1, int uid2, ContiguityType type) {
+        int dr = Math.abs(uid1 / 4 - uid2 / 4);
+        int dc = Math.abs(uid1 % 4 - uid2 % 4);
+        switch (type) {
+        case Rook:
+            return dr + dc == 1;
+        case Bishops:
+            return dr == 1 && dc == 1;
+        default:
+            return Math.max(dr, dc) == 1;
+        }
+    }
+
+    // cells reachable within order steps
+    private Set<Integer> getGridNeighbors(int uid, ContiguityType type, int order) {
+        Set<Integer> reached = new HashSet<Integer>();
+        reached.add(Integer.valueOf(uid));
+        for (int step = 0; step < order; step++) {
+            Set<Integer> next = new HashSet<Integer>(reached);
+            for (Integer current : reached) {
+                for (int other = 0; other < 16; other++) {
+                    if (isFirstOrderNeighbor(current.intValue(), other, type)) {
+                        next.add(Integer.valueOf(other));
+                    }
+                }
+            }
+            reached = next;
+        }
+        reached.remove(Integer.valueOf(uid));
+        return reached;
+    }
+
+    @Test
+    public void testGridPairs() throws Exception {
+        for (ContiguityType type : ContiguityType.values()) {
+            for (int order = 1; order <= 2; order++) {
+                SpatialWeightMatrixResult swm = execute("grid", type, order);
+                assertEquals(16, swm.getIdCount());
+
+                for (int uid = 0; uid < 16; uid++) {
+                    assertEquals(type + " order " + order + " of " + uid,
+                            getGridNeighbors(uid, type, order), getNeighbors(swm, uid));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentlyNodedBorders() throws Exception {
+        // 1 shares half of its right edge with 2 and with 3, 3 touches 4 at a corner
+        SpatialWeightMatrixResult swm = execute("noded", ContiguityType.Rook, 1);
+        assertEquals(set(2, 3), getNeighbors(swm, 1));
+        assertEquals(set(1, 3), getNeighbors(swm, 2));
+        assertEquals(set(1, 2), getNeighbors(swm, 3));
+        assertEquals(set(), getNeighbors(swm, 4));
+
+        swm = execute("noded", ContiguityType.Bishops, 1);
+        assertEquals(set(), getNeighbors(swm, 1));
+        assertEquals(set(4), getNeighbors(swm, 3));
+        assertEquals(set(3), getNeighbors(swm, 4));
+
+        swm = execute("noded", ContiguityType.Queen, 1);
+        assertEquals(set(1, 2, 4), getNeighbors(swm, 3));
+        assertEquals(set(3), getNeighbors(swm, 4));
+    }
+
+    private Set<Integer> set(int... values) {
+        Set<Integer> result = new HashSet<Integer>();
+        for (int value : values) {
+            result.add(Integer.valueOf(value));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,271 @@
+package org.geotools.process.spatialstatistics.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.core.AbstractSpatialWeightMatrix.SpatialWeightMatrixType;
+import org.junit.Test;
+
+public class SpatialWeightMatrixResultTest extends SpatialStatisticsTestCase {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private SpatialWeightMatrixResult createMatrix(SpatialWeightMatrixType type, int size) {
+        Random random = new Random(1);
+        SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(type);
+        swm.setupVariables("sample", "uid");
+        for (int i = 0; i < size; i++) {
+            swm.addId("F" + i);
+        }
+
+        for (int i = 0; i < size; i++) {
+            int count = random.nextInt(6);
+            for (int k = 0; k < count; k++) {
+                int j = random.nextInt(size);
+                if (j != i) {
+                    double distance = type == SpatialWeightMatrixType.Distance ? random
+                            .nextDouble() * 1000 : 0d;
+                    swm.visit("F" + i, "F" + j, distance);
+                }
+            }
+        }
+        return swm;
+    }
+
+    private File createTempFile(String extension) throws IOException {
+        File file = File.createTempFile("swm", extension);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private void assertSameRows(SpatialWeightMatrixResult expected,
+            SpatialWeightMatrixResult actual) {
+        assertEquals(expected.getSpatialWeightMatrixType(), actual.getSpatialWeightMatrixType());
+        assertEquals(expected.getTypeName(), actual.getTypeName());
+        assertEquals(expected.getUniqueField(), actual.getUniqueField());
+        assertEquals(expected.getFeatureCount(), actual.getFeatureCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        assertEquals(expected.getItems(), actual.getItems());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        for (SpatialWeightMatrixType type : SpatialWeightMatrixType.values()) {
+            SpatialWeightMatrixResult swm = createMatrix(type, 500);
+            File file = createTempFile(SpatialWeightMatrixFile.FILE_EXTENSION);
+            swm.save(file, CHARSET);
+            assertTrue(SpatialWeightMatrixFile.isBinary(file));
+
+            SpatialWeightMatrixResult loaded = new SpatialWeightMatrixResult(
+                    SpatialWeightMatrixType.Distance);
+            assertTrue(loaded.load(file, CHARSET));
+            assertSameRows(swm, loaded);
+
+            // the binary file keeps the ids, including the ones without neighbors, in order
+            assertEquals(swm.getIdCount(), loaded.getIdCount());
+            for (int i = 0; i < swm.getIdCount(); i++) {
+                assertEquals(swm.getId(i), loaded.getId(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTextRoundTrip() throws IOException {
+        SpatialWeightMatrixResult distance = createMatrix(SpatialWeightMatrixType.Distance, 300);
+        File gwtFile = createTempFile(".gwt");
+        distance.save(gwtFile, CHARSET);
+        assertFalse(SpatialWeightMatrixFile.isBinary(gwtFile));
+
+        SpatialWeightMatrixResult loaded = new SpatialWeightMatrixResult(
+                SpatialWeightMatrixType.Contiguity);
+        assertTrue(loaded.load(gwtFile, CHARSET));
+        assertSameRows(distance, loaded);
+
+        SpatialWeightMatrixResult contiguity = createMatrix(SpatialWeightMatrixType.Contiguity,
+                300);
+        File galFile = createTempFile(".gal");
+        contiguity.save(galFile, CHARSET);
+
+        loaded = new SpatialWeightMatrixResult(SpatialWeightMatrixType.Distance);
+        assertTrue(loaded.load(galFile, CHARSET));
+        assertSameRows(contiguity, loaded);
+    }
+
+    @Test
+    public void testCountOnlyHeader() throws IOException {
+        // without an id field the ids are the record numbers of the features
+        String[] headers = { "4", "0 4" };
+        for (String header : headers) {
+            File galFile = createTempFile(".gal");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(galFile), CHARSET);
+            try {
+                writer.write(header + "\n1 2\n2 3\n2 1\n1\n3 2\n1 4\n4 1\n3\n");
+            } finally {
+                writer.close();
+            }
+
+            SpatialWeightMatrixResult loaded = new SpatialWeightMatrixResult(
+                    SpatialWeightMatrixType.Distance);
+            loaded.setupVariables("sample", "uid");
+            assertTrue(loaded.load(galFile, CHARSET));
+            assertEquals(SpatialWeightMatrixType.Contiguity, loaded.getSpatialWeightMatrixType());
+            assertNull(loaded.getUniqueField());
+            assertEquals(4, loaded.getFeatureCount());
+
+            SparseWeightMatrix weights = loaded.toSparseWeightMatrix(SpatialWeightMatrixResult
+                    .getRecordIds(4));
+            int[][] expected = { { 1, 2 }, { 0 }, { 0, 3 }, { 2 } };
+            SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+            for (int i = 0; i < expected.length; i++) {
+                weights.getRow(i, row);
+                assertEquals(expected[i].length, row.size());
+                for (int k = 0; k < row.size(); k++) {
+                    assertEquals(expected[i][k], row.neighbors[row.start + k]);
+                }
+            }
+
+            // saved again with a count only header
+            File copy = createTempFile(".gal");
+            loaded.save(copy, CHARSET);
+            SpatialWeightMatrixResult reloaded = new SpatialWeightMatrixResult(
+                    SpatialWeightMatrixType.Distance);
+            assertTrue(reloaded.load(copy, CHARSET));
+            assertSameRows(loaded, reloaded);
+        }
+    }
+
+    @Test
+    public void testBinaryFile() throws IOException {
+        SpatialWeightMatrixResult swm = createMatrix(SpatialWeightMatrixType.Distance, 200);
+        File file = createTempFile(SpatialWeightMatrixFile.FILE_EXTENSION);
+        swm.save(file, CHARSET);
+
+        // features listed in another order, one of them missing from the file
+        List<String> featureIds = new ArrayList<String>();
+        for (int i = 0; i < swm.getIdCount(); i++) {
+            featureIds.add(swm.getId(i).toString());
+        }
+        featureIds.add("unknown");
+        Collections.shuffle(featureIds, new Random(2));
+
+        SpatialWeightMatrixFile swmFile = SpatialWeightMatrixFile.open(file);
+        try {
+            assertEquals(swm.getIdCount(), swmFile.getFeatureCount());
+            assertEquals(swm.getEdgeCount(), swmFile.getEdgeCount());
+            assertEquals("sample", swmFile.getTypeName());
+            assertEquals("uid", swmFile.getUniqueField());
+
+            SparseWeightMatrix.Row expected = new SparseWeightMatrix.Row();
+            SparseWeightMatrix.Row actual = new SparseWeightMatrix.Row();
+            for (int i = 0; i < swm.getIdCount(); i++) {
+                assertEquals(swm.getId(i), swmFile.getId(i));
+                assertEquals(i, swmFile.indexOf(swmFile.getId(i)));
+
+                swm.getRow(i, expected);
+                swmFile.getRow(i, actual);
+                assertEquals(expected.size(), actual.size());
+                for (int k = 0; k < expected.size(); k++) {
+                    assertEquals(expected.neighbors[expected.start + k],
+                            actual.neighbors[actual.start + k]);
+                    assertEquals(expected.weights[expected.start + k],
+                            actual.weights[actual.start + k], 0.0);
+                }
+            }
+            assertEquals(-1, swmFile.indexOf("unknown"));
+
+            // both readers match the rows to the features by id, with unit weights
+            SparseWeightMatrix fromFile = swmFile.toSparseWeightMatrix(featureIds);
+            SparseWeightMatrix fromResult = swm.toSparseWeightMatrix(featureIds);
+            assertEquals(featureIds.size(), fromFile.size());
+            for (int i = 0; i < featureIds.size(); i++) {
+                fromFile.getRow(i, actual);
+                fromResult.getRow(i, expected);
+                assertEquals(expected.size(), actual.size());
+
+                int fileRow = swmFile.indexOf(featureIds.get(i));
+                int neighborCount = fileRow == -1 ? 0 : swmFile.getNeighborCount(fileRow);
+                assertEquals(neighborCount, actual.size());
+                for (int k = 0; k < actual.size(); k++) {
+                    int neighbor = actual.neighbors[actual.start + k];
+                    assertEquals(expected.neighbors[expected.start + k], neighbor);
+                    assertEquals(1.0, actual.weights[actual.start + k], 0.0);
+                }
+            }
+        } finally {
+            swmFile.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedEdgesKeepLastDistance() {
+        SpatialWeightMatrixResult swm = new SpatialWeightMatrixResult(
+                SpatialWeightMatrixType.Distance);
+        swm.visit("a", "c", 3.0);
+        swm.visit("a", "b", 1.0);
+        swm.visit("b", "a", 1.0);
+        swm.visit("a", "c", 4.0);
+        swm.visit("c", "d", 2.0);
+
+        assertEquals(4, swm.getIdCount());
+        assertEquals(4, swm.getEdgeCount());
+        assertEquals(3, swm.getFeatureCount());
+
+        // neighbors sorted by dense id: a = 0, c = 1, b = 2, d = 3
+        SparseWeightMatrix.Row row = swm.getRow(swm.indexOf("a"), new SparseWeightMatrix.Row());
+        assertEquals(2, row.size());
+        assertEquals(swm.indexOf("c"), row.neighbors[row.start]);
+        assertEquals(4.0, row.weights[row.start], 0.0);
+        assertEquals(swm.indexOf("b"), row.neighbors[row.start + 1]);
+        assertEquals(1.0, row.weights[row.start + 1], 0.0);
+
+        row = swm.getRow(swm.indexOf("d"), row);
+        assertEquals(0, row.size());
+
+        // edges added after reading are sorted again
+        swm.visit("d", "a", 5.0);
+        assertEquals(5, swm.getEdgeCount());
+        row = swm.getRow(swm.indexOf("d"), row);
+        assertEquals(1, row.size());
+        assertEquals(swm.indexOf("a"), row.neighbors[row.start]);
+    }
+
+    @Test
+    public void testSymmetrize() {
+        SpatialWeightMatrixResult swm = createMatrix(SpatialWeightMatrixType.Distance, 300);
+        int edgeCount = swm.getEdgeCount();
+        swm.symmetrize();
+        assertTrue(swm.getEdgeCount() >= edgeCount);
+
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        SparseWeightMatrix.Row reverse = new SparseWeightMatrix.Row();
+        for (int i = 0; i < swm.getIdCount(); i++) {
+            swm.getRow(i, row);
+            for (int k = row.start; k < row.end; k++) {
+                if (k > row.start) {
+                    assertTrue(row.neighbors[k - 1] < row.neighbors[k]);
+                }
+
+                swm.getRow(row.neighbors[k], reverse);
+                boolean found = false;
+                for (int r = reverse.start; r < reverse.end; r++) {
+                    found |= reverse.neighbors[r] == i;
+                }
+                assertTrue(found);
+            }
+        }
+
+        // symmetric matrices are left unchanged
+        edgeCount = swm.getEdgeCount();
+        swm.symmetrize();
+        assertEquals(edgeCount, swm.getEdgeCount());
+    }
+}
@@ -0,0 +1,127 @@
+package org.geotools.process.spatialstatistics.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.DistanceMethod;
+import org.geotools.process.spatialstatistics.enumeration.SpatialConcept;
+import org.geotools.process.spatialstatistics.enumeration.StandardizationMethod;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class SpatialWeightMatrixTest extends SpatialStatisticsTestCase {
+
+    private static final SpatialConcept[] BOUNDED_CONCEPTS = {
+            SpatialConcept.INVERSEDISTANCE, SpatialConcept.INVERSEDISTANCESQUARED,
+            SpatialConcept.FIXEDDISTANCEBAND };
+
+    private List<SpatialEvent> createEvents(int size, long seed) {
+        Random random = new Random(seed);
+        List<SpatialEvent> events = new ArrayList<SpatialEvent>();
+        for (int i = 0; i < size; i++) {
+            Coordinate coordinate = new Coordinate(random.nextInt(100), random.nextInt(100));
+            events.add(new SpatialEvent(i, coordinate, random.nextDouble()));
+        }
+        return events;
+    }
+
+    private SpatialWeightMatrix createMatrix(SpatialConcept concept, DistanceMethod method,
+            List<SpatialEvent> events, double distanceBandWidth) {
+        return createMatrix(concept, method, events, distanceBandWidth, false);
+    }
+
+    private SpatialWeightMatrix createMatrix(SpatialConcept concept, DistanceMethod method,
+            List<SpatialEvent> events, double distanceBandWidth, boolean direct) {
+        SpatialEventStore store = new SpatialEventStore(events.size(), direct);
+        for (SpatialEvent event : events) {
+            store.add(event);
+        }
+
+        SpatialWeightMatrix swm = new SpatialWeightMatrix(concept, StandardizationMethod.NONE);
+        swm.distanceMethod = method;
+        swm.distanceBandWidth = distanceBandWidth;
+        swm.Events = store;
+        swm.buildWeights(null);
+        return swm;
+    }
+
+    @Test
+    public void testSparseRowsMatchDenseWeights() {
+        List<SpatialEvent> events = createEvents(400, 1);
+        for (SpatialConcept concept : BOUNDED_CONCEPTS) {
+            for (DistanceMethod method : DistanceMethod.values()) {
+                SpatialWeightMatrix swm = createMatrix(concept, method, events, 12.0);
+                assertTrue(swm.isSparse());
+
+                SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+                for (int i = 0; i < events.size(); i++) {
+                    swm.getRow(i, row);
+
+                    // the row lists the non-zero weights in neighbor order
+                    int pos = row.start;
+                    for (int j = 0; j < events.size(); j++) {
+                        if (i == j) {
+                            continue;
+                        }
+                        double weight = swm.getWeight(events.get(i), events.get(j));
+                        assertEquals(weight, swm.getWeight(i, j), 0.0);
+                        if (weight == 0) {
+                            continue;
+                        }
+                        assertTrue(pos < row.end);
+                        assertEquals(j, row.neighbors[pos]);
+                        assertEquals(weight, row.weights[pos], 0.0);
+                        pos++;
+                    }
+                    assertEquals(row.end, pos);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testZoneOfIndifferenceIsDense() {
+        List<SpatialEvent> events = createEvents(50, 2);
+        SpatialWeightMatrix swm = createMatrix(SpatialConcept.ZONEOFINDIFFERENCE,
+                DistanceMethod.Euclidean, events, 12.0);
+        assertFalse(swm.isSparse());
+
+        SparseWeightMatrix.Row row = new SparseWeightMatrix.Row();
+        for (int i = 0; i < events.size(); i++) {
+            swm.getRow(i, row);
+            assertEquals(events.size() - 1, row.size());
+            for (int k = row.start; k < row.end; k++) {
+                SpatialEvent destEvent = events.get(row.neighbors[k]);
+                assertEquals(swm.getWeight(events.get(i), destEvent), row.weights[k], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testDirectEventsMatchHeap() {
+        List<SpatialEvent> events = createEvents(200, 3);
+        SpatialWeightMatrix heap = createMatrix(SpatialConcept.INVERSEDISTANCE,
+                DistanceMethod.Euclidean, events, 15.0, false);
+        SpatialWeightMatrix direct = createMatrix(SpatialConcept.INVERSEDISTANCE,
+                DistanceMethod.Euclidean, events, 15.0, true);
+        assertTrue(direct.Events.isDirect());
+
+        SparseWeightMatrix.Row heapRow = new SparseWeightMatrix.Row();
+        SparseWeightMatrix.Row directRow = new SparseWeightMatrix.Row();
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(heap.Events.getWeight(i), direct.Events.getWeight(i), 0.0);
+            heap.getRow(i, heapRow);
+            direct.getRow(i, directRow);
+            assertEquals(heapRow.size(), directRow.size());
+            for (int k = 0; k < heapRow.size(); k++) {
+                assertEquals(heapRow.neighbors[heapRow.start + k],
+                        directRow.neighbors[directRow.start + k]);
+                assertEquals(heapRow.weights[heapRow.start + k],
+                        directRow.weights[directRow.start + k], 0.0);
+            }
+        }
+    }
+}
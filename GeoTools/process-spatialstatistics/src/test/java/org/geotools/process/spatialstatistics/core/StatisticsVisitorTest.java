@@ -0,0 +1,79 @@
+package org.geotools.process.spatialstatistics.core;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.DoubleStrategy;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.FloatStrategy;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.IntegerStrategy;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.LongStrategy;
+import org.geotools.process.spatialstatistics.core.StatisticsVisitor.StatisticsStrategy;
+import org.junit.Test;
+
+public class StatisticsVisitorTest extends SpatialStatisticsTestCase {
+
+    @Test
+    public void testNegativeValues() {
+        Object[][] values = { { -3, -1, -2 }, { -3L, -1L, -2L }, { -3f, -1f, -2f },
+                { -3d, -1d, -2d } };
+        StatisticsStrategy[] strategies = { new IntegerStrategy(), new LongStrategy(),
+                new FloatStrategy(), new DoubleStrategy() };
+
+        for (int k = 0; k < strategies.length; k++) {
+            for (Object value : values[k]) {
+                strategies[k].add(value);
+            }
+
+            StatisticsVisitorResult ret = strategies[k].getResult();
+            assertEquals(3, ret.getCount());
+            assertEquals(-3d, ret.getMinimum(), 0d);
+            assertEquals(-1d, ret.getMaximum(), 0d);
+            assertEquals(2d, ret.getRange(), 0d);
+            assertEquals(-6d, ret.getSum(), 0d);
+            assertEquals(2d / 3d, ret.getVariance(), 1e-12);
+            assertEquals(values[k][0], ret.getFirstValue());
+            assertEquals(values[k][2], ret.getLastValue());
+
+            // the extrema of the next run do not depend on the previous run
+            strategies[k].reset();
+            strategies[k].add(values[k][1]);
+            ret = strategies[k].getResult();
+            assertEquals(-1d, ret.getMinimum(), 0d);
+            assertEquals(-1d, ret.getMaximum(), 0d);
+        }
+    }
+
+    @Test
+    public void testLargeIntegerSquares() {
+        // the squares overflow int and long arithmetic
+        StatisticsStrategy intStrategy = new IntegerStrategy();
+        intStrategy.add(Integer.valueOf(100000));
+        intStrategy.add(Integer.valueOf(-100000));
+        assertEquals(1e10, intStrategy.getResult().getVariance(), 1e-3);
+
+        StatisticsStrategy longStrategy = new LongStrategy();
+        longStrategy.add(Long.valueOf(4000000000L));
+        longStrategy.add(Long.valueOf(-4000000000L));
+        assertEquals(1.6e19, longStrategy.getResult().getVariance(), 1e6);
+    }
+
+    @Test
+    public void testInvalidValues() {
+        StatisticsStrategy strategy = new DoubleStrategy();
+        strategy.setNoData(Double.valueOf(-9999));
+        strategy.add(null);
+        strategy.add(Double.valueOf(Double.NaN));
+        strategy.add(Double.valueOf(Double.POSITIVE_INFINITY));
+        strategy.add(Double.valueOf(-9999));
+
+        StatisticsVisitorResult ret = strategy.getResult();
+        assertEquals(0, ret.getCount());
+        assertEquals(0d, ret.getRange(), 0d);
+        assertTrue(ret.getMaximum() < ret.getMinimum());
+
+        strategy.add(Double.valueOf(5));
+        ret = strategy.getResult();
+        assertEquals(1, ret.getCount());
+        assertEquals(5d, ret.getMinimum(), 0d);
+        assertEquals(5d, ret.getMaximum(), 0d);
+        assertEquals(0d, ret.getVariance(), 0d);
+    }
+}
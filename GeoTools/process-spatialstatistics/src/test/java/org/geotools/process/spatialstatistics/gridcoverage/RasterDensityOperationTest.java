@@ -0,0 +1,88 @@
+package org.geotools.process.spatialstatistics.gridcoverage;
+
+import java.awt.RenderingHints;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.Random;
+
+import javax.media.jai.BorderExtender;
+import javax.media.jai.JAI;
+import javax.media.jai.KernelJAI;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TiledImage;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.RasterPixelType;
+import org.jaitools.tiledimage.DiskMemImage;
+import org.junit.Test;
+
+public class RasterDensityOperationTest extends SpatialStatisticsTestCase {
+
+    @Test
+    public void testScatterEqualsConvolve() {
+        RasterDensityOperation operation = new RasterDensityOperation();
+        operation.CellSize = 1.0;
+
+        // tiles of 64 pixels, the last column and row of tiles are partial
+        ReferencedEnvelope extent = new ReferencedEnvelope(0, 300, 0, 170, null);
+        DiskMemImage image = operation.createDiskMemImage(extent, RasterPixelType.DOUBLE, 64, 64);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        assertEquals(300, width);
+        assertEquals(170, height);
+
+        // asymmetric kernel with an off-center origin, so a flipped stamp would be detected
+        Random random = new Random(3);
+        float[] data = new float[7 * 5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextFloat();
+        }
+        KernelJAI kernel = new KernelJAI(7, 5, 2, 3, data);
+
+        // the same weighted points, scattered and rasterized for the Convolve operation
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE,
+                64, 64, 1);
+        TiledImage source = new TiledImage(0, 0, width, height, 0, 0, sampleModel,
+                PlanarImage.createColorModel(sampleModel));
+        RasterDensityOperation.GridPoints points = new RasterDensityOperation.GridPoints();
+        for (int i = 0; i < 500; i++) {
+            // points near the border and repeated cells included
+            int column = random.nextInt(width);
+            int row = random.nextInt(height);
+            double weight = random.nextDouble();
+            points.add(column, row, weight);
+            source.setSample(column, row, 0, source.getSampleDouble(column, row, 0) + weight);
+        }
+
+        final double scale = 0.5;
+        assertTrue(operation.scatter(image, points, kernel, scale));
+
+        ParameterBlockJAI pb = new ParameterBlockJAI("Convolve");
+        pb.setSource("source0", source);
+        pb.setParameter("kernel", kernel);
+        RenderingHints hints = new RenderingHints(JAI.KEY_BORDER_EXTENDER,
+                BorderExtender.createInstance(BorderExtender.BORDER_ZERO));
+        RenderedOp convolved = JAI.create("Convolve", pb, hints);
+
+        Raster expected = convolved.getData();
+        Raster actual = image.getData();
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                double value = expected.getSampleDouble(column, row, 0) * scale;
+                assertEquals(value, actual.getSampleDouble(column, row, 0), 1e-9);
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+        }
+
+        assertEquals(minValue, operation.MinValue, 1e-9);
+        assertEquals(maxValue, operation.MaxValue, 1e-9);
+    }
+}
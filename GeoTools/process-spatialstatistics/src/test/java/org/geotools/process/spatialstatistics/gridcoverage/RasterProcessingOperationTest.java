@@ -0,0 +1,85 @@
+package org.geotools.process.spatialstatistics.gridcoverage;
+
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.enumeration.RasterPixelType;
+import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.jaitools.tiledimage.DiskMemImage;
+import org.junit.Test;
+
+public class RasterProcessingOperationTest extends SpatialStatisticsTestCase {
+
+    @Test
+    public void testMultiBandRoundTrip() throws IOException {
+        // two bands would get a gray and alpha color model, twelve bands none at all
+        checkRoundTrip(2);
+        checkRoundTrip(12);
+    }
+
+    private void checkRoundTrip(int numBands) throws IOException {
+        RasterDensityOperation operation = new RasterDensityOperation();
+        operation.CellSize = 1.0;
+
+        ReferencedEnvelope extent = new ReferencedEnvelope(0, 30, 0, 20,
+                DefaultGeographicCRS.WGS84);
+        DiskMemImage image = operation.createDiskMemImage(extent, RasterPixelType.FLOAT, 16, 16,
+                numBands);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        ColorModel cm = image.getColorModel();
+        assertNotNull(cm);
+        assertFalse(cm.hasAlpha());
+        assertEquals(numBands, cm.getNumComponents());
+        assertEquals(numBands, image.getSampleModel().getNumBands());
+
+        GridSampleDimension[] bands = new GridSampleDimension[numBands];
+        for (int band = 0; band < numBands; band++) {
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    image.setSample(column, row, band, getValue(band, column, row));
+                }
+            }
+            bands[band] = operation.createSampleDimension("Band" + band, -1,
+                    getValue(band, 0, 0), getValue(band, width - 1, height - 1));
+        }
+
+        GridCoverage2D coverage = operation.createGridCoverage("MultiBand", image, bands, -1,
+                getValue(0, 0, 0), getValue(numBands - 1, width - 1, height - 1),
+                operation.Extent);
+
+        File file = File.createTempFile("multiband", ".tif");
+        try {
+            RasterExportOperation export = new RasterExportOperation();
+            GridCoverage2D result = export.saveAsGeoTiff(coverage, file.getPath());
+            assertEquals(numBands, result.getNumSampleDimensions());
+
+            Raster raster = result.getRenderedImage().getData();
+            assertEquals(width, raster.getWidth());
+            assertEquals(height, raster.getHeight());
+            for (int band = 0; band < numBands; band++) {
+                for (int row = 0; row < height; row++) {
+                    for (int column = 0; column < width; column++) {
+                        assertEquals(getValue(band, column, row), raster.getSampleFloat(
+                                raster.getMinX() + column, raster.getMinY() + row, band), 0f);
+                    }
+                }
+            }
+            result.dispose(true);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private float getValue(int band, int column, int row) {
+        return band * 1000f + row * 30f + column + 0.5f;
+    }
+}
@@ -0,0 +1,82 @@
+package org.geotools.process.spatialstatistics.gridcoverage;
+
+import java.util.Random;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class ThinPlateSplineInterpolatorTest extends SpatialStatisticsTestCase {
+
+    private final Random random = new Random(1);
+
+    // smooth surface in projected coordinates, about -100 to 300
+    private double surface(double x, double y) {
+        return Math.sin(x / 3000.0) * Math.cos(y / 2000.0) * 100 + 0.01 * (x - 500000);
+    }
+
+    private Coordinate[] createSamples(int size, double extent) {
+        Coordinate[] samples = new Coordinate[size];
+        for (int i = 0; i < size; i++) {
+            double x = 500000 + random.nextDouble() * extent;
+            double y = 4000000 + random.nextDouble() * extent;
+            samples[i] = new Coordinate(x, y, surface(x, y));
+        }
+        return samples;
+    }
+
+    @Test
+    public void testGlobalSplineReproducesSamples() {
+        Coordinate[] samples = createSamples(800, 20000);
+        // a duplicate sample makes the system singular without regularization
+        samples[5] = new Coordinate(samples[4].x, samples[4].y, samples[4].z);
+
+        ThinPlateSplineInterpolator interpolator = new ThinPlateSplineInterpolator(samples);
+        for (Coordinate sample : samples) {
+            assertEquals(sample.z, interpolator.getValue(sample), 1e-4);
+        }
+    }
+
+    @Test
+    public void testLocalSplinesFollowGlobalSpline() {
+        Coordinate[] samples = createSamples(1500, 20000);
+        ThinPlateSplineInterpolator global = new ThinPlateSplineInterpolator(samples, 0);
+        ThinPlateSplineInterpolator local = new ThinPlateSplineInterpolator(samples,
+                ThinPlateSplineInterpolator.DEFAULT_NEIGHBORS);
+
+        double sumSquares = 0;
+        for (int i = 0; i < 5000; i++) {
+            Coordinate p = new Coordinate(500000 + random.nextDouble() * 20000,
+                    4000000 + random.nextDouble() * 20000);
+            double value = local.getValue(p);
+            double diff = value - global.getValue(p);
+            sumSquares += diff * diff;
+
+            // near the border both splines extrapolate from few samples
+            if (p.x > 501000 && p.x < 519000 && p.y > 4001000 && p.y < 4019000) {
+                assertEquals(global.getValue(p), value, 1.0);
+                assertEquals(surface(p.x, p.y), value, 1.0);
+            }
+        }
+        assertTrue(Math.sqrt(sumSquares / 5000) < 0.5);
+    }
+
+    @Test
+    public void testDegenerateSamples() {
+        Coordinate[] collinear = new Coordinate[10];
+        for (int i = 0; i < collinear.length; i++) {
+            collinear[i] = new Coordinate(i, 2 * i, i);
+        }
+        // no plane through collinear samples: the mean value
+        ThinPlateSplineInterpolator interpolator = new ThinPlateSplineInterpolator(collinear);
+        assertEquals(4.5, interpolator.getValue(new Coordinate(3, 3)), 1e-9);
+
+        Coordinate[] single = { new Coordinate(1, 1, 7) };
+        interpolator = new ThinPlateSplineInterpolator(single);
+        assertEquals(7.0, interpolator.getValue(new Coordinate(5, 5)), 1e-9);
+
+        interpolator = new ThinPlateSplineInterpolator(new Coordinate[0]);
+        assertEquals(-Float.MAX_VALUE, interpolator.getValue(new Coordinate(5, 5)), 0.0);
+    }
+}
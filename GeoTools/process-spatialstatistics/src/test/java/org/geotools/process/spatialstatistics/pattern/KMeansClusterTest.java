@@ -0,0 +1,106 @@
+package org.geotools.process.spatialstatistics.pattern;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.geotools.process.spatialstatistics.SpatialStatisticsTestCase;
+import org.geotools.process.spatialstatistics.pattern.Cluster.PointEvent;
+import org.junit.Test;
+
+public class KMeansClusterTest extends SpatialStatisticsTestCase {
+
+    @Test
+    public void testConvergedAssignmentIsNearestCentroid() {
+        Random random = new Random(1);
+        int size = 20000;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            int group = random.nextInt(50);
+            x[i] = group * 10 + random.nextGaussian();
+            y[i] = (group % 7) * 13 + random.nextGaussian();
+        }
+
+        KMeansCluster kmeans = new KMeansCluster(x, y, size);
+        kmeans.setMaxIterations(1000);
+        PointEvent[] centers = kmeans.cluster(50);
+
+        assertEquals(50, centers.length);
+        assertNearestCentroid(x, y, kmeans.getClusters(), centers);
+
+        // the centroids are the means of their points
+        double[] sumX = new double[centers.length];
+        double[] sumY = new double[centers.length];
+        int[] counts = new int[centers.length];
+        for (int i = 0; i < size; i++) {
+            int cluster = kmeans.getCluster(i);
+            sumX[cluster] += x[i];
+            sumY[cluster] += y[i];
+            counts[cluster]++;
+        }
+        for (int j = 0; j < centers.length; j++) {
+            assertTrue(counts[j] > 0);
+            assertEquals(sumX[j] / counts[j], centers[j].x, 1e-9);
+            assertEquals(sumY[j] / counts[j], centers[j].y, 1e-9);
+        }
+    }
+
+    @Test
+    public void testReseededEmptyClusterIsAssigned() {
+        // this seed empties a cluster during the iterations
+        double[] x = { 7, 3, 1, 3, 4, 1, 3, 0, 7, 7, 7, 0, 2, 5, 1, 4, 3 };
+        double[] y = { 2, 0, 1, 2, 0, 2, 0, 2, 1, 0, 1, 1, 2, 1, 2, 0, 0 };
+
+        KMeansCluster kmeans = new KMeansCluster(x, y, x.length);
+        kmeans.setRandomSeed(119501L);
+        kmeans.setMaxIterations(1000);
+        PointEvent[] centers = kmeans.cluster(5);
+
+        assertNearestCentroid(x, y, kmeans.getClusters(), centers);
+
+        int[] counts = new int[centers.length];
+        for (int cluster : kmeans.getClusters()) {
+            counts[cluster]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void testDeterministic() {
+        Random random = new Random(2);
+        int size = 5000;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = random.nextDouble() * 100;
+            y[i] = random.nextDouble() * 100;
+        }
+
+        KMeansCluster first = new KMeansCluster(x, y, size);
+        first.cluster(20);
+        KMeansCluster second = new KMeansCluster(x, y, size);
+        second.setParallelism(1);
+        second.cluster(20);
+
+        assertTrue(Arrays.equals(first.getClusters(), second.getClusters()));
+    }
+
+    private void assertNearestCentroid(double[] x, double[] y, int[] clusters,
+            PointEvent[] centers) {
+        for (int i = 0; i < x.length; i++) {
+            double nearest = Double.MAX_VALUE;
+            for (PointEvent center : centers) {
+                nearest = Math.min(nearest, distance2(x[i], y[i], center));
+            }
+            assertEquals(nearest, distance2(x[i], y[i], centers[clusters[i]]), 1e-9);
+        }
+    }
+
+    private double distance2(double x, double y, PointEvent center) {
+        double dx = x - center.x;
+        double dy = y - center.y;
+        return dx * dx + dy * dy;
+    }
+}